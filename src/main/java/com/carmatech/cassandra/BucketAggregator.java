@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streaming aggregator of events into the buckets of a sharding frequency, emitting the aggregate of each bucket once it is complete, e.g. to write
+ * summaries with a {@link RollupStore}. <br />
+ * A bucket is complete once the watermark, i.e. the time up to which all events are assumed to have been received, minus the allowed lateness, is past
+ * its end. Events for complete buckets are dropped, and counted. <br />
+ * Events are aggregated into primitive, open-addressing maps keyed by bucket, without allocating any object per event. Maps are striped, as many as
+ * processors by default, so that concurrent writers rarely contend. Java cannot tell which core a thread runs on, so stripes are not per core: each
+ * thread adds to the stripe its hashed ID maps to, and threads sharing a stripe take turns. <br />
+ * Thread-safe: events can be added from any number of threads, while another advances the watermark.
+ */
+public final class BucketAggregator {
+	/**
+	 * Receives the aggregate of each complete bucket, in bucket order, from the thread advancing the watermark.
+	 */
+	public interface Listener {
+		void onBucket(long bucket, RollupAggregate aggregate);
+	}
+
+	private final ShardingFrequency frequency;
+	private final long allowedLatenessInMillis;
+	private final Listener listener;
+	private final Stripe[] stripes;
+	private final ReentrantLock emitLock = new ReentrantLock();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile long watermark = Long.MIN_VALUE;
+	// Events for buckets before this one are late:
+	private volatile long firstOpenBucket = Long.MIN_VALUE;
+
+	/**
+	 * Create an aggregator with one stripe per available processor.
+	 * 
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @param allowedLatenessInMillis
+	 *            how long after the watermark passed the end of a bucket, events for this bucket are still accepted.
+	 * @param listener
+	 *            receives the aggregate of each complete bucket.
+	 */
+	public BucketAggregator(final ShardingFrequency frequency, final long allowedLatenessInMillis, final Listener listener) {
+		this(frequency, allowedLatenessInMillis, Runtime.getRuntime().availableProcessors(), listener);
+	}
+
+	/**
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @param allowedLatenessInMillis
+	 *            how long after the watermark passed the end of a bucket, events for this bucket are still accepted.
+	 * @param numStripes
+	 *            number of independent maps events are added to, rounded up to a power of two.
+	 * @param listener
+	 *            receives the aggregate of each complete bucket.
+	 */
+	public BucketAggregator(final ShardingFrequency frequency, final long allowedLatenessInMillis, final int numStripes, final Listener listener) {
+		checkArgument(allowedLatenessInMillis >= 0, "Allowed lateness must be POSITIVE but was [" + allowedLatenessInMillis + "].");
+		checkArgument(numStripes > 0, "Number of stripes must be STRICTLY POSITIVE but was [" + numStripes + "].");
+		this.frequency = frequency;
+		this.allowedLatenessInMillis = allowedLatenessInMillis;
+		this.listener = listener;
+		int powerOfTwo = 1;
+		while (powerOfTwo < numStripes) {
+			powerOfTwo <<= 1;
+		}
+		this.stripes = new Stripe[powerOfTwo];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Create a listener merging the aggregate of each complete bucket into the provided store.
+	 */
+	public static Listener storeIn(final RollupStore store, final String series, final ShardingFrequency frequency) {
+		return new Listener() {
+			@Override
+			public void onBucket(final long bucket, final RollupAggregate aggregate) {
+				store.merge(series, frequency, bucket, aggregate);
+			}
+		};
+	}
+
+	/**
+	 * Add the provided event to the aggregate of its bucket.
+	 * 
+	 * @param timestamp
+	 *            timestamp of the event, in milliseconds.
+	 * @param value
+	 *            value of the event.
+	 * @return <code>true</code> if the event was added, <code>false</code> if it was dropped, as its bucket is already complete.
+	 */
+	public boolean add(final long timestamp, final double value) {
+		final long bucket = ShardingFrequency.calculateBucket(timestamp, frequency);
+		final Stripe stripe = stripes[stripeOf(Thread.currentThread().getId())];
+		stripe.lock.lock();
+		try {
+			// Checked under the lock, so that the event is either drained with its bucket, or dropped, but never emitted on its own afterwards:
+			if (bucket < firstOpenBucket) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			stripe.add(bucket, value);
+			return true;
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	private int stripeOf(final long threadId) {
+		final long hash = threadId * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & (stripes.length - 1);
+	}
+
+	/**
+	 * Advance the watermark, and emit the aggregates of all the buckets which are now complete. Watermarks before the current one are ignored.
+	 * 
+	 * @param newWatermark
+	 *            timestamp, in milliseconds, up to which all events are assumed to have been received.
+	 */
+	public void advanceWatermark(final long newWatermark) {
+		emitLock.lock();
+		try {
+			if (newWatermark <= watermark)
+				return;
+			watermark = newWatermark;
+			final long newFirstOpenBucket = ShardingFrequency.calculateBucket(newWatermark - allowedLatenessInMillis, frequency);
+			if (newFirstOpenBucket > firstOpenBucket) {
+				firstOpenBucket = newFirstOpenBucket;
+				emitBefore(newFirstOpenBucket);
+			}
+		} finally {
+			emitLock.unlock();
+		}
+	}
+
+	/**
+	 * Emit the aggregates of all buckets, complete or not, e.g. before shutting down. Events added meanwhile or afterwards are still accepted, and aggregated
+	 * again from scratch.
+	 */
+	public void flush() {
+		emitLock.lock();
+		try {
+			emitBefore(Long.MAX_VALUE);
+		} finally {
+			emitLock.unlock();
+		}
+	}
+
+	/**
+	 * Drain and emit all buckets before the provided one. Late events are rejected based on {@link #firstOpenBucket} only, which callers must have advanced
+	 * beforehand if needed.
+	 */
+	private void emitBefore(final long drainBound) {
+		final Map<Long, RollupAggregate> complete = new TreeMap<Long, RollupAggregate>();
+		for (final Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.drainBefore(drainBound, complete);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		for (final Map.Entry<Long, RollupAggregate> entry : complete.entrySet()) {
+			listener.onBucket(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @return the latest watermark, or {@link Long#MIN_VALUE} if it was never advanced.
+	 */
+	public long getWatermark() {
+		return watermark;
+	}
+
+	/**
+	 * @return the number of events dropped so far, because their bucket was already complete.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Open-addressing map, with linear probing, from buckets to their count, sum, minimum and maximum, stored in parallel primitive arrays. A count of 0
+	 * marks an empty slot.
+	 */
+	private static final class Stripe {
+		private static final int INITIAL_CAPACITY = 16;
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private int size;
+		private long[] buckets = new long[INITIAL_CAPACITY];
+		private long[] counts = new long[INITIAL_CAPACITY];
+		private double[] sums = new double[INITIAL_CAPACITY];
+		private double[] mins = new double[INITIAL_CAPACITY];
+		private double[] maxs = new double[INITIAL_CAPACITY];
+
+		void add(final long bucket, final double value) {
+			final int mask = buckets.length - 1;
+			int slot = slotOf(bucket, mask);
+			while ((counts[slot] != 0) && (buckets[slot] != bucket)) {
+				slot = (slot + 1) & mask;
+			}
+			if (counts[slot] == 0) {
+				if (2 * (size + 1) > buckets.length) {
+					rehash(buckets.length * 2, Long.MIN_VALUE, null);
+					add(bucket, value);
+					return;
+				}
+				++size;
+				buckets[slot] = bucket;
+				counts[slot] = 1;
+				sums[slot] = value;
+				mins[slot] = value;
+				maxs[slot] = value;
+			} else {
+				++counts[slot];
+				sums[slot] += value;
+				mins[slot] = Math.min(mins[slot], value);
+				maxs[slot] = Math.max(maxs[slot], value);
+			}
+		}
+
+		/**
+		 * Remove all buckets before the provided one, merging their aggregates into the provided map.
+		 */
+		void drainBefore(final long firstOpenBucket, final Map<Long, RollupAggregate> drained) {
+			for (int slot = 0; slot < buckets.length; slot++) {
+				if ((counts[slot] != 0) && (buckets[slot] < firstOpenBucket)) {
+					// Removing from a linear-probing table breaks probe sequences, so the remaining buckets are re-inserted instead:
+					rehash(buckets.length, firstOpenBucket, drained);
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Re-insert all buckets into tables of the provided capacity, except those before <code>firstOpenBucket</code>, which are merged into
+		 * <code>drained</code>.
+		 */
+		private void rehash(final int capacity, final long firstOpenBucket, final Map<Long, RollupAggregate> drained) {
+			final long[] oldBuckets = buckets;
+			final long[] oldCounts = counts;
+			final double[] oldSums = sums;
+			final double[] oldMins = mins;
+			final double[] oldMaxs = maxs;
+			buckets = new long[capacity];
+			counts = new long[capacity];
+			sums = new double[capacity];
+			mins = new double[capacity];
+			maxs = new double[capacity];
+			size = 0;
+
+			final int mask = capacity - 1;
+			for (int i = 0; i < oldBuckets.length; i++) {
+				if (oldCounts[i] == 0)
+					continue;
+				final long bucket = oldBuckets[i];
+				if (bucket < firstOpenBucket) {
+					final RollupAggregate aggregate = new RollupAggregate(oldCounts[i], oldSums[i], oldMins[i], oldMaxs[i]);
+					final RollupAggregate existing = drained.get(bucket);
+					if (existing == null)
+						drained.put(bucket, aggregate);
+					else
+						existing.merge(aggregate);
+					continue;
+				}
+				int slot = slotOf(bucket, mask);
+				while (counts[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				++size;
+				buckets[slot] = bucket;
+				counts[slot] = oldCounts[i];
+				sums[slot] = oldSums[i];
+				mins[slot] = oldMins[i];
+				maxs[slot] = oldMaxs[i];
+			}
+		}
+
+		private static int slotOf(final long bucket, final int mask) {
+			// Buckets are multiples of 1000, so their low bits must be mixed in with the high ones:
+			long hash = bucket * 0x9E3779B97F4A7C15L;
+			hash ^= hash >>> 32;
+			return (int) hash & mask;
+		}
+	}
+}
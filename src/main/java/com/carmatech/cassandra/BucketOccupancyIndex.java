@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Index of the buckets which have been written to, per series, so that range scans over sparse series only query the buckets which may contain columns,
+ * instead of every bucket of the range. <br />
+ * Occupancy is either stored exactly, as one sparse bitmap of bucket indices per series (default), or approximately, in a single Bloom filter of fixed
+ * size shared by all series (see {@link #withBloomFilter(ShardingFrequency, long, double)}), which bounds memory usage when there are very many series.
+ * Either way, a bucket may be reported as occupied while it is empty, but never the other way around, as long as the index sees every write. <br />
+ * The index is updated by writers, either directly with {@link #add(String, long)} or by wrapping their sink with {@link #track(BucketWriteSink)}, and
+ * can be saved to, and loaded from, a small file. Writes which happened after the file was last saved are unknown to the loaded index: it must therefore
+ * be saved when writers stop, and rebuilt if they did not stop cleanly. <br />
+ * Bucket indices are calculated in the default time zone, like buckets: the index can only be loaded in the time zone it was saved in.
+ */
+public final class BucketOccupancyIndex {
+	private static final int MAGIC = 0x42494458; // "BIDX"
+	private static final byte BITMAPS = 0;
+	private static final byte BLOOM_FILTER = 1;
+
+	private final ShardingFrequency frequency;
+	private final DateTimeZone zone;
+	private final Occupancy occupancy;
+
+	/**
+	 * Create an empty index, storing the occupancy of each series exactly.
+	 * 
+	 * @param frequency
+	 *            sharding frequency of the rows to index.
+	 */
+	public BucketOccupancyIndex(final ShardingFrequency frequency) {
+		this(frequency, DateTimeZone.getDefault(), new Bitmaps());
+	}
+
+	private BucketOccupancyIndex(final ShardingFrequency frequency, final DateTimeZone zone, final Occupancy occupancy) {
+		this.frequency = frequency;
+		this.zone = zone;
+		this.occupancy = occupancy;
+	}
+
+	/**
+	 * Create an empty index, storing the occupancy of all series in a Bloom filter sized for the provided number of occupied buckets.
+	 * 
+	 * @param frequency
+	 *            sharding frequency of the rows to index.
+	 * @param expectedEntries
+	 *            expected number of occupied buckets, across all series.
+	 * @param falsePositiveProbability
+	 *            probability for an empty bucket to be reported as occupied, once the expected number of buckets have been added.
+	 */
+	public static BucketOccupancyIndex withBloomFilter(final ShardingFrequency frequency, final long expectedEntries, final double falsePositiveProbability) {
+		checkArgument(expectedEntries > 0, "Expected number of entries must be STRICTLY POSITIVE but was [" + expectedEntries + "].");
+		checkArgument((falsePositiveProbability > 0) && (falsePositiveProbability < 1),
+				"False positive probability must be STRICTLY between 0 and 1 but was [" + falsePositiveProbability + "].");
+		final long numBits = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+		checkArgument(numBits <= Integer.MAX_VALUE, "Bloom filter would be too large: [" + numBits + "] bits.");
+		final int numHashes = Math.max(1, (int) Math.round((double) numBits / expectedEntries * Math.log(2)));
+		return new BucketOccupancyIndex(frequency, DateTimeZone.getDefault(), new BloomFilter(new long[(int) ((numBits + 63) >>> 6)], numHashes));
+	}
+
+	/**
+	 * Record that the provided bucket of the provided series has been written to.
+	 * 
+	 * @param prefix
+	 *            identifier of the series, e.g. its row key prefix.
+	 * @param bucket
+	 *            bucket written to, as calculated by {@link ShardingFrequency#calculateBucket(long, ShardingFrequency)}.
+	 */
+	public synchronized void add(final String prefix, final long bucket) {
+		occupancy.add(prefix, indexOf(bucket));
+	}
+
+	/**
+	 * @return <code>false</code> if the provided bucket of the provided series is empty, <code>true</code> if it may have been written to.
+	 */
+	public synchronized boolean mightContain(final String prefix, final long bucket) {
+		return occupancy.mightContain(prefix, indexOf(bucket));
+	}
+
+	/**
+	 * Get the buckets between the provided timestamps which may have been written to, for the provided series.
+	 * 
+	 * @return Buckets, in time order, e.g. to read with {@link BucketRangeReader#read(Iterable, long, long)}.
+	 */
+	public List<Long> getBuckets(final String prefix, final long from, final long to) {
+		return getBuckets(Collections.singleton(prefix), from, to);
+	}
+
+	/**
+	 * Get the buckets between the provided timestamps which may have been written to, for any of the provided series.
+	 * 
+	 * @return Buckets, in time order, e.g. to read with {@link BucketRangeReader#read(Iterable, long, long)}.
+	 */
+	public synchronized List<Long> getBuckets(final Collection<String> prefixes, final long from, final long to) {
+		final List<Long> buckets = new ArrayList<Long>();
+		for (final Long bucket : ShardingFrequency.getBuckets(from, to, frequency)) {
+			final long index = indexOf(bucket);
+			for (final String prefix : prefixes) {
+				if (occupancy.mightContain(prefix, index)) {
+					buckets.add(bucket);
+					break;
+				}
+			}
+		}
+		return buckets;
+	}
+
+	/**
+	 * Wrap the provided sink so that this index records every bucket it writes to. <br />
+	 * Buckets are recorded before being written, so a failed write may leave a bucket reported as occupied, but a successful write is never missed.
+	 * 
+	 * @return sink identifying series by their string representation, i.e. {@link String#valueOf(Object)}.
+	 */
+	public <S, V> BucketWriteSink<S, V> track(final BucketWriteSink<S, V> sink) {
+		return new BucketWriteSink<S, V>() {
+			@Override
+			public void write(final S series, final long bucket, final List<UUID> columnNames, final List<V> values) {
+				add(String.valueOf(series), bucket);
+				sink.write(series, bucket, columnNames, values);
+			}
+		};
+	}
+
+	private long indexOf(final long bucket) {
+		if (frequency == ShardingFrequency.MONTHLY) {
+			final Chronology chronology = ISOChronology.getInstance(zone);
+			return chronology.year().get(bucket) * 12L + chronology.monthOfYear().get(bucket) - 1;
+		}
+		// Buckets are aligned on local time, so this is a whole number of buckets since the epoch, and a unique index per bucket. The only exception is the
+		// hour repeated when daylight saving time ends, whose two buckets share an index: this merely reports an empty bucket as occupied.
+		final long local = bucket + zone.getOffset(bucket);
+		final long size = frequency.toMillis();
+		final long remainder = local % size;
+		return (local - remainder) / size - ((remainder < 0) ? 1 : 0);
+	}
+
+	/**
+	 * Save this index to the provided file, atomically replacing any previous version of it.
+	 */
+	public synchronized void save(final File file) throws IOException {
+		final File temporary = new File(file.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeUTF(frequency.name());
+			out.writeUTF(zone.getID());
+			occupancy.writeTo(out);
+		} finally {
+			out.close();
+		}
+		if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file)))
+			throw new IOException("Failed to replace [" + file + "] with [" + temporary + "].");
+	}
+
+	/**
+	 * Load an index previously saved with {@link #save(File)}.
+	 * 
+	 * @throws IOException
+	 *             if the file is not an index file, was saved in another time zone, or cannot be read.
+	 */
+	public static BucketOccupancyIndex load(final File file) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException("[" + file + "] is not a bucket occupancy index file.");
+			final ShardingFrequency frequency = ShardingFrequency.valueOf(in.readUTF());
+			final DateTimeZone zone = DateTimeZone.forID(in.readUTF());
+			if (!zone.equals(DateTimeZone.getDefault()))
+				throw new IOException("[" + file + "] was saved in time zone [" + zone + "] but default time zone is [" + DateTimeZone.getDefault() + "].");
+			final byte type = in.readByte();
+			if (type == BITMAPS)
+				return new BucketOccupancyIndex(frequency, zone, Bitmaps.readFrom(in));
+			if (type == BLOOM_FILTER)
+				return new BucketOccupancyIndex(frequency, zone, BloomFilter.readFrom(in));
+			throw new IOException("[" + file + "] has an unknown occupancy type: [" + type + "].");
+		} finally {
+			in.close();
+		}
+	}
+
+	private interface Occupancy {
+		void add(String prefix, long index);
+
+		boolean mightContain(String prefix, long index);
+
+		void writeTo(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * One sparse bitmap per series: bucket indices are split into chunks of 4096 consecutive buckets, and only chunks with at least one occupied bucket
+	 * are allocated (512 bytes each).
+	 */
+	private static final class Bitmaps implements Occupancy {
+		private static final int CHUNK_SHIFT = 12;
+		private static final int WORDS_PER_CHUNK = (1 << CHUNK_SHIFT) / 64;
+
+		private final Map<String, Map<Long, long[]>> bitmaps = new HashMap<String, Map<Long, long[]>>();
+
+		@Override
+		public void add(final String prefix, final long index) {
+			Map<Long, long[]> chunks = bitmaps.get(prefix);
+			if (chunks == null) {
+				chunks = new HashMap<Long, long[]>();
+				bitmaps.put(prefix, chunks);
+			}
+			final Long chunk = index >> CHUNK_SHIFT;
+			long[] words = chunks.get(chunk);
+			if (words == null) {
+				words = new long[WORDS_PER_CHUNK];
+				chunks.put(chunk, words);
+			}
+			words[wordOf(index)] |= 1L << index;
+		}
+
+		@Override
+		public boolean mightContain(final String prefix, final long index) {
+			final Map<Long, long[]> chunks = bitmaps.get(prefix);
+			if (chunks == null)
+				return false;
+			final long[] words = chunks.get(index >> CHUNK_SHIFT);
+			return (words != null) && ((words[wordOf(index)] & (1L << index)) != 0);
+		}
+
+		private static int wordOf(final long index) {
+			return (int) (index >>> 6) & (WORDS_PER_CHUNK - 1);
+		}
+
+		@Override
+		public void writeTo(final DataOutputStream out) throws IOException {
+			out.writeByte(BITMAPS);
+			out.writeInt(bitmaps.size());
+			for (final Map.Entry<String, Map<Long, long[]>> bitmap : bitmaps.entrySet()) {
+				out.writeUTF(bitmap.getKey());
+				out.writeInt(bitmap.getValue().size());
+				for (final Map.Entry<Long, long[]> chunk : bitmap.getValue().entrySet()) {
+					out.writeLong(chunk.getKey());
+					for (final long word : chunk.getValue()) {
+						out.writeLong(word);
+					}
+				}
+			}
+		}
+
+		static Bitmaps readFrom(final DataInputStream in) throws IOException {
+			final Bitmaps bitmaps = new Bitmaps();
+			final int numPrefixes = in.readInt();
+			for (int i = 0; i < numPrefixes; i++) {
+				final Map<Long, long[]> chunks = new HashMap<Long, long[]>();
+				bitmaps.bitmaps.put(in.readUTF(), chunks);
+				final int numChunks = in.readInt();
+				for (int j = 0; j < numChunks; j++) {
+					final long chunk = in.readLong();
+					final long[] words = new long[WORDS_PER_CHUNK];
+					for (int k = 0; k < words.length; k++) {
+						words[k] = in.readLong();
+					}
+					chunks.put(chunk, words);
+				}
+			}
+			return bitmaps;
+		}
+	}
+
+	/**
+	 * Single Bloom filter over (series, bucket index) pairs, using double hashing to derive all hash functions from one 64-bit hash.
+	 */
+	private static final class BloomFilter implements Occupancy {
+		private final long[] bits;
+		private final long numBits;
+		private final int numHashes;
+
+		BloomFilter(final long[] bits, final int numHashes) {
+			this.bits = bits;
+			this.numBits = bits.length * 64L;
+			this.numHashes = numHashes;
+		}
+
+		@Override
+		public void add(final String prefix, final long index) {
+			final long hash = hash(prefix, index);
+			for (int i = 0; i < numHashes; i++) {
+				final long bit = bitOf(hash, i);
+				bits[(int) (bit >>> 6)] |= 1L << bit;
+			}
+		}
+
+		@Override
+		public boolean mightContain(final String prefix, final long index) {
+			final long hash = hash(prefix, index);
+			for (int i = 0; i < numHashes; i++) {
+				final long bit = bitOf(hash, i);
+				if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+					return false;
+			}
+			return true;
+		}
+
+		private long bitOf(final long hash, final int i) {
+			final int combined = (int) hash + i * (int) (hash >>> 32);
+			return ((combined < 0) ? ~combined : combined) % numBits;
+		}
+
+		private static long hash(final String prefix, final long index) {
+			// Saved filters rely on this exact hash: it must never change.
+			return Hashing.fmix64(Hashing.fnv1a(Hashing.fnv1a(Hashing.FNV1A_OFFSET_BASIS, prefix), index));
+		}
+
+		@Override
+		public void writeTo(final DataOutputStream out) throws IOException {
+			out.writeByte(BLOOM_FILTER);
+			out.writeInt(numHashes);
+			out.writeInt(bits.length);
+			for (final long word : bits) {
+				out.writeLong(word);
+			}
+		}
+
+		static BloomFilter readFrom(final DataInputStream in) throws IOException {
+			final int numHashes = in.readInt();
+			final long[] bits = new long[in.readInt()];
+			for (int i = 0; i < bits.length; i++) {
+				bits[i] = in.readLong();
+			}
+			return new BloomFilter(bits, numHashes);
+		}
+	}
+}
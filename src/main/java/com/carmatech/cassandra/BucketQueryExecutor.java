@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import java.util.List;
+
+/**
+ * Executes slice queries against the row of a given bucket, for a given series of time-ordered columns. <br />
+ * See {@link HectorBucketQueryExecutor} for an implementation using Hector, and {@link BucketRangeReader} to read several buckets at once.
+ * 
+ * @param <T>
+ *            type of the columns.
+ */
+public interface BucketQueryExecutor<T> {
+	/**
+	 * Get the columns of the row of the provided bucket, between the provided timestamps.
+	 * 
+	 * @param bucket
+	 *            bucket of the row to query, as calculated by {@link ShardingFrequency#calculateBucket(long, ShardingFrequency)}.
+	 * @param from
+	 *            timestamp, in milliseconds, of the first column to return, included.
+	 * @param to
+	 *            timestamp, in milliseconds, of the last column to return, included.
+	 * @return Columns, in time order. Must be thread-safe, as queries for several buckets may be executed concurrently.
+	 */
+	List<T> query(long bucket, long from, long to);
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+/**
+ * Reads a time range spread over several buckets, for one or several series, by querying buckets in parallel and merging results back in time order. <br />
+ * Queries are submitted ahead of consumption, up to the configured maximum number of concurrent queries, so reading a long range takes about as long as
+ * the slowest bucket rather than the sum of all buckets. Results are streamed lazily: columns of a bucket are returned as soon as all series have been
+ * read for this bucket, even if later buckets are still being read. <br />
+ * As buckets never overlap in time, the k-way merge only ever needs to compare the columns of the different series within the same bucket.
+ * 
+ * @param <T>
+ *            type of the columns.
+ */
+public final class BucketRangeReader<T> {
+	/**
+	 * Iterator over the columns of a range, which must be closed if it is not read until the end, to cancel the queries submitted ahead of consumption.
+	 */
+	public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+		/**
+		 * Cancel all pending queries. The iterator then has no more columns.
+		 */
+		@Override
+		void close();
+	}
+
+	private final List<BucketQueryExecutor<T>> executors;
+	private final Comparator<? super T> comparator;
+	private final ExecutorService executorService;
+	private final int maxConcurrentQueries;
+
+	/**
+	 * @param executor
+	 *            executor of the queries for the series to read.
+	 * @param comparator
+	 *            time order of the columns.
+	 * @param executorService
+	 *            executor service running the queries.
+	 * @param maxConcurrentQueries
+	 *            maximum number of queries running at the same time for a given read.
+	 */
+	public BucketRangeReader(final BucketQueryExecutor<T> executor, final Comparator<? super T> comparator, final ExecutorService executorService,
+			final int maxConcurrentQueries) {
+		this(Collections.singletonList(executor), comparator, executorService, maxConcurrentQueries);
+	}
+
+	/**
+	 * @param executors
+	 *            executors of the queries, one per series to read and merge.
+	 * @param comparator
+	 *            time order of the columns.
+	 * @param executorService
+	 *            executor service running the queries.
+	 * @param maxConcurrentQueries
+	 *            maximum number of queries running at the same time for a given read.
+	 */
+	public BucketRangeReader(final Collection<? extends BucketQueryExecutor<T>> executors, final Comparator<? super T> comparator,
+			final ExecutorService executorService, final int maxConcurrentQueries) {
+		checkArgument(!executors.isEmpty(), "At least one query executor must be provided.");
+		checkArgument(maxConcurrentQueries > 0, "Maximum number of concurrent queries must be STRICTLY POSITIVE but was [" + maxConcurrentQueries + "].");
+		this.executors = new ArrayList<BucketQueryExecutor<T>>(executors);
+		this.comparator = comparator;
+		this.executorService = executorService;
+		this.maxConcurrentQueries = maxConcurrentQueries;
+	}
+
+	/**
+	 * Read all columns between the provided timestamps, in time order.
+	 * 
+	 * @param from
+	 *            timestamp, in milliseconds, of the first column to return, included.
+	 * @param to
+	 *            timestamp, in milliseconds, of the last column to return, included.
+	 * @param frequency
+	 *            sharding frequency of the rows to read.
+	 * @return Lazy iterator over the columns, to close if it is not read until the end. Failed queries are re-thrown, as {@link RuntimeException}s, by
+	 *         {@link Iterator#hasNext()}.
+	 */
+	public CloseableIterator<T> read(final long from, final long to, final ShardingFrequency frequency) {
+		return read(ShardingFrequency.getBuckets(from, to, frequency), from, to);
+	}
+
+	/**
+	 * Read all columns between the provided timestamps, in time order, only querying the provided buckets.
+	 * 
+	 * @param buckets
+	 *            buckets to query, in time order.
+	 * @param from
+	 *            timestamp, in milliseconds, of the first column to return, included.
+	 * @param to
+	 *            timestamp, in milliseconds, of the last column to return, included.
+	 * @return Lazy iterator over the columns, to close if it is not read until the end. Failed queries are re-thrown, as {@link RuntimeException}s, by
+	 *         {@link Iterator#hasNext()}.
+	 */
+	public CloseableIterator<T> read(final Iterable<Long> buckets, final long from, final long to) {
+		return new MergingIterator(buckets.iterator(), from, to);
+	}
+
+	private final class MergingIterator extends AbstractIterator<T> implements CloseableIterator<T> {
+		private final Iterator<Long> buckets;
+		private final long from;
+		private final long to;
+		private final Queue<Future<List<T>>> queries = new LinkedList<Future<List<T>>>();
+		private final PriorityQueue<PeekingIterator<T>> heads;
+		private Long bucket;
+		private int nextExecutor;
+		private boolean closed;
+
+		MergingIterator(final Iterator<Long> buckets, final long from, final long to) {
+			this.buckets = buckets;
+			this.from = from;
+			this.to = to;
+			this.heads = new PriorityQueue<PeekingIterator<T>>(executors.size(), new Comparator<PeekingIterator<T>>() {
+				@Override
+				public int compare(final PeekingIterator<T> first, final PeekingIterator<T> second) {
+					return comparator.compare(first.peek(), second.peek());
+				}
+			});
+			submitQueries();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			cancelQueries();
+			heads.clear();
+		}
+
+		@Override
+		protected T computeNext() {
+			while (heads.isEmpty()) {
+				if (queries.isEmpty())
+					return endOfData();
+
+				// Wait for all series of the next bucket, as their columns may interleave:
+				for (int i = 0; i < executors.size(); i++) {
+					final List<T> columns = await(queries.poll());
+					submitQueries();
+					if (!columns.isEmpty())
+						heads.add(Iterators.peekingIterator(columns.iterator()));
+				}
+			}
+
+			final PeekingIterator<T> head = heads.poll();
+			final T next = head.next();
+			if (head.hasNext())
+				heads.add(head);
+			return next;
+		}
+
+		private void submitQueries() {
+			while (!closed && (queries.size() < maxConcurrentQueries)) {
+				if (nextExecutor == 0) {
+					if (!buckets.hasNext())
+						return;
+					bucket = buckets.next();
+				}
+
+				final BucketQueryExecutor<T> executor = executors.get(nextExecutor);
+				final long currentBucket = bucket;
+				queries.add(executorService.submit(new Callable<List<T>>() {
+					@Override
+					public List<T> call() {
+						return executor.query(currentBucket, from, to);
+					}
+				}));
+				nextExecutor = (nextExecutor + 1) % executors.size();
+			}
+		}
+
+		private List<T> await(final Future<List<T>> query) {
+			try {
+				return query.get();
+			} catch (InterruptedException e) {
+				cancelQueries();
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while reading buckets.", e);
+			} catch (ExecutionException e) {
+				cancelQueries();
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException("Failed to read bucket.", e.getCause());
+			}
+		}
+
+		private void cancelQueries() {
+			for (final Future<List<T>> query : queries) {
+				query.cancel(true);
+			}
+			queries.clear();
+		}
+	}
+}
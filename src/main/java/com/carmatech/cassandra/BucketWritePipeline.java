@@ -0,0 +1,366 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write pipeline stage which accepts events, assigns them TimeUUIDs in bulk, groups them by row (i.e. series and bucket), and writes each row's batch to
+ * a {@link BucketWriteSink} once it reaches the maximum batch size, or once its oldest event has waited for the maximum latency. <br />
+ * Events are buffered in a bounded queue: when the sink cannot keep up and the queue is full, {@link #submit(Object, long, Object)} blocks, which
+ * applies backpressure to producers. Batches of all rows together hold at most the queue's capacity of events: beyond, the oldest batches are
+ * written early, even if incomplete. At most twice the queue's capacity of events are therefore buffered: one queue's worth being batched and
+ * written, and another one waiting in the queue. <br />
+ * All writes happen on a single background thread, started by {@link #start()}. {@link #close()} writes all pending events before returning. If
+ * the sink fails, pending events are dropped, and producers, including those waiting for space in the queue, get an {@link IllegalStateException}.
+ * 
+ * @param <S>
+ *            type of the series identifiers.
+ * @param <V>
+ *            type of the column values.
+ */
+public final class BucketWritePipeline<S, V> implements Closeable {
+	private static final int MAX_EVENTS_PER_DRAIN = 1024;
+
+	private final BucketWriteSink<S, V> sink;
+	private final ShardingFrequency frequency;
+	private final int maxBatchSize;
+	private final int maxBatchedEvents;
+	private final int maxEventsPerDrain;
+	private final long maxLatencyInNanos;
+	private final BlockingQueue<Event<S, V>> queue;
+	private final Event<S, V> closeMarker = new Event<S, V>(null, 0L, null);
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+	private final Lock spaceLock = new ReentrantLock();
+	private final Condition notFull = spaceLock.newCondition();
+	private final Map<SeriesBucket<S>, Batch<V>> batches = new LinkedHashMap<SeriesBucket<S>, Batch<V>>(); // Oldest batch first.
+	private int batchedEvents; // Only accessed by the flusher.
+	private final Thread flusher;
+	private volatile boolean closed;
+	private volatile RuntimeException failure;
+
+	/**
+	 * @param sink
+	 *            sink batches are written to.
+	 * @param frequency
+	 *            sharding frequency of the rows.
+	 * @param queueCapacity
+	 *            maximum number of events waiting to be batched, before producers are blocked.
+	 * @param maxBatchSize
+	 *            maximum number of columns written to a row in a single batch.
+	 * @param maxLatency
+	 *            maximum time an event waits in a batch before being written.
+	 * @param timeUnit
+	 *            time unit of <code>maxLatency</code>.
+	 */
+	public BucketWritePipeline(final BucketWriteSink<S, V> sink, final ShardingFrequency frequency, final int queueCapacity, final int maxBatchSize,
+			final long maxLatency, final TimeUnit timeUnit) {
+		checkArgument(queueCapacity > 0, "Queue capacity must be STRICTLY POSITIVE but was [" + queueCapacity + "].");
+		checkArgument(maxBatchSize > 0, "Maximum batch size must be STRICTLY POSITIVE but was [" + maxBatchSize + "].");
+		checkArgument(maxLatency > 0, "Maximum latency must be STRICTLY POSITIVE but was [" + maxLatency + "].");
+		this.sink = sink;
+		this.frequency = frequency;
+		this.maxBatchSize = maxBatchSize;
+		this.maxLatencyInNanos = timeUnit.toNanos(maxLatency);
+		this.queue = new ArrayBlockingQueue<Event<S, V>>(queueCapacity);
+		this.maxBatchedEvents = queueCapacity;
+		this.maxEventsPerDrain = Math.min(queueCapacity, MAX_EVENTS_PER_DRAIN);
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushUntilClosed();
+			}
+		}, "bucket-write-pipeline");
+		this.flusher.setDaemon(true);
+	}
+
+	/**
+	 * Start the background thread writing batches.
+	 */
+	public void start() {
+		flusher.start();
+	}
+
+	/**
+	 * Submit an event which happened now, waiting for space in the queue if necessary.
+	 * 
+	 * @param series
+	 *            series of the event.
+	 * @param value
+	 *            value of the event.
+	 * @throws IllegalStateException
+	 *             if the pipeline is closed, or failed to write a previous batch.
+	 */
+	public void submit(final S series, final V value) throws InterruptedException {
+		submit(series, System.currentTimeMillis(), value);
+	}
+
+	/**
+	 * Submit an event, waiting for space in the queue if necessary.
+	 * 
+	 * @param series
+	 *            series of the event.
+	 * @param timestamp
+	 *            timestamp, in milliseconds, of the event.
+	 * @param value
+	 *            value of the event.
+	 * @throws IllegalStateException
+	 *             if the pipeline is closed, or failed to write a previous batch.
+	 */
+	public void submit(final S series, final long timestamp, final V value) throws InterruptedException {
+		enqueue(new Event<S, V>(series, timestamp, value), false, 0L);
+	}
+
+	/**
+	 * Submit an event, waiting up to the provided timeout for space in the queue if necessary.
+	 * 
+	 * @param series
+	 *            series of the event.
+	 * @param timestamp
+	 *            timestamp, in milliseconds, of the event.
+	 * @param value
+	 *            value of the event.
+	 * @param timeout
+	 *            maximum time to wait for space in the queue.
+	 * @param timeUnit
+	 *            time unit of <code>timeout</code>.
+	 * @return <code>true</code> if the event was accepted, <code>false</code> if the queue was still full after the timeout.
+	 * @throws IllegalStateException
+	 *             if the pipeline is closed, or failed to write a previous batch.
+	 */
+	public boolean offer(final S series, final long timestamp, final V value, final long timeout, final TimeUnit timeUnit) throws InterruptedException {
+		return enqueue(new Event<S, V>(series, timestamp, value), true, timeUnit.toNanos(timeout));
+	}
+
+	private boolean enqueue(final Event<S, V> event, final boolean timed, final long timeoutInNanos) throws InterruptedException {
+		long remainingInNanos = timeoutInNanos;
+		while (true) {
+			// The close lock is only held to put the event, never to wait for space, so that close() never waits for the sink:
+			closeLock.readLock().lock();
+			try {
+				checkOpen();
+				if (queue.offer(event))
+					return true;
+			} finally {
+				closeLock.readLock().unlock();
+			}
+			if (timed && (remainingInNanos <= 0))
+				return false;
+
+			spaceLock.lock();
+			try {
+				// Checked again under the lock the flusher and close() signal under, so that no signal is missed:
+				if ((queue.remainingCapacity() == 0) && (failure == null) && !closed) {
+					if (timed)
+						remainingInNanos = notFull.awaitNanos(remainingInNanos);
+					else
+						notFull.await();
+				}
+			} finally {
+				spaceLock.unlock();
+			}
+		}
+	}
+
+	private void signalNotFull() {
+		spaceLock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			spaceLock.unlock();
+		}
+	}
+
+	private void checkOpen() {
+		if (failure != null)
+			throw new IllegalStateException("Pipeline failed to write a batch, no further event is accepted.", failure);
+		checkState(!closed, "Pipeline is closed.");
+	}
+
+	/**
+	 * Stop accepting events, write all pending events, and stop the background thread.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the pipeline was never started, and could therefore not write pending events, or if it failed to write a batch.
+	 */
+	@Override
+	public void close() {
+		checkState(flusher.getState() != Thread.State.NEW, "Pipeline was never started: start() it before closing it.");
+		closeLock.writeLock().lock();
+		try {
+			closed = true;
+		} finally {
+			closeLock.writeLock().unlock();
+		}
+		// Wake producers up if they are waiting for space, so that they get rejected:
+		signalNotFull();
+		// Wake the flusher up if it is waiting for events. If the queue is full, it is busy draining it anyway:
+		queue.offer(closeMarker);
+
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null)
+			throw new IllegalStateException("Pipeline failed to write a batch.", failure);
+	}
+
+	private void flushUntilClosed() {
+		final List<Event<S, V>> events = new ArrayList<Event<S, V>>(maxEventsPerDrain);
+		try {
+			while (!closed || !queue.isEmpty()) {
+				final Event<S, V> event = queue.poll(nanosUntilNextDeadline(), TimeUnit.NANOSECONDS);
+				if (event != null) {
+					events.add(event);
+					queue.drainTo(events, maxEventsPerDrain - 1);
+					signalNotFull();
+					events.remove(closeMarker);
+					makeRoomFor(events.size());
+					addToBatches(events);
+					events.clear();
+				}
+				flushExpiredBatches();
+			}
+			flushAllBatches();
+		} catch (InterruptedException e) {
+			fail(new IllegalStateException("Pipeline was interrupted while writing batches.", e));
+		} catch (RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	private void fail(final RuntimeException e) {
+		failure = e;
+		// Nothing drains the queue anymore: drop pending events, and wake producers up if they are waiting for space, so that they get rejected:
+		queue.clear();
+		signalNotFull();
+	}
+
+	private long nanosUntilNextDeadline() {
+		if (batches.isEmpty())
+			return maxLatencyInNanos;
+		final Batch<V> oldest = batches.values().iterator().next();
+		return Math.max(0L, oldest.createdAtInNanos + maxLatencyInNanos - System.nanoTime());
+	}
+
+	private void addToBatches(final List<Event<S, V>> events) {
+		if (events.isEmpty())
+			return;
+		final long[] timestamps = new long[events.size()];
+		for (int i = 0; i < timestamps.length; i++) {
+			timestamps[i] = events.get(i).timestamp;
+		}
+
+		final UUID[] uuids = new UUID[timestamps.length];
+		TimeUUID.createUUIDs(timestamps, uuids);
+		// Buckets are derived from the UUIDs rather than from the events, as generated UUIDs may be slightly ahead of their events' timestamps:
+		final long[] buckets = timestamps;
+		TimeUUID.bucketsOf(uuids, frequency, buckets);
+
+		for (int i = 0; i < uuids.length; i++) {
+			final Event<S, V> event = events.get(i);
+			final SeriesBucket<S> row = new SeriesBucket<S>(event.series, buckets[i]);
+			Batch<V> batch = batches.get(row);
+			if (batch == null) {
+				batch = new Batch<V>(maxBatchSize);
+				batches.put(row, batch);
+			}
+			batch.columnNames.add(uuids[i]);
+			batch.values.add(event.value);
+			batchedEvents++;
+			if (batch.columnNames.size() >= maxBatchSize) {
+				batches.remove(row);
+				write(row, batch);
+			}
+		}
+	}
+
+	private void makeRoomFor(final int numEvents) {
+		final Iterator<Map.Entry<SeriesBucket<S>, Batch<V>>> iterator = batches.entrySet().iterator();
+		while ((batchedEvents + numEvents > maxBatchedEvents) && iterator.hasNext()) {
+			final Map.Entry<SeriesBucket<S>, Batch<V>> entry = iterator.next();
+			iterator.remove();
+			write(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void flushExpiredBatches() {
+		final long now = System.nanoTime();
+		final Iterator<Map.Entry<SeriesBucket<S>, Batch<V>>> iterator = batches.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<SeriesBucket<S>, Batch<V>> entry = iterator.next();
+			if (now - entry.getValue().createdAtInNanos < maxLatencyInNanos)
+				return; // Batches are sorted from oldest to newest, so all following batches are even more recent.
+			iterator.remove();
+			write(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void flushAllBatches() {
+		final Iterator<Map.Entry<SeriesBucket<S>, Batch<V>>> iterator = batches.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<SeriesBucket<S>, Batch<V>> entry = iterator.next();
+			iterator.remove();
+			write(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void write(final SeriesBucket<S> row, final Batch<V> batch) {
+		batchedEvents -= batch.columnNames.size();
+		sink.write(row.series, row.bucket, batch.columnNames, batch.values);
+	}
+
+	private static final class Event<S, V> {
+		private final S series;
+		private final long timestamp;
+		private final V value;
+
+		Event(final S series, final long timestamp, final V value) {
+			this.series = series;
+			this.timestamp = timestamp;
+			this.value = value;
+		}
+	}
+
+	private static final class Batch<V> {
+		private final List<UUID> columnNames;
+		private final List<V> values;
+		private final long createdAtInNanos = System.nanoTime();
+
+		Batch(final int maxBatchSize) {
+			this.columnNames = new ArrayList<UUID>(maxBatchSize);
+			this.values = new ArrayList<V>(maxBatchSize);
+		}
+	}
+}
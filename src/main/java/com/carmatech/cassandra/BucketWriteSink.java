@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes batches of TimeUUID-named columns to the row of a given bucket, for a given series. <br />
+ * See {@link HectorBucketWriteSink} for an implementation using Hector, and {@link BucketWritePipeline} to build such batches.
+ * 
+ * @param <S>
+ *            type of the series identifiers.
+ * @param <V>
+ *            type of the column values.
+ */
+public interface BucketWriteSink<S, V> {
+	/**
+	 * Write the provided columns, all belonging to the same row, in a single round trip if possible.
+	 * 
+	 * @param series
+	 *            series the columns belong to.
+	 * @param bucket
+	 *            bucket of the row to write to, as calculated by {@link ShardingFrequency#calculateBucket(long, ShardingFrequency)}.
+	 * @param columnNames
+	 *            names of the columns.
+	 * @param values
+	 *            values of the columns, at the same index as their name.
+	 */
+	void write(S series, long bucket, List<UUID> columnNames, List<V> values);
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Function;
+
+/**
+ * Read-through cache of the rows of closed buckets, i.e. buckets whose time window has passed, and whose rows are therefore not written to anymore. <br />
+ * A closed bucket is read entirely the first time it is queried, and subsequent queries for any time range within this bucket are served from memory.
+ * The still-open current bucket, and future buckets, are never cached: queries for these always go to the underlying executor. <br />
+ * The cache is shared by all the series it wraps (see {@link #wrap(Object, BucketQueryExecutor)}), and evicts the least recently used rows once their
+ * total size exceeds the configured maximum. <br />
+ * Rows whose columns have a TTL, or which are rewritten after their bucket closed, should not be cached, as cached rows are never refreshed.
+ * 
+ * @param <T>
+ *            type of the columns.
+ */
+public final class ClosedBucketCache<T> {
+	private static final long ROW_OVERHEAD_IN_BYTES = 64;
+
+	private final ShardingFrequency frequency;
+	private final Function<? super T, Long> timestampFunction;
+	private final Weigher<? super T> weigher;
+	private final long maxSizeInBytes;
+	private final long gracePeriodInMillis;
+	private final LinkedHashMap<SeriesBucket<Object>, Row> rows = new LinkedHashMap<SeriesBucket<Object>, Row>(16, 0.75f, true); // Least recently used first.
+	private long sizeInBytes;
+	private long hitCount;
+	private long missCount;
+
+	/**
+	 * @param frequency
+	 *            sharding frequency of the rows to cache.
+	 * @param timestampFunction
+	 *            function returning the timestamp, in milliseconds, of a column.
+	 * @param weigher
+	 *            estimates the size of the cached columns.
+	 * @param maxSizeInBytes
+	 *            maximum total size of the cached rows.
+	 */
+	public ClosedBucketCache(final ShardingFrequency frequency, final Function<? super T, Long> timestampFunction, final Weigher<? super T> weigher,
+			final long maxSizeInBytes) {
+		this(frequency, timestampFunction, weigher, maxSizeInBytes, 0L);
+	}
+
+	/**
+	 * @param frequency
+	 *            sharding frequency of the rows to cache.
+	 * @param timestampFunction
+	 *            function returning the timestamp, in milliseconds, of a column.
+	 * @param weigher
+	 *            estimates the size of the cached columns.
+	 * @param maxSizeInBytes
+	 *            maximum total size of the cached rows.
+	 * @param gracePeriodInMillis
+	 *            time, after the end of a bucket, during which the bucket is still considered open, e.g. to account for late writes or clock skew
+	 *            between writers.
+	 */
+	public ClosedBucketCache(final ShardingFrequency frequency, final Function<? super T, Long> timestampFunction, final Weigher<? super T> weigher,
+			final long maxSizeInBytes, final long gracePeriodInMillis) {
+		checkArgument(maxSizeInBytes > 0, "Maximum size must be STRICTLY POSITIVE but was [" + maxSizeInBytes + "].");
+		checkArgument(gracePeriodInMillis >= 0, "Grace period must be POSITIVE but was [" + gracePeriodInMillis + "].");
+		this.frequency = frequency;
+		this.timestampFunction = timestampFunction;
+		this.weigher = weigher;
+		this.maxSizeInBytes = maxSizeInBytes;
+		this.gracePeriodInMillis = gracePeriodInMillis;
+	}
+
+	/**
+	 * Wrap the provided executor so that its queries for closed buckets go through this cache.
+	 * 
+	 * @param prefix
+	 *            identifier of the series queried by the executor, e.g. its row key prefix. Must be unique among the executors sharing this cache, and
+	 *            implement {@link Object#equals(Object)} and {@link Object#hashCode()}.
+	 * @param executor
+	 *            executor to wrap.
+	 * @return caching executor.
+	 */
+	public BucketQueryExecutor<T> wrap(final Object prefix, final BucketQueryExecutor<T> executor) {
+		return new CachingExecutor(prefix, executor);
+	}
+
+	/**
+	 * @return total size, in bytes, of the cached rows.
+	 */
+	public synchronized long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	/**
+	 * @return number of queries served from the cache.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return number of queries for closed buckets which had to read the row from the underlying executor.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Remove all cached rows.
+	 */
+	public synchronized void invalidateAll() {
+		rows.clear();
+		sizeInBytes = 0;
+	}
+
+	private synchronized Row get(final SeriesBucket<Object> key) {
+		final Row row = rows.get(key);
+		if (row == null)
+			++missCount;
+		else
+			++hitCount;
+		return row;
+	}
+
+	private synchronized void put(final SeriesBucket<Object> key, final Row row) {
+		if (row.sizeInBytes > maxSizeInBytes)
+			return; // Would evict everything else, and still not fit.
+
+		final Row previous = rows.put(key, row);
+		if (previous != null)
+			sizeInBytes -= previous.sizeInBytes;
+		sizeInBytes += row.sizeInBytes;
+
+		final Iterator<Map.Entry<SeriesBucket<Object>, Row>> iterator = rows.entrySet().iterator();
+		while (sizeInBytes > maxSizeInBytes) {
+			sizeInBytes -= iterator.next().getValue().sizeInBytes;
+			iterator.remove();
+		}
+	}
+
+	private final class CachingExecutor implements BucketQueryExecutor<T> {
+		private final Object prefix;
+		private final BucketQueryExecutor<T> executor;
+
+		CachingExecutor(final Object prefix, final BucketQueryExecutor<T> executor) {
+			this.prefix = prefix;
+			this.executor = executor;
+		}
+
+		@Override
+		public List<T> query(final long bucket, final long from, final long to) {
+			// Buckets grow with time, so any bucket before the current one is closed, and all its columns are before the current bucket:
+			final long currentBucket = ShardingFrequency.calculateBucket(System.currentTimeMillis() - gracePeriodInMillis, frequency);
+			if (bucket >= currentBucket)
+				return executor.query(bucket, from, to);
+
+			final SeriesBucket<Object> key = new SeriesBucket<Object>(prefix, bucket);
+			Row row = get(key);
+			if (row == null) {
+				// Concurrent misses for the same row may read it several times, which is harmless as closed rows do not change anymore.
+				row = new Row(executor.query(bucket, bucket, currentBucket - 1));
+				put(key, row);
+			}
+			return row.slice(from, to);
+		}
+	}
+
+	private final class Row {
+		private final List<T> columns;
+		private final long[] timestamps;
+		private final long sizeInBytes;
+
+		Row(final List<T> columns) {
+			this.columns = Collections.unmodifiableList(columns);
+			this.timestamps = new long[columns.size()];
+			long size = ROW_OVERHEAD_IN_BYTES + 8L * timestamps.length;
+			for (int i = 0; i < timestamps.length; i++) {
+				final T column = columns.get(i);
+				timestamps[i] = timestampFunction.apply(column);
+				size += weigher.weigh(column);
+			}
+			this.sizeInBytes = size;
+		}
+
+		List<T> slice(final long from, final long to) {
+			final int start = search(from, false);
+			final int end = Math.max(start, search(to, true));
+			if ((start == 0) && (end == columns.size()))
+				return columns;
+			return columns.subList(start, end);
+		}
+
+		// Binary search, as columns are in time order: index of the first column after (or at, unless strictly) the provided timestamp.
+		private int search(final long timestamp, final boolean strictly) {
+			int low = 0;
+			int high = timestamps.length;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if ((timestamps[middle] < timestamp) || (strictly && (timestamps[middle] == timestamp)))
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+	}
+}
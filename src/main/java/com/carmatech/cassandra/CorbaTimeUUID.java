@@ -15,26 +15,40 @@
  ******************************************************************************/
 package com.carmatech.cassandra;
 
+import static com.carmatech.cassandra.UUIDTime.from100Ns;
+import static com.carmatech.cassandra.UUIDTime.to100Ns;
+import static com.carmatech.cassandra.UUIDTime.toUUIDTime;
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.util.Date;
 
 import org.joda.time.DateTime;
 
 import com.eaio.uuid.UUID;
-import com.eaio.uuid.UUIDGen;
 
 public final class CorbaTimeUUID {
 	private CorbaTimeUUID() {
 		// Pure utility class, do NOT instantiate.
 	}
 
-	private static final long NUM_100NS_INTERVALS_SINCE_UUID_EPOCH = 0x01b21dd213814000L;
-	private static long lastTimestamp = Long.MIN_VALUE;
+	private static final MonotonicClock CLOCK = new MonotonicClock();
 
 	/**
 	 * WARNING: Use only for testing purposes, as it may lead to duplicate UUIDs. Re-initialize the value of the last timestamp seen.
 	 */
-	public static synchronized void reset() {
-		lastTimestamp = Long.MIN_VALUE;
+	public static void reset() {
+		CLOCK.reset();
+	}
+
+	/**
+	 * Make generated UUIDs unique across restarts, by resuming from, and periodically persisting to, the provided checkpoint. Should be called on startup,
+	 * before generating any UUID.
+	 * 
+	 * @param checkpoint
+	 *            checkpoint dedicated to this generator, or <code>null</code> to stop persisting timestamps.
+	 */
+	public static void setCheckpoint(final TimestampCheckpoint checkpoint) {
+		CLOCK.setCheckpoint(checkpoint);
 	}
 
 	/**
@@ -72,38 +86,43 @@ public final class CorbaTimeUUID {
 	 */
 	public static UUID createUUID(final long timestamp) {
 		final long timestampIn100Ns = to100Ns(timestamp);
-		final long uniqueTimestampIn100Ns = makeUnique(timestampIn100Ns);
-		return new com.eaio.uuid.UUID(toUUIDTime(uniqueTimestampIn100Ns), UUIDGen.getClockSeqAndNode());
-	}
-
-	private static long to100Ns(final long timestampInMs) {
-		return (timestampInMs * 10000) + NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+		final long uniqueTimestampIn100Ns = CLOCK.makeUnique(timestampIn100Ns);
+		return new com.eaio.uuid.UUID(toUUIDTime(uniqueTimestampIn100Ns), NodeProviders.getDefault().getClockSeqAndNode());
 	}
 
-	private static synchronized long makeUnique(final long timestamp) {
-		if (timestamp > lastTimestamp) {
-			lastTimestamp = timestamp;
-			return timestamp;
-		} else {
-			return ++lastTimestamp;
-		}
+	/**
+	 * Generate a new, unique UUID based on the provided timestamp, unless the generator already ran ahead of it, e.g. because UUIDs are requested faster
+	 * than one every 100 nanoseconds. Never blocks: callers may instead wait for {@link #getRunAheadMillis()}, e.g. by sleeping, which lets a virtual
+	 * thread unmount from its carrier thread, and try again.
+	 * 
+	 * @param timestamp
+	 *            timestamp used for the "time" component of the UUID.
+	 * @param maxRunAheadMillis
+	 *            how many milliseconds the "time" component of the UUID may be after the provided timestamp.
+	 * @return the UUID, or <code>null</code> if its "time" component would be more than <code>maxRunAheadMillis</code> after the provided timestamp.
+	 */
+	public static UUID tryCreateUUID(final long timestamp, final long maxRunAheadMillis) {
+		checkArgument(maxRunAheadMillis >= 0, "Maximum run-ahead must be POSITIVE but was [" + maxRunAheadMillis + "].");
+		final long uniqueTimestampIn100Ns = CLOCK.tryMakeUnique(to100Ns(timestamp), maxRunAheadMillis * 10000 + 9999);
+		if (uniqueTimestampIn100Ns == Long.MIN_VALUE)
+			return null;
+		return new com.eaio.uuid.UUID(toUUIDTime(uniqueTimestampIn100Ns), NodeProviders.getDefault().getClockSeqAndNode());
 	}
 
-	private static long toUUIDTime(final long timestampIn100Ns) {
-		// Example:
-		// Lowest 16 bits and version 1: 0123 4567 89AB CDEF -> 89AB CDEF 0000 0000 -> 89AB CDEF 0000 1000
-		// Middle 32 bits: 0123 4567 89AB CDEF -> 0000 4567 0000 0000 -> 0000 0000 4567 0000 -> 89AB CDEF 4567 1000
-		// Highest 16 bits: 0123 4567 89AB CDEF -> 0123 0000 0000 0000 -> 0000 0000 0000 0123 -> 89AB CDEF 4567 1123
-
-		long uuidTime = (timestampIn100Ns << 32) | 0x0000000000001000L;
-		uuidTime |= (timestampIn100Ns & 0x0000FFFF00000000L) >>> 16;
-		uuidTime |= (timestampIn100Ns & 0xFFFF000000000000L) >>> 48;
-		return uuidTime;
+	/**
+	 * @return how many milliseconds the last generated UUID is ahead of the system clock, i.e. how long to wait for new UUIDs not to run ahead of it, or
+	 *         0 if the generator is not ahead.
+	 */
+	public static long getRunAheadMillis() {
+		final long lastTimestampIn100Ns = CLOCK.getLastTimestamp();
+		if (lastTimestampIn100Ns == Long.MIN_VALUE)
+			return 0;
+		return Math.max(0, from100Ns(lastTimestampIn100Ns) - System.currentTimeMillis());
 	}
 
 	/**
-	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided date-time and the clock sequence, which depends on the IP and MAC
-	 * addresses of the current machine, and a random component per process/JVM.
+	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided date-time and the clock sequence and node of the default
+	 * {@link NodeProvider} (by default, based on the MAC address of the current machine and a random component per process/JVM).
 	 * 
 	 * @param dateTime
 	 *            date-time used for the "time" component of the UUID.
@@ -113,8 +132,8 @@ public final class CorbaTimeUUID {
 	}
 
 	/**
-	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided date and the clock sequence, which depends on the IP and MAC addresses
-	 * of the current machine, and a random component per process/JVM.
+	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided date and the clock sequence and node of the default
+	 * {@link NodeProvider} (by default, based on the MAC address of the current machine and a random component per process/JVM).
 	 * 
 	 * @param javaDate
 	 *            date used for the "time" component of the UUID.
@@ -124,15 +143,15 @@ public final class CorbaTimeUUID {
 	}
 
 	/**
-	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided timestamp and the clock sequence, which depends on the IP and MAC
-	 * addresses of the current machine, and a random component per process/JVM.
+	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided timestamp and the clock sequence and node of the default
+	 * {@link NodeProvider} (by default, based on the MAC address of the current machine and a random component per process/JVM).
 	 * 
 	 * @param timestamp
 	 *            timestamp used for the "time" component of the UUID.
 	 */
 	public static UUID toUUID(final long timestamp) {
 		final long timestampIn100Ns = to100Ns(timestamp);
-		return new com.eaio.uuid.UUID(toUUIDTime(timestampIn100Ns), UUIDGen.getClockSeqAndNode());
+		return new com.eaio.uuid.UUID(toUUIDTime(timestampIn100Ns), NodeProviders.getDefault().getClockSeqAndNode());
 	}
 
 	/**
@@ -143,22 +162,49 @@ public final class CorbaTimeUUID {
 	 * @return Timestamp in milliseconds.
 	 */
 	public static long toMillis(final UUID uuid) {
-		return from100Ns(fromUUIDTime(uuid.getTime()));
+		return UUIDTime.toMillis(uuid.getTime());
 	}
 
-	private static long from100Ns(long timestampIn100Ns) {
-		return (timestampIn100Ns - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH) / 10000;
+	/**
+	 * Extract the "time" component of the provided JDK UUID, without converting it to a Johann Burkard's UUID first.
+	 * 
+	 * @param uuid
+	 *            UUID to extract timestamp from.
+	 * @return Timestamp in milliseconds.
+	 */
+	public static long toMillis(final java.util.UUID uuid) {
+		return UUIDTime.toMillis(uuid.getMostSignificantBits());
 	}
 
-	private static long fromUUIDTime(final long uuidTime) {
-		// Example:
-		// Lowest 16 bits: 89AB CDEF 4567 1123 -> 0000 0000 89AB CDEF
-		// Middle 32 bits: 89AB CDEF 4567 1123 -> 0000 0000 4567 0000 -> 0000 4567 0000 0000 -> 0000 4567 89AB CDEF
-		// Highest 16 bits and version 1: 89AB CDEF 4567 1123 -> 0000 0000 0000 0123 -> 0123 0000 0000 0000 -> 0123 4567 89AB CDEF
+	/**
+	 * Get the bucket the provided UUID belongs to, decoding its "time" component and truncating it in one step, without any intermediate object.
+	 * Equivalent to <code>ShardingFrequency.calculateBucket(CorbaTimeUUID.toMillis(uuid), frequency)</code>.
+	 * 
+	 * @param uuid
+	 *            UUID to get the bucket of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @return Bucket, in milliseconds.
+	 */
+	public static long bucketOf(final UUID uuid, final ShardingFrequency frequency) {
+		return ShardingFrequency.calculateBucket(UUIDTime.toMillis(uuid.getTime()), frequency);
+	}
 
-		long timestampIn100Ns = uuidTime >>> 32;
-		timestampIn100Ns |= (uuidTime & 0x00000000FFFF0000L) << 16;
-		timestampIn100Ns |= (uuidTime & 0x0000000000000FFFL) << 48;
-		return timestampIn100Ns;
+	/**
+	 * Get the bucket of each of the provided UUIDs.
+	 * 
+	 * @param uuids
+	 *            UUIDs to get the buckets of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @param buckets
+	 *            array where buckets are stored, at the same index as their UUID. Must be at least as long as <code>uuids</code>.
+	 */
+	public static void bucketsOf(final UUID[] uuids, final ShardingFrequency frequency, final long[] buckets) {
+		checkArgument(buckets.length >= uuids.length, "Output array is too small: expected at least [" + uuids.length + "] but was [" + buckets.length + "].");
+		for (int i = 0; i < uuids.length; i++) {
+			buckets[i] = UUIDTime.toMillis(uuids[i].getTime());
+		}
+		ShardingFrequency.calculateBuckets(buckets, frequency, buckets);
 	}
 }
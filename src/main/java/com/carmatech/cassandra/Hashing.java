@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * Non-cryptographic hash functions: 64-bit FNV-1a, which is cheap to feed incrementally, and MurmurHash3's finalizer, which spreads its bits evenly.
+ */
+final class Hashing {
+	private Hashing() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	static final long FNV1A_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV1A_PRIME = 0x100000001b3L;
+
+	/**
+	 * Add the characters of the provided string to a 64-bit FNV-1a hash.
+	 * 
+	 * @param hash
+	 *            hash so far, or {@link #FNV1A_OFFSET_BASIS} to start a new one.
+	 */
+	static long fnv1a(long hash, final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= FNV1A_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Add the provided value to a 64-bit FNV-1a hash, 16 bits at a time, from the least significant ones.
+	 * 
+	 * @param hash
+	 *            hash so far, or {@link #FNV1A_OFFSET_BASIS} to start a new one.
+	 */
+	static long fnv1a(long hash, final long value) {
+		for (int shift = 0; shift < 64; shift += 16) {
+			hash ^= (value >>> shift) & 0xffff;
+			hash *= FNV1A_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * MurmurHash3's 64-bit finalizer, so that each bit of the input affects every bit of the output.
+	 */
+	static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.query.SliceQuery;
+
+import com.google.common.base.Function;
+
+/**
+ * Executes slice queries with Hector, for a given series, against a column family whose column names are TimeUUIDs, and whose row keys are built from
+ * the series and buckets, the same way as by {@link HectorBucketWriteSink}. <br />
+ * Rows wider than the page size are read in several pages.
+ * 
+ * @param <S>
+ *            type of the series identifiers.
+ * @param <K>
+ *            type of the row keys.
+ * @param <V>
+ *            type of the column values.
+ */
+public final class HectorBucketQueryExecutor<S, K, V> implements BucketQueryExecutor<HColumn<UUID, V>> {
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+	private static final long COLUMN_OVERHEAD_IN_BYTES = 96;
+
+	private final Keyspace keyspace;
+	private final String columnFamily;
+	private final S series;
+	private final RowKeyBuilder<? super S, K> rowKeyBuilder;
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+	private final int pageSize;
+
+	/**
+	 * @param keyspace
+	 *            keyspace to query.
+	 * @param columnFamily
+	 *            column family to query.
+	 * @param series
+	 *            series to query.
+	 * @param rowKeyBuilder
+	 *            builder of the key of the row of a given series and bucket.
+	 * @param keySerializer
+	 *            serializer for row keys.
+	 * @param valueSerializer
+	 *            serializer for column values.
+	 */
+	public HectorBucketQueryExecutor(final Keyspace keyspace, final String columnFamily, final S series, final RowKeyBuilder<? super S, K> rowKeyBuilder,
+			final Serializer<K> keySerializer, final Serializer<V> valueSerializer) {
+		this(keyspace, columnFamily, series, rowKeyBuilder, keySerializer, valueSerializer, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * @param keyspace
+	 *            keyspace to query.
+	 * @param columnFamily
+	 *            column family to query.
+	 * @param series
+	 *            series to query.
+	 * @param rowKeyBuilder
+	 *            builder of the key of the row of a given series and bucket.
+	 * @param keySerializer
+	 *            serializer for row keys.
+	 * @param valueSerializer
+	 *            serializer for column values.
+	 * @param pageSize
+	 *            maximum number of columns fetched per slice query.
+	 */
+	public HectorBucketQueryExecutor(final Keyspace keyspace, final String columnFamily, final S series, final RowKeyBuilder<? super S, K> rowKeyBuilder,
+			final Serializer<K> keySerializer, final Serializer<V> valueSerializer, final int pageSize) {
+		checkArgument(pageSize > 1, "Page size must be greater than 1 but was [" + pageSize + "].");
+		this.keyspace = keyspace;
+		this.columnFamily = columnFamily;
+		this.series = series;
+		this.rowKeyBuilder = rowKeyBuilder;
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public List<HColumn<UUID, V>> query(final long bucket, final long from, final long to) {
+		final SliceQuery<K, UUID, V> query = HFactory.createSliceQuery(keyspace, keySerializer, UUIDSerializer.get(), valueSerializer);
+		query.setColumnFamily(columnFamily).setKey(rowKeyBuilder.toRowKey(series, bucket));
+
+		final UUID end = TimeUUID.maxUUID(to);
+		List<HColumn<UUID, V>> page = query.setRange(TimeUUID.minUUID(from), end, false, pageSize).execute().get().getColumns();
+		final List<HColumn<UUID, V>> columns = new ArrayList<HColumn<UUID, V>>(page);
+		while (page.size() == pageSize) {
+			final UUID start = page.get(page.size() - 1).getName();
+			page = query.setRange(start, end, false, pageSize).execute().get().getColumns();
+			// Every subsequent page starts with the last column of the previous page:
+			columns.addAll(page.subList(Math.min(1, page.size()), page.size()));
+		}
+		return columns;
+	}
+
+	/**
+	 * @return comparator ordering columns the same way as Cassandra, to merge the results of several queries.
+	 */
+	public static <V> Comparator<HColumn<UUID, V>> columnComparator() {
+		return new Comparator<HColumn<UUID, V>>() {
+			@Override
+			public int compare(final HColumn<UUID, V> first, final HColumn<UUID, V> second) {
+				return TimeUUIDComparator.INSTANCE.compare(first.getName(), second.getName());
+			}
+		};
+	}
+
+	/**
+	 * @return function returning the timestamp of columns, e.g. to cache them with {@link ClosedBucketCache}.
+	 */
+	public static <V> Function<HColumn<UUID, V>, Long> columnTimestamp() {
+		return new Function<HColumn<UUID, V>, Long>() {
+			@Override
+			public Long apply(final HColumn<UUID, V> column) {
+				return TimeUUID.toMillis(column.getName());
+			}
+		};
+	}
+
+	/**
+	 * @return weigher estimating the size of columns from their serialized name and value, e.g. to cache them with {@link ClosedBucketCache}.
+	 */
+	public static <V> Weigher<HColumn<UUID, V>> columnWeigher() {
+		return new Weigher<HColumn<UUID, V>>() {
+			@Override
+			public long weigh(final HColumn<UUID, V> column) {
+				return COLUMN_OVERHEAD_IN_BYTES + column.getNameBytes().remaining() + column.getValueBytes().remaining();
+			}
+		};
+	}
+}
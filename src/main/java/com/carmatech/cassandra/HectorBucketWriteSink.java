@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import java.util.List;
+import java.util.UUID;
+
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+/**
+ * Writes batches of columns with Hector, as a single batch mutation per row, to a column family whose column names are TimeUUIDs.
+ * 
+ * @param <S>
+ *            type of the series identifiers.
+ * @param <K>
+ *            type of the row keys.
+ * @param <V>
+ *            type of the column values.
+ */
+public final class HectorBucketWriteSink<S, K, V> implements BucketWriteSink<S, V> {
+	private final Keyspace keyspace;
+	private final String columnFamily;
+	private final RowKeyBuilder<? super S, K> rowKeyBuilder;
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+
+	/**
+	 * @param keyspace
+	 *            keyspace to write to.
+	 * @param columnFamily
+	 *            column family to write to.
+	 * @param rowKeyBuilder
+	 *            builder of the key of the row of a given series and bucket.
+	 * @param keySerializer
+	 *            serializer for row keys.
+	 * @param valueSerializer
+	 *            serializer for column values.
+	 */
+	public HectorBucketWriteSink(final Keyspace keyspace, final String columnFamily, final RowKeyBuilder<? super S, K> rowKeyBuilder,
+			final Serializer<K> keySerializer, final Serializer<V> valueSerializer) {
+		this.keyspace = keyspace;
+		this.columnFamily = columnFamily;
+		this.rowKeyBuilder = rowKeyBuilder;
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+	}
+
+	@Override
+	public void write(final S series, final long bucket, final List<UUID> columnNames, final List<V> values) {
+		final K rowKey = rowKeyBuilder.toRowKey(series, bucket);
+		final Mutator<K> mutator = HFactory.createMutator(keyspace, keySerializer);
+		for (int i = 0; i < columnNames.size(); i++) {
+			mutator.addInsertion(rowKey, columnFamily, HFactory.createColumn(columnNames.get(i), values.get(i), UUIDSerializer.get(), valueSerializer));
+		}
+		mutator.execute();
+	}
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores aggregates in memory, e.g. for tests, or as a local cache in front of a persistent store.
+ */
+public final class InMemoryRollupStore implements RollupStore {
+	// Aggregates of each frequency, by series and bucket:
+	private final Map<ShardingFrequency, Map<SeriesBucket<String>, RollupAggregate>> aggregates =
+			new EnumMap<ShardingFrequency, Map<SeriesBucket<String>, RollupAggregate>>(ShardingFrequency.class);
+
+	@Override
+	public synchronized void merge(final String series, final ShardingFrequency frequency, final long bucket, final RollupAggregate aggregate) {
+		Map<SeriesBucket<String>, RollupAggregate> aggregatesOfFrequency = aggregates.get(frequency);
+		if (aggregatesOfFrequency == null) {
+			aggregatesOfFrequency = new HashMap<SeriesBucket<String>, RollupAggregate>();
+			aggregates.put(frequency, aggregatesOfFrequency);
+		}
+		final SeriesBucket<String> key = new SeriesBucket<String>(series, bucket);
+		final RollupAggregate stored = aggregatesOfFrequency.get(key);
+		if (stored == null)
+			aggregatesOfFrequency.put(key, aggregate.copy());
+		else
+			stored.merge(aggregate);
+	}
+
+	@Override
+	public synchronized RollupAggregate get(final String series, final ShardingFrequency frequency, final long bucket) {
+		final Map<SeriesBucket<String>, RollupAggregate> aggregatesOfFrequency = aggregates.get(frequency);
+		final RollupAggregate stored = (aggregatesOfFrequency == null) ? null : aggregatesOfFrequency.get(new SeriesBucket<String>(series, bucket));
+		return (stored == null) ? null : stored.copy();
+	}
+
+	/**
+	 * @return number of stored aggregates, across all series and frequencies.
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (final Map<SeriesBucket<String>, RollupAggregate> aggregatesOfFrequency : aggregates.values()) {
+			size += aggregatesOfFrequency.size();
+		}
+		return size;
+	}
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of positive <code>long</code> values with a fixed relative precision, in the spirit of HdrHistogram: values are counted in buckets whose
+ * width doubles with every power of two, each bucket being split in the same number of linear sub-buckets. With 7 significant bits (default), recorded
+ * values are accurate to within 1/64th, i.e. 1.6%, across the whole range of <code>long</code>s, using 29 kB. <br />
+ * Recording a value is lock-free and allocation-free. Statistics are calculated from a snapshot of the counts which may miss values recorded
+ * concurrently.
+ */
+public final class LogLinearHistogram {
+	public static final int DEFAULT_SIGNIFICANT_BITS = 7;
+
+	private final int significantBits;
+	private final int halfSubBuckets;
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	public LogLinearHistogram() {
+		this(DEFAULT_SIGNIFICANT_BITS);
+	}
+
+	/**
+	 * @param significantBits
+	 *            number of significant bits kept for each value, between 2 and 16: values are accurate to within 2<sup>1 - significantBits</sup>.
+	 */
+	public LogLinearHistogram(final int significantBits) {
+		checkArgument((significantBits >= 2) && (significantBits <= 16), "Significant bits must be between 2 and 16 but was [" + significantBits + "].");
+		this.significantBits = significantBits;
+		this.halfSubBuckets = 1 << (significantBits - 1);
+		this.counts = new AtomicLongArray(indexOf(Long.MAX_VALUE) + 1);
+	}
+
+	/**
+	 * Record the provided value once.
+	 * 
+	 * @param value
+	 *            positive value.
+	 */
+	public void record(final long value) {
+		record(value, 1);
+	}
+
+	/**
+	 * Record the provided value several times.
+	 * 
+	 * @param value
+	 *            positive value.
+	 * @param count
+	 *            number of times the value is recorded.
+	 */
+	public void record(final long value, final long count) {
+		if (value < 0)
+			throw new IllegalArgumentException("Value must be POSITIVE but was [" + value + "].");
+		counts.addAndGet(indexOf(value), count);
+		totalCount.addAndGet(count);
+		sum.addAndGet(value * count);
+		for (long current = min.get(); (value < current) && !min.compareAndSet(current, value); current = min.get()) {
+			// Retry until this value is recorded as the minimum, or a smaller value is.
+		}
+		for (long current = max.get(); (value > current) && !max.compareAndSet(current, value); current = max.get()) {
+			// Retry until this value is recorded as the maximum, or a larger value is.
+		}
+	}
+
+	/**
+	 * Add all the values recorded by the provided histogram to this one, e.g. to combine histograms recorded by different threads without contending on a
+	 * single one.
+	 * 
+	 * @param other
+	 *            histogram with the same number of significant bits.
+	 */
+	public void add(final LogLinearHistogram other) {
+		checkArgument(other.significantBits == significantBits, "Significant bits must be the same: expected [" + significantBits + "] but was ["
+				+ other.significantBits + "].");
+		for (int i = 0; i < counts.length(); i++) {
+			final long count = other.counts.get(i);
+			if (count != 0)
+				counts.addAndGet(i, count);
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		sum.addAndGet(other.sum.get());
+		final long otherMin = other.min.get();
+		for (long current = min.get(); (otherMin < current) && !min.compareAndSet(current, otherMin); current = min.get()) {
+			// Retry until the other minimum is recorded, or a smaller value is.
+		}
+		final long otherMax = other.max.get();
+		for (long current = max.get(); (otherMax > current) && !max.compareAndSet(current, otherMax); current = max.get()) {
+			// Retry until the other maximum is recorded, or a larger value is.
+		}
+	}
+
+	private int indexOf(final long value) {
+		// Values below 2^significantBits are counted exactly. Above, the shift is the number of low-order bits dropped.
+		final int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - significantBits);
+		return (shift * halfSubBuckets) + (int) (value >>> shift);
+	}
+
+	private long highestValueAt(final int index) {
+		final int shift = Math.max(0, index / halfSubBuckets - 1);
+		final long lowest = (long) (index - shift * halfSubBuckets) << shift;
+		return lowest + ((1L << shift) - 1);
+	}
+
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return the smallest recorded value, or {@link Long#MAX_VALUE} if no value was recorded.
+	 */
+	public long getMin() {
+		return min.get();
+	}
+
+	/**
+	 * @return the largest recorded value, or {@link Long#MIN_VALUE} if no value was recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the average of the recorded values, or {@link Double#NaN} if no value was recorded.
+	 */
+	public double getMean() {
+		return (double) sum.get() / totalCount.get();
+	}
+
+	/**
+	 * @param percentile
+	 *            percentile, between 0 and 100, e.g. 99.9.
+	 * @return the value below which the provided percentage of recorded values are, or 0 if no value was recorded.
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		checkArgument((percentile >= 0) && (percentile <= 100), "Percentile must be between 0 and 100 but was [" + percentile + "].");
+		final long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long cumulated = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			cumulated += snapshot[i];
+			if (cumulated >= rank)
+				return Math.min(highestValueAt(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Forget all recorded values. Values recorded concurrently may be partially forgotten.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(Long.MIN_VALUE);
+	}
+
+	@Override
+	public String toString() {
+		return "LogLinearHistogram[count=" + getCount() + ", min=" + getMin() + ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99)
+				+ ", p99.9=" + getValueAtPercentile(99.9) + ", max=" + getMax() + "]";
+	}
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Source of unique, strictly increasing timestamps (in 100s of nanoseconds since the UUID epoch), used by {@link TimeUUID} and {@link CorbaTimeUUID}.
+ * <br />
+ * If a {@link TimestampCheckpoint} is set, timestamps are also guaranteed to be greater than all timestamps issued by previous processes which used the
+ * same checkpoint, even if the system clock went backwards in between. Timestamps are reserved from the checkpoint in chunks, and the reservation is
+ * renewed by a background thread once half of it is used, so that issuing a timestamp never waits for the checkpoint to be written, unless timestamps
+ * are issued faster than the reservation can be renewed. <br />
+ * Timestamps are issued with a compare-and-set loop, without any monitor, so that virtual threads calling it never pin their carrier thread. Only
+ * waiting for an exhausted reservation takes a lock, which does not pin carrier threads either.
+ */
+final class MonotonicClock {
+	private static final Reservation NO_CHECKPOINT = new Reservation(null, Long.MAX_VALUE, Long.MAX_VALUE);
+
+	private final AtomicLong lastTimestamp = new AtomicLong(Long.MIN_VALUE);
+	private final ReentrantLock checkpointLock = new ReentrantLock();
+	// The checkpoint and its reserved timestamps are published together, so that no timestamp is ever checked against another checkpoint's reservation:
+	private volatile Reservation reservation = NO_CHECKPOINT;
+	private final AtomicBoolean renewing = new AtomicBoolean();
+	private final ThreadPoolExecutor renewer;
+	private final Runnable renewal = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				renew();
+			} finally {
+				renewing.set(false);
+			}
+		}
+	};
+
+	MonotonicClock() {
+		// Its single thread is only started by the first renewal, and stops when idle:
+		renewer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "timestamp-checkpoint-renewal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		renewer.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * WARNING: Use only for testing purposes, as it may lead to duplicate UUIDs. Re-initialize the value of the last timestamp seen.
+	 */
+	void reset() {
+		lastTimestamp.set(Long.MIN_VALUE);
+	}
+
+	long makeUnique(final long timestamp) {
+		while (true) {
+			final long last = lastTimestamp.get();
+			final long next = (timestamp > last) ? timestamp : last + 1;
+			// Read after the last timestamp, see setCheckpoint():
+			final Reservation current = reservation;
+			if ((next >= current.renewFrom) && !checkReserved(current, next))
+				continue;
+			if (lastTimestamp.compareAndSet(last, next))
+				return next;
+		}
+	}
+
+	/**
+	 * Make all the provided timestamps unique, in place, with a single compare-and-set when there is no contention.
+	 */
+	void makeUnique(final long[] timestamps) {
+		while (true) {
+			final long last = lastTimestamp.get();
+			final long next = lastOf(last, timestamps);
+			final Reservation current = reservation;
+			if ((next >= current.renewFrom) && !checkReserved(current, next))
+				continue;
+			if (lastTimestamp.compareAndSet(last, next)) {
+				// All timestamps up to the last one are now ours: assign them.
+				long issued = last;
+				for (int i = 0; i < timestamps.length; i++) {
+					issued = (timestamps[i] > issued) ? timestamps[i] : issued + 1;
+					timestamps[i] = issued;
+				}
+				return;
+			}
+		}
+	}
+
+	private static long lastOf(final long last, final long[] timestamps) {
+		long current = last;
+		for (int i = 0; i < timestamps.length; i++) {
+			current = (timestamps[i] > current) ? timestamps[i] : current + 1;
+		}
+		return current;
+	}
+
+	/**
+	 * Try to make the provided timestamp unique, without running more than the provided amount of time ahead of it.
+	 * 
+	 * @return the unique timestamp, or {@link Long#MIN_VALUE} if it would run too far ahead, in which case no timestamp is consumed.
+	 */
+	long tryMakeUnique(final long timestamp, final long maxRunAhead) {
+		while (true) {
+			final long last = lastTimestamp.get();
+			final long next = (timestamp > last) ? timestamp : last + 1;
+			if (next - timestamp > maxRunAhead)
+				return Long.MIN_VALUE;
+			final Reservation current = reservation;
+			if ((next >= current.renewFrom) && !checkReserved(current, next))
+				continue;
+			if (lastTimestamp.compareAndSet(last, next))
+				return next;
+		}
+	}
+
+	/**
+	 * @return the last timestamp issued, or {@link Long#MIN_VALUE} if none was.
+	 */
+	long getLastTimestamp() {
+		return lastTimestamp.get();
+	}
+
+	/**
+	 * Called once at least half of the current reservation is used.
+	 * 
+	 * @return <code>true</code> if the provided timestamp is reserved, and can therefore be issued, <code>false</code> if the reservation was exhausted,
+	 *         and has just been renewed.
+	 */
+	private boolean checkReserved(final Reservation current, final long timestamp) {
+		if (timestamp < current.reservedUntil) {
+			if (renewing.compareAndSet(false, true))
+				renewer.execute(renewal);
+			return true;
+		}
+		// Timestamps are issued faster than the reservation is renewed: wait for it.
+		checkpointLock.lock();
+		try {
+			final Reservation latest = reservation;
+			if ((latest.checkpoint != null) && (timestamp >= latest.reservedUntil))
+				reservation = Reservation.of(latest.checkpoint, latest.checkpoint.reserve(timestamp));
+		} finally {
+			checkpointLock.unlock();
+		}
+		return false;
+	}
+
+	private void renew() {
+		checkpointLock.lock();
+		try {
+			final Reservation current = reservation;
+			if (current.checkpoint != null)
+				reservation = Reservation.of(current.checkpoint, current.checkpoint.reserve(lastTimestamp.get() + 1));
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	void setCheckpoint(final TimestampCheckpoint checkpoint) {
+		checkpointLock.lock();
+		try {
+			if (checkpoint == null) {
+				reservation = NO_CHECKPOINT;
+			} else {
+				// Published before resuming from the high-water mark below. Issuers read it after the last timestamp, so an issuer which resumes from the
+				// high-water mark also sees this reservation, and reserves timestamps from the checkpoint before issuing any of them.
+				final long highWaterMark = checkpoint.getHighWaterMark();
+				reservation = Reservation.of(checkpoint, highWaterMark);
+				// All timestamps issued by previous processes are strictly lower than the high-water mark, so resume from there:
+				if (highWaterMark != Long.MIN_VALUE) {
+					long last = lastTimestamp.get();
+					while ((highWaterMark - 1 > last) && !lastTimestamp.compareAndSet(last, highWaterMark - 1)) {
+						last = lastTimestamp.get();
+					}
+				}
+			}
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	private static final class Reservation {
+		private final TimestampCheckpoint checkpoint;
+		private final long reservedUntil; // Exclusive.
+		private final long renewFrom;
+
+		Reservation(final TimestampCheckpoint checkpoint, final long reservedUntil, final long renewFrom) {
+			this.checkpoint = checkpoint;
+			this.reservedUntil = reservedUntil;
+			this.renewFrom = renewFrom;
+		}
+
+		static Reservation of(final TimestampCheckpoint checkpoint, final long reservedUntil) {
+			if (reservedUntil == Long.MIN_VALUE)
+				return new Reservation(checkpoint, reservedUntil, reservedUntil); // Nothing reserved yet.
+			return new Reservation(checkpoint, reservedUntil, reservedUntil - checkpoint.getReserveAheadIn100Ns() / 2);
+		}
+	}
+}
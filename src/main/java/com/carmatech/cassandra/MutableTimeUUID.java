@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Mutable, reusable holder of a time UUID, filled in place by {@link TimeUUID#generateInto(MutableTimeUUID)}, so that loops generating, inspecting and
+ * serializing UUIDs do not allocate any object per UUID. <br />
+ * Only convert it to an immutable {@link UUID}, with {@link #toUUID()}, when it has to be kept. Instances are NOT thread-safe: use one per thread.
+ */
+public final class MutableTimeUUID {
+	private long mostSignificantBits;
+	private long leastSignificantBits;
+
+	/**
+	 * Create a holder, initially holding the nil UUID.
+	 */
+	public MutableTimeUUID() {
+		// Filled in later.
+	}
+
+	public MutableTimeUUID set(final long mostSignificantBits, final long leastSignificantBits) {
+		this.mostSignificantBits = mostSignificantBits;
+		this.leastSignificantBits = leastSignificantBits;
+		return this;
+	}
+
+	public MutableTimeUUID set(final UUID uuid) {
+		return set(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+
+	public long getMostSignificantBits() {
+		return mostSignificantBits;
+	}
+
+	public long getLeastSignificantBits() {
+		return leastSignificantBits;
+	}
+
+	/**
+	 * Extract the "time" component of the held UUID.
+	 * 
+	 * @return Timestamp in milliseconds.
+	 */
+	public long toMillis() {
+		return UUIDTime.toMillis(mostSignificantBits);
+	}
+
+	/**
+	 * Get the bucket the held UUID belongs to. Equivalent to <code>TimeUUID.bucketOf(holder.toUUID(), frequency)</code>.
+	 * 
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @return Bucket, in milliseconds.
+	 */
+	public long bucketOf(final ShardingFrequency frequency) {
+		return ShardingFrequency.calculateBucket(toMillis(), frequency);
+	}
+
+	/**
+	 * Write the 16 bytes of the held UUID to the provided buffer, at its current position, in the same format as Hector's <code>UUIDSerializer</code>.
+	 * 
+	 * @param out
+	 *            buffer to write to, with at least 16 bytes remaining.
+	 * @return the provided buffer.
+	 */
+	public ByteBuffer writeTo(final ByteBuffer out) {
+		return out.putLong(mostSignificantBits).putLong(leastSignificantBits);
+	}
+
+	/**
+	 * Read the 16 bytes of a UUID from the provided buffer, at its current position.
+	 * 
+	 * @param in
+	 *            buffer to read from, with at least 16 bytes remaining.
+	 * @return this holder.
+	 */
+	public MutableTimeUUID readFrom(final ByteBuffer in) {
+		final long msb = in.getLong();
+		return set(msb, in.getLong());
+	}
+
+	/**
+	 * @return a new, immutable copy of the held UUID.
+	 */
+	public UUID toUUID() {
+		return new UUID(mostSignificantBits, leastSignificantBits);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof MutableTimeUUID))
+			return false;
+		final MutableTimeUUID other = (MutableTimeUUID) obj;
+		return (mostSignificantBits == other.mostSignificantBits) && (leastSignificantBits == other.leastSignificantBits);
+	}
+
+	@Override
+	public int hashCode() {
+		// Same as UUID.hashCode():
+		final long bits = mostSignificantBits ^ leastSignificantBits;
+		return ((int) (bits >> 32)) ^ (int) bits;
+	}
+
+	@Override
+	public String toString() {
+		return toUUID().toString();
+	}
+}
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * Source of the "clock sequence and node" component (i.e. the least significant bits) of the UUIDs generated by {@link TimeUUID} and
+ * {@link CorbaTimeUUID}. <br />
+ * See {@link NodeProviders} for the available implementations.
+ */
+public interface NodeProvider {
+	/**
+	 * @return the "clock sequence and node" component of UUIDs, including the variant bits. Must always return the same value for a given instance.
+	 */
+	long getClockSeqAndNode();
+}
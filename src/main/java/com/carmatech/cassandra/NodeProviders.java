@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+import com.eaio.uuid.UUIDGen;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Factory for the available {@link NodeProvider}s, and holder of the default one used by {@link TimeUUID} and {@link CorbaTimeUUID}. <br />
+ * The default provider is resolved lazily, the first time a UUID is generated, from the <code>com.carmatech.cassandra.node</code> system property:
+ * <ul>
+ * <li><code>eaio</code> (default): {@link #eaio()}, i.e. MAC address discovery, which can take a noticeable amount of time on first use.</li>
+ * <li><code>hashed</code>: {@link #hashed()}.</li>
+ * <li><code>random</code>: {@link #random()}.</li>
+ * <li>any hexadecimal number, e.g. <code>0x0242ac110002</code>: {@link #explicit(long)}.</li>
+ * </ul>
+ */
+public final class NodeProviders {
+	private NodeProviders() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	public static final String NODE_PROPERTY = "com.carmatech.cassandra.node";
+
+	private static final long VARIANT = 0x8000000000000000L;
+	private static final long CLOCK_SEQUENCE_MASK = 0x3FFFL;
+	private static final long NODE_MASK = 0x0000FFFFFFFFFFFFL;
+	private static final long MULTICAST_BIT = 0x0000010000000000L;
+
+	private static volatile NodeProvider defaultProvider;
+
+	/**
+	 * Get the provider currently used by {@link TimeUUID} and {@link CorbaTimeUUID}, resolving it from the system property if not set yet.
+	 */
+	public static NodeProvider getDefault() {
+		NodeProvider provider = defaultProvider;
+		if (provider == null) {
+			synchronized (NodeProviders.class) {
+				provider = defaultProvider;
+				if (provider == null) {
+					provider = fromProperty(System.getProperty(NODE_PROPERTY, "eaio"));
+					defaultProvider = provider;
+				}
+			}
+		}
+		return provider;
+	}
+
+	/**
+	 * WARNING: changing the provider while generating UUIDs may lead to duplicate UUIDs if the new provider's node is not unique. Set the provider used by
+	 * {@link TimeUUID} and {@link CorbaTimeUUID}.
+	 * 
+	 * @param provider
+	 *            provider to use from now on, or <code>null</code> to resolve it again from the system property.
+	 */
+	public static void setDefault(final NodeProvider provider) {
+		defaultProvider = provider;
+	}
+
+	static NodeProvider fromProperty(final String value) {
+		final String name = value.trim().toLowerCase(Locale.ENGLISH);
+		if (name.equals("eaio"))
+			return eaio();
+		if (name.equals("hashed"))
+			return hashed();
+		if (name.equals("random"))
+			return random();
+
+		try {
+			return explicit(Long.parseLong(name.startsWith("0x") ? name.substring(2) : name, 16));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for system property '" + NODE_PROPERTY
+					+ "': expected 'eaio', 'hashed', 'random' or a hexadecimal node but was [" + value + "].", e);
+		}
+	}
+
+	/**
+	 * Provider relying on Johann Burkard's UUID generator, whose node is based on the MAC address of the current machine. <br />
+	 * This is the historical behaviour of this library, but the first call is slow, as it discovers the MAC address (and may even spawn a process to do so).
+	 */
+	public static NodeProvider eaio() {
+		return EaioNodeProvider.INSTANCE;
+	}
+
+	/**
+	 * Provider whose node and clock sequence are a hash of the host name, ID and start time of the current process, where they can be read cheaply, e.g.
+	 * from <code>/proc</code> on Linux. Elsewhere, the time this method was first called stands for the start time. It is the same for the whole
+	 * process. <br />
+	 * Unlike {@link #eaio()}, it does not perform any network interface discovery, nor host name lookup, and unlike {@link #random()}, it does not seed a
+	 * secure random number generator.
+	 */
+	public static NodeProvider hashed() {
+		return ProcessNode.PROVIDER;
+	}
+
+	/**
+	 * Provider whose node and clock sequence are both random, as per section 4.5 of RFC 4122. <br />
+	 * This is the cheapest provider to initialize, but it is different for every call to this method.
+	 */
+	public static NodeProvider random() {
+		return new FixedNodeProvider(Randomness.RANDOM.nextLong() | MULTICAST_BIT, randomClockSequence());
+	}
+
+	/**
+	 * Provider whose node is the provided identifier, and whose clock sequence is random.
+	 * 
+	 * @param node
+	 *            node identifier, only the 48 least significant bits are used. Must be unique among all processes generating UUIDs.
+	 */
+	public static NodeProvider explicit(final long node) {
+		return new FixedNodeProvider(node, randomClockSequence());
+	}
+
+	/**
+	 * Provider whose node and clock sequence are the provided ones.
+	 * 
+	 * @param node
+	 *            node identifier, only the 48 least significant bits are used. Must be unique among all processes generating UUIDs.
+	 * @param clockSequence
+	 *            clock sequence, between 0 and 16383 included.
+	 */
+	public static NodeProvider explicit(final long node, final int clockSequence) {
+		checkArgument((clockSequence & ~CLOCK_SEQUENCE_MASK) == 0, "Clock sequence must be between 0 and 16383 included but was [" + clockSequence + "].");
+		return new FixedNodeProvider(node, clockSequence);
+	}
+
+	private static int randomClockSequence() {
+		return Randomness.RANDOM.nextInt((int) CLOCK_SEQUENCE_MASK + 1);
+	}
+
+	private static String hostName() {
+		try {
+			// Unlike InetAddress.getLocalHost(), this never queries a name service:
+			return Files.toString(new File("/proc/sys/kernel/hostname"), Charsets.UTF_8).trim();
+		} catch (IOException e) {
+			final String hostName = System.getenv("HOSTNAME");
+			return (hostName != null) ? hostName : String.valueOf(System.getenv("COMPUTERNAME"));
+		}
+	}
+
+	private static String processId() {
+		try {
+			// Unlike RuntimeMXBean.getName(), which loads JMX and may look the host name up, this is a single system call where /proc exists:
+			return new File("/proc/self").getCanonicalFile().getName();
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	private static String processStartTime() {
+		try {
+			// Fields after the executable name, which may contain spaces, start with the state. The start time, in clock ticks since boot, is the 20th.
+			final String stat = Files.toString(new File("/proc/self/stat"), Charsets.UTF_8);
+			return stat.substring(stat.lastIndexOf(')') + 2).split(" ")[19];
+		} catch (IOException e) {
+			return String.valueOf(System.currentTimeMillis());
+		} catch (RuntimeException e) {
+			return String.valueOf(System.currentTimeMillis());
+		}
+	}
+
+	private static final class Randomness {
+		// Not java.util.Random, whose 48-bit seed would make nodes of different processes collide more often than their 47 random bits allow:
+		private static final SecureRandom RANDOM = new SecureRandom();
+	}
+
+	private static final class ProcessNode {
+		// Only computed once, on first use, so that the node is the same for the whole process:
+		// Finalized, so that bits are spread evenly across the node and clock sequence:
+		private static final long HASH = Hashing.fmix64(Hashing.fnv1a(Hashing.FNV1A_OFFSET_BASIS, hostName() + "/" + processId() + "/" + processStartTime()));
+		private static final NodeProvider PROVIDER = new FixedNodeProvider(HASH | MULTICAST_BIT, HASH >>> 48);
+	}
+
+	private static final class FixedNodeProvider implements NodeProvider {
+		private final long clockSeqAndNode;
+
+		FixedNodeProvider(final long node, final long clockSequence) {
+			this.clockSeqAndNode = VARIANT | ((clockSequence & CLOCK_SEQUENCE_MASK) << 48) | (node & NODE_MASK);
+		}
+
+		@Override
+		public long getClockSeqAndNode() {
+			return clockSeqAndNode;
+		}
+
+		@Override
+		public String toString() {
+			return "FixedNodeProvider[" + Long.toHexString(clockSeqAndNode) + "]";
+		}
+	}
+
+	private static final class EaioNodeProvider implements NodeProvider {
+		private static final EaioNodeProvider INSTANCE = new EaioNodeProvider();
+
+		@Override
+		public long getClockSeqAndNode() {
+			// UUIDGen is only loaded, and the MAC address only discovered, on first call.
+			return UUIDGen.getClockSeqAndNode();
+		}
+
+		@Override
+		public String toString() {
+			return "EaioNodeProvider";
+		}
+	}
+}
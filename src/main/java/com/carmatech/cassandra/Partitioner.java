@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes, locally, the tokens Cassandra assigns to row keys, to know which node owns the row of a given bucket (see {@link TokenRing}). <br />
+ * Tokens are computed exactly as Cassandra does, including its quirks, so that they match the tokens reported by <code>nodetool ring</code>.
+ */
+public enum Partitioner {
+	/**
+	 * <code>org.apache.cassandra.dht.Murmur3Partitioner</code>: tokens are the first 64 bits of the 128-bit MurmurHash3 of the key, between
+	 * <code>-2<sup>63</sup></code> and <code>2<sup>63</sup> - 1</code>.
+	 */
+	MURMUR3 {
+		@Override
+		public BigInteger getToken(final ByteBuffer key) {
+			return BigInteger.valueOf(murmur3Token(key));
+		}
+	},
+
+	/**
+	 * <code>org.apache.cassandra.dht.RandomPartitioner</code>: tokens are the absolute value of the MD5 digest of the key, between 0 and
+	 * <code>2<sup>127</sup></code>.
+	 */
+	RANDOM {
+		@Override
+		public BigInteger getToken(final ByteBuffer key) {
+			if (!key.hasRemaining())
+				return BigInteger.ONE.negate(); // Minimum token.
+
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("MD5 is not supported by this JVM.", e);
+			}
+			digest.update(key.duplicate());
+			return new BigInteger(digest.digest()).abs();
+		}
+	};
+
+	/**
+	 * @param key
+	 *            serialized row key. Its position and limit are not modified.
+	 * @return the token of the provided row key.
+	 */
+	public abstract BigInteger getToken(ByteBuffer key);
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	/**
+	 * Compute the {@link #MURMUR3} token of the provided row key, without allocating.
+	 * 
+	 * @param key
+	 *            serialized row key. Its position and limit are not modified.
+	 */
+	public static long murmur3Token(final ByteBuffer key) {
+		if (!key.hasRemaining())
+			return Long.MIN_VALUE; // Minimum token.
+		final long hash = murmur3(key, key.position(), key.remaining());
+		return (hash == Long.MIN_VALUE) ? Long.MAX_VALUE : hash; // Long.MIN_VALUE is reserved for the minimum token.
+	}
+
+	/**
+	 * First 64 bits of MurmurHash3_x64_128, with a seed of 0, as implemented by <code>org.apache.cassandra.utils.MurmurHash.hash3_x64_128</code>. <br />
+	 * Cassandra's implementation differs from the reference one for keys whose length is not a multiple of 16: it sign-extends the trailing bytes, so
+	 * trailing bytes greater than 127 give different hashes, which this implementation reproduces.
+	 */
+	private static long murmur3(final ByteBuffer key, final int offset, final int length) {
+		final int numBlocks = length >> 4;
+		long h1 = 0;
+		long h2 = 0;
+
+		for (int i = 0; i < numBlocks; i++) {
+			long k1 = littleEndianLong(key, offset + (i << 4));
+			long k2 = littleEndianLong(key, offset + (i << 4) + 8);
+
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		final int tail = offset + (numBlocks << 4);
+		final int remaining = length & 15;
+		long k1 = 0;
+		long k2 = 0;
+		// Bytes are deliberately NOT masked with 0xff, to sign-extend them like Cassandra does:
+		for (int i = remaining - 1; i >= 8; i--) {
+			k2 ^= ((long) key.get(tail + i)) << ((i - 8) << 3);
+		}
+		if (remaining > 8) {
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+		}
+		for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+			k1 ^= ((long) key.get(tail + i)) << (i << 3);
+		}
+		if (remaining > 0) {
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+		}
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = Hashing.fmix64(h1);
+		h2 = Hashing.fmix64(h2);
+		return h1 + h2;
+	}
+
+	private static long littleEndianLong(final ByteBuffer key, final int index) {
+		long value = 0;
+		for (int i = 7; i >= 0; i--) {
+			value = (value << 8) | (key.get(index + i) & 0xffL);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.carmatech.cassandra.TimeUUID.CLOCK;
+import static com.carmatech.cassandra.TimeUUID.MAX_CLOCK_SEQ_AND_NODE;
+import static com.carmatech.cassandra.TimeUUID.MIN_CLOCK_SEQ_AND_NODE;
+import static com.carmatech.cassandra.UUIDTime.from100Ns;
+import static com.carmatech.cassandra.UUIDTime.fromUUIDTime;
+import static com.carmatech.cassandra.UUIDTime.to100Ns;
+import static com.carmatech.cassandra.UUIDTime.toUUIDTime;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+
+/**
+ * Version 1 UUIDs whose "time" component is the complement of the timestamp, so that Cassandra's <code>TimeUUIDType</code> (and
+ * {@link TimeUUIDComparator}) sorts the newest UUIDs first. <br />
+ * Reading the latest N columns of a row then becomes a forward slice from the start of the row, limited to N columns, instead of a reversed slice. <br />
+ * WARNING: these UUIDs must only be decoded with the methods of this class: {@link TimeUUID#toMillis(UUID)} would return a meaningless timestamp. Do not
+ * mix both encodings in the same column family.
+ */
+public final class ReverseTimeUUID {
+	private ReverseTimeUUID() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	// The "time" component of version 1 UUIDs is 60 bits long:
+	static final long MAX_TIMESTAMP_IN_100NS = 0x0FFFFFFFFFFFFFFFL;
+
+	/**
+	 * Generate a new, unique, reversed UUID based on current timestamp.
+	 */
+	public static UUID createUUID() {
+		return createUUID(System.currentTimeMillis());
+	}
+
+	/**
+	 * Generate a new, unique, reversed UUID based on the provided date-time.
+	 * 
+	 * @param dateTime
+	 *            date-time used for the "time" component of the UUID.
+	 */
+	public static UUID createUUID(final DateTime dateTime) {
+		return createUUID(dateTime.getMillis());
+	}
+
+	/**
+	 * Generate a new, unique, reversed UUID based on the provided date.
+	 * 
+	 * @param javaDate
+	 *            date used for the "time" component of the UUID.
+	 */
+	public static UUID createUUID(final Date javaDate) {
+		return createUUID(javaDate.getTime());
+	}
+
+	/**
+	 * Generate a new, unique, reversed UUID based on the provided timestamp. <br />
+	 * UUIDs generated within the same millisecond also sort newest first, as the clock shared with {@link TimeUUID} only ever moves forward.
+	 * 
+	 * @param timestamp
+	 *            timestamp used for the "time" component of the UUID.
+	 */
+	public static UUID createUUID(final long timestamp) {
+		final long uniqueTimestampIn100Ns = CLOCK.makeUnique(to100Ns(timestamp));
+		return new UUID(toReversedUUIDTime(uniqueTimestampIn100Ns), NodeProviders.getDefault().getClockSeqAndNode());
+	}
+
+	/**
+	 * WARNING: returned UUID is not unique. Get the reversed UUID corresponding to the provided timestamp and the clock sequence and node of the default
+	 * {@link NodeProvider}.
+	 * 
+	 * @param timestamp
+	 *            timestamp used for the "time" component of the UUID.
+	 */
+	public static UUID toUUID(final long timestamp) {
+		return new UUID(toReversedUUIDTime(to100Ns(timestamp)), NodeProviders.getDefault().getClockSeqAndNode());
+	}
+
+	/**
+	 * Get the lowest possible reversed UUID for the provided timestamp, i.e. the one sorted first, according to Cassandra's <code>TimeUUIDType</code>
+	 * ordering. <br />
+	 * As newer UUIDs come first, use it as the inclusive start of a slice query, to get all columns up to the provided timestamp (the newest of the range),
+	 * including all UUIDs generated within that millisecond.
+	 * 
+	 * @param timestamp
+	 *            timestamp, in milliseconds, used for the "time" component of the UUID.
+	 */
+	public static UUID minUUID(final long timestamp) {
+		return new UUID(toReversedUUIDTime(to100Ns(timestamp) + 9999), MIN_CLOCK_SEQ_AND_NODE);
+	}
+
+	/**
+	 * Get the highest possible reversed UUID for the provided timestamp, i.e. the one sorted last, according to Cassandra's <code>TimeUUIDType</code>
+	 * ordering. <br />
+	 * As older UUIDs come last, use it as the inclusive end of a slice query, to get all columns from the provided timestamp (the oldest of the range).
+	 * 
+	 * @param timestamp
+	 *            timestamp, in milliseconds, used for the "time" component of the UUID.
+	 */
+	public static UUID maxUUID(final long timestamp) {
+		return new UUID(toReversedUUIDTime(to100Ns(timestamp)), MAX_CLOCK_SEQ_AND_NODE);
+	}
+
+	/**
+	 * Extract the timestamp of the provided reversed UUID.
+	 * 
+	 * @param uuid
+	 *            reversed UUID to extract timestamp from.
+	 * @return Timestamp in milliseconds.
+	 */
+	public static long toMillis(final UUID uuid) {
+		return toMillis(uuid.getMostSignificantBits());
+	}
+
+	/**
+	 * Extract the timestamp of all the provided reversed UUIDs, given as their most significant bits.
+	 * 
+	 * @param mostSignificantBits
+	 *            most significant bits of the reversed UUIDs to extract timestamps from.
+	 * @param millis
+	 *            array where timestamps in milliseconds are stored, at the same index as their UUID. Must be at least as long as
+	 *            <code>mostSignificantBits</code>, and may be the same array.
+	 */
+	public static void toMillis(final long[] mostSignificantBits, final long[] millis) {
+		checkArgument(millis.length >= mostSignificantBits.length, "Output array is too small: expected at least [" + mostSignificantBits.length
+				+ "] but was [" + millis.length + "].");
+		for (int i = 0; i < mostSignificantBits.length; i++) {
+			millis[i] = toMillis(mostSignificantBits[i]);
+		}
+	}
+
+	/**
+	 * Get the bucket the provided reversed UUID belongs to. Equivalent to
+	 * <code>ShardingFrequency.calculateBucket(ReverseTimeUUID.toMillis(uuid), frequency)</code>.
+	 * 
+	 * @param uuid
+	 *            reversed UUID to get the bucket of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @return Bucket, in milliseconds.
+	 */
+	public static long bucketOf(final UUID uuid, final ShardingFrequency frequency) {
+		return ShardingFrequency.calculateBucket(toMillis(uuid.getMostSignificantBits()), frequency);
+	}
+
+	/**
+	 * Get the bucket of each of the provided reversed UUIDs, given as their most significant bits.
+	 * 
+	 * @param mostSignificantBits
+	 *            most significant bits of the reversed UUIDs to get the buckets of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @param buckets
+	 *            array where buckets are stored, at the same index as their UUID. Must be at least as long as <code>mostSignificantBits</code>, and may be
+	 *            the same array.
+	 */
+	public static void bucketsOf(final long[] mostSignificantBits, final ShardingFrequency frequency, final long[] buckets) {
+		toMillis(mostSignificantBits, buckets);
+		ShardingFrequency.calculateBuckets(buckets, frequency, buckets);
+	}
+
+	/**
+	 * Get the buckets covering the provided time range, newest first, i.e. in the order they should be read to get the latest N columns: stop as soon as
+	 * enough columns were read.
+	 * 
+	 * @param from
+	 *            oldest timestamp of the range, inclusive.
+	 * @param to
+	 *            newest timestamp of the range, inclusive.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 */
+	public static List<Long> getBuckets(final long from, final long to, final ShardingFrequency frequency) {
+		final List<Long> buckets = new ArrayList<Long>(ShardingFrequency.getBuckets(from, to, frequency));
+		Collections.reverse(buckets);
+		return buckets;
+	}
+
+	private static long toReversedUUIDTime(final long timestampIn100Ns) {
+		return toUUIDTime(MAX_TIMESTAMP_IN_100NS - timestampIn100Ns);
+	}
+
+	private static long toMillis(final long reversedUUIDTime) {
+		return from100Ns(MAX_TIMESTAMP_IN_100NS - fromUUIDTime(reversedUUIDTime));
+	}
+}
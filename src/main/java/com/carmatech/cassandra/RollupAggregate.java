@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * Pre-aggregated count, sum, minimum and maximum of the values of a time range. <br />
+ * Aggregates of adjacent ranges can be merged, so the aggregate of a long range can be computed from the aggregates of the buckets it covers, rather
+ * than from every value in the range. <br />
+ * Not thread-safe.
+ */
+public final class RollupAggregate {
+	private long count;
+	private double sum;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Create an empty aggregate.
+	 */
+	public RollupAggregate() {
+	}
+
+	/**
+	 * Create an aggregate of the provided values.
+	 */
+	public RollupAggregate(final long count, final double sum, final double min, final double max) {
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * Add the provided value to this aggregate.
+	 * 
+	 * @return this aggregate.
+	 */
+	public RollupAggregate add(final double value) {
+		++count;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		return this;
+	}
+
+	/**
+	 * Add all the values of the provided aggregate to this aggregate.
+	 * 
+	 * @return this aggregate.
+	 */
+	public RollupAggregate merge(final RollupAggregate other) {
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		return this;
+	}
+
+	/**
+	 * @return a copy of this aggregate, which can be modified independently.
+	 */
+	public RollupAggregate copy() {
+		return new RollupAggregate(count, sum, min, max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the smallest value, or {@link Double#POSITIVE_INFINITY} if this aggregate is empty.
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the largest value, or {@link Double#NEGATIVE_INFINITY} if this aggregate is empty.
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the average value, or {@link Double#NaN} if this aggregate is empty.
+	 */
+	public double getMean() {
+		return sum / count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (!(other instanceof RollupAggregate))
+			return false;
+		final RollupAggregate aggregate = (RollupAggregate) other;
+		return (count == aggregate.count) && (Double.compare(sum, aggregate.sum) == 0) && (Double.compare(min, aggregate.min) == 0)
+				&& (Double.compare(max, aggregate.max) == 0);
+	}
+
+	@Override
+	public int hashCode() {
+		long hash = count;
+		hash = 31 * hash + Double.doubleToLongBits(sum);
+		hash = 31 * hash + Double.doubleToLongBits(min);
+		hash = 31 * hash + Double.doubleToLongBits(max);
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "RollupAggregate[count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + "]";
+	}
+}
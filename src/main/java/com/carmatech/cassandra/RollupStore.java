@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * Stores the aggregates of the buckets of several series, at several sharding frequencies. <br />
+ * See {@link InMemoryRollupStore} for an in-memory implementation, and {@link Rollups} to maintain and query aggregates.
+ */
+public interface RollupStore {
+	/**
+	 * Merge the provided aggregate into the stored aggregate of the provided bucket. Must be thread-safe.
+	 * 
+	 * @param series
+	 *            series the values belong to.
+	 * @param frequency
+	 *            sharding frequency of the bucket.
+	 * @param bucket
+	 *            bucket the values belong to, as calculated by {@link ShardingFrequency#calculateBucket(long, ShardingFrequency)}.
+	 * @param aggregate
+	 *            aggregate of the new values. Must not be modified, nor kept, by the store.
+	 */
+	void merge(String series, ShardingFrequency frequency, long bucket, RollupAggregate aggregate);
+
+	/**
+	 * Get the aggregate of the provided bucket. Must be thread-safe.
+	 * 
+	 * @return the aggregate of all the values of the bucket, or <code>null</code> if no value was ever merged into the bucket.
+	 */
+	RollupAggregate get(String series, ShardingFrequency frequency, long bucket);
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maintains aggregates of the values of each series at several sharding frequencies (e.g. {@link ShardingFrequency#MINUTELY},
+ * {@link ShardingFrequency#HOURLY} and {@link ShardingFrequency#DAILY}), and answers aggregate queries over long ranges from as few buckets as possible.
+ * <br />
+ * Queries are planned greedily: the coarsest buckets fully covered by the range are used, then the finer buckets fully covered by what remains at both
+ * edges of the range, and so on. Whatever remains at the edges once the finest frequency is reached, i.e. less than one of its buckets on each side, is
+ * aggregated from the raw values. For example, thirty days of {@link ShardingFrequency#MINUTELY} data are aggregated from about thirty daily buckets,
+ * up to 46 hourly buckets and 118 minutely buckets, instead of 43200 rows. <br />
+ * {@link ShardingFrequency#MONTHLY} is not supported, as its buckets do not always start at their bucket timestamp: the first days of a month can belong
+ * to the previous month's bucket.
+ */
+public final class Rollups {
+	/**
+	 * Aggregates raw values, for the edges of a range which are shorter than a bucket at the finest frequency.
+	 */
+	public interface RawSource {
+		/**
+		 * @return aggregate of the values of the provided series between the provided timestamps, in milliseconds, both included.
+		 */
+		RollupAggregate aggregate(String series, long from, long to);
+	}
+
+	/**
+	 * Part of a query plan: either a bucket at one of the frequencies, or a range of raw values.
+	 */
+	public static final class Segment {
+		private final ShardingFrequency frequency;
+		private final long bucket;
+		private final long from;
+		private final long to;
+
+		Segment(final ShardingFrequency frequency, final long bucket, final long from, final long to) {
+			this.frequency = frequency;
+			this.bucket = bucket;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * @return the frequency of the bucket, or <code>null</code> for raw values.
+		 */
+		public ShardingFrequency getFrequency() {
+			return frequency;
+		}
+
+		public long getBucket() {
+			return bucket;
+		}
+
+		/**
+		 * @return timestamp, in milliseconds, of the beginning of the segment, included.
+		 */
+		public long getFrom() {
+			return from;
+		}
+
+		/**
+		 * @return timestamp, in milliseconds, of the end of the segment, included.
+		 */
+		public long getTo() {
+			return to;
+		}
+
+		public boolean isRaw() {
+			return frequency == null;
+		}
+
+		@Override
+		public String toString() {
+			return (isRaw() ? "RAW" : frequency.name()) + "[" + from + ", " + to + "]";
+		}
+	}
+
+	private final RollupStore store;
+	private final ShardingFrequency[] frequencies; // From the finest to the coarsest.
+
+	/**
+	 * @param store
+	 *            store of the aggregates.
+	 * @param frequencies
+	 *            frequencies at which values are aggregated.
+	 */
+	public Rollups(final RollupStore store, final ShardingFrequency... frequencies) {
+		checkArgument(frequencies.length > 0, "At least one frequency must be provided.");
+		this.store = store;
+		this.frequencies = frequencies.clone();
+		Arrays.sort(this.frequencies);
+		for (int i = 0; i < this.frequencies.length; i++) {
+			checkArgument(this.frequencies[i] != ShardingFrequency.MONTHLY, "Monthly rollups are not supported.");
+			checkArgument((i == 0) || (this.frequencies[i] != this.frequencies[i - 1]), "Frequency [" + this.frequencies[i] + "] was provided twice.");
+		}
+	}
+
+	/**
+	 * Add the provided value to the aggregates of its buckets, at every frequency.
+	 */
+	public void add(final String series, final long timestamp, final double value) {
+		final RollupAggregate aggregate = new RollupAggregate().add(value);
+		for (final ShardingFrequency frequency : frequencies) {
+			store.merge(series, frequency, ShardingFrequency.calculateBucket(timestamp, frequency), aggregate);
+		}
+	}
+
+	/**
+	 * Add the provided values to the aggregates of their buckets, at every frequency. <br />
+	 * Values are aggregated locally first, so the store is only updated once per bucket, rather than once per value: this is much cheaper than calling
+	 * {@link #add(String, long, double)} for each value, especially if the store is remote.
+	 * 
+	 * @param timestamps
+	 *            timestamps, in milliseconds, of the values. Values of the same bucket are only aggregated together if they are next to each other, e.g.
+	 *            if timestamps are in time order.
+	 * @param values
+	 *            values, at the same index as their timestamp.
+	 */
+	public void addAll(final String series, final long[] timestamps, final double[] values) {
+		checkArgument(timestamps.length == values.length, "Timestamps and values must have the same length, but were [" + timestamps.length + "] and ["
+				+ values.length + "].");
+
+		final long[] buckets = new long[timestamps.length];
+		for (final ShardingFrequency frequency : frequencies) {
+			ShardingFrequency.calculateBuckets(timestamps, frequency, buckets);
+			int start = 0;
+			while (start < buckets.length) {
+				final RollupAggregate aggregate = new RollupAggregate();
+				int end = start;
+				while ((end < buckets.length) && (buckets[end] == buckets[start])) {
+					aggregate.add(values[end++]);
+				}
+				store.merge(series, frequency, buckets[start], aggregate);
+				start = end;
+			}
+		}
+	}
+
+	/**
+	 * Plan the aggregation of the values between the provided timestamps.
+	 * 
+	 * @param from
+	 *            timestamp, in milliseconds, of the first value to aggregate, included.
+	 * @param to
+	 *            timestamp, in milliseconds, of the last value to aggregate, included.
+	 * @return Segments covering the range exactly, without overlapping, in time order.
+	 */
+	public List<Segment> plan(final long from, final long to) {
+		checkArgument(from <= to, "'To' timestamp must be greater than, or equal to 'from' timestamp: 'from'=[" + from + "], 'to'=[" + to + "].");
+
+		final List<Segment> segments = new ArrayList<Segment>();
+		plan(from, to + 1, frequencies.length - 1, segments);
+		return Collections.unmodifiableList(segments);
+	}
+
+	private void plan(final long from, final long toExcluded, final int level, final List<Segment> segments) {
+		if (from >= toExcluded)
+			return;
+		if (level < 0) {
+			segments.add(new Segment(null, from, from, toExcluded - 1));
+			return;
+		}
+
+		// Find the longest run of buckets, at this level, which are entirely within the range:
+		final ShardingFrequency frequency = frequencies[level];
+		long start = ShardingFrequency.calculateBucket(from, frequency);
+		if (start < from)
+			start = ShardingFrequency.nextBucket(start, frequency);
+		long end = start;
+		for (long next = ShardingFrequency.nextBucket(end, frequency); next <= toExcluded; next = ShardingFrequency.nextBucket(end, frequency)) {
+			end = next;
+		}
+		if (end == start) {
+			plan(from, toExcluded, level - 1, segments);
+			return;
+		}
+
+		plan(from, start, level - 1, segments);
+		for (long bucket = start; bucket < end;) {
+			final long next = ShardingFrequency.nextBucket(bucket, frequency);
+			segments.add(new Segment(frequency, bucket, bucket, next - 1));
+			bucket = next;
+		}
+		plan(end, toExcluded, level - 1, segments);
+	}
+
+	/**
+	 * Aggregate the values of the provided series between the provided timestamps, from as few buckets as possible.
+	 * 
+	 * @param from
+	 *            timestamp, in milliseconds, of the first value to aggregate, included.
+	 * @param to
+	 *            timestamp, in milliseconds, of the last value to aggregate, included.
+	 * @param rawSource
+	 *            source of the raw values, for the edges of the range which are shorter than a bucket at the finest frequency.
+	 */
+	public RollupAggregate aggregate(final String series, final long from, final long to, final RawSource rawSource) {
+		final RollupAggregate aggregate = new RollupAggregate();
+		for (final Segment segment : plan(from, to)) {
+			final RollupAggregate part = segment.isRaw() ? rawSource.aggregate(series, segment.getFrom(), segment.getTo()) : store.get(series,
+					segment.getFrequency(), segment.getBucket());
+			if (part != null)
+				aggregate.merge(part);
+		}
+		return aggregate;
+	}
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * Builds the key of the row of a given series and bucket, e.g. <code>series + ":" + bucket</code>. The same builder is meant to be used to write rows
+ * (see {@link HectorBucketWriteSink}) and to read them back (see {@link HectorBucketQueryExecutor}).
+ * 
+ * @param <S>
+ *            type of the series identifiers.
+ * @param <K>
+ *            type of the row keys.
+ */
+public interface RowKeyBuilder<S, K> {
+	/**
+	 * @param series
+	 *            series of the row.
+	 * @param bucket
+	 *            bucket of the row, as calculated by {@link ShardingFrequency#calculateBucket(long, ShardingFrequency)}.
+	 * @return the key of the row.
+	 */
+	K toRowKey(S series, long bucket);
+}
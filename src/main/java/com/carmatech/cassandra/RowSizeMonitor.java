@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Monitors the size of rows as they are written, to check whether the maximum row size assumed by {@link ShardingFrequency#calculateFrequency} holds,
+ * before rows actually become too wide. <br />
+ * Writers report the columns and bytes written to each row, either directly with {@link #record(String, long, long, long)} or by wrapping their sink
+ * with {@link #track(BucketWriteSink, Weigher)}. Rows of buckets still being written to are tracked individually, and their final
+ * size is projected from how far into their bucket they are. Once their bucket has closed, i.e. once it ended more than the grace period ago, their size,
+ * column count and write rate are recorded into {@link LogLinearHistogram}s, and they stop being tracked. Later writes to these rows are not counted, see
+ * {@link #getLateWriteCount()}, so the grace period should cover how late writes may be, e.g. the maximum latency of a {@link BucketWritePipeline}.
+ * <br />
+ * Statistics can be read directly, or through JMX once {@link #register(String)} has been called.
+ */
+public final class RowSizeMonitor implements RowSizeMonitorMXBean {
+	public static final int DEFAULT_MAX_LISTED_ROWS = 10;
+
+	/**
+	 * Rows are only projected once this fraction of their bucket has elapsed, as projections at the very beginning of a bucket are meaningless.
+	 */
+	private static final double MIN_ELAPSED_RATIO_FOR_PROJECTION = 0.05;
+	private static final long COLUMN_NAME_SIZE_IN_BYTES = 16;
+
+	private final ShardingFrequency frequency;
+	private final long rowMaxSizeInBytes;
+	private final int maxListedRows;
+	private final long gracePeriodInMillis;
+	private final ConcurrentMap<SeriesBucket<String>, RowStatistics> openRows = new ConcurrentHashMap<SeriesBucket<String>, RowStatistics>();
+	private final LogLinearHistogram rowSizes = new LogLinearHistogram();
+	private final LogLinearHistogram rowColumnCounts = new LogLinearHistogram();
+	private final LogLinearHistogram rowWritesPerSecond = new LogLinearHistogram();
+	private final AtomicLong lateWrites = new AtomicLong();
+	private volatile long firstOpenBucket = Long.MIN_VALUE;
+	private ObjectName objectName;
+
+	/**
+	 * Create a monitor for rows of 10 MB at most.
+	 */
+	public RowSizeMonitor(final ShardingFrequency frequency) {
+		this(frequency, ShardingFrequency.ROW_MAX_SIZE, DEFAULT_MAX_LISTED_ROWS);
+	}
+
+	/**
+	 * @param frequency
+	 *            sharding frequency of the monitored rows.
+	 * @param rowMaxSizeInBytes
+	 *            maximum size of a row.
+	 * @param maxListedRows
+	 *            maximum number of rows listed by {@link #getLargestOpenRows()} and {@link #getRowsProjectedToOverflow()}.
+	 */
+	public RowSizeMonitor(final ShardingFrequency frequency, final long rowMaxSizeInBytes, final int maxListedRows) {
+		this(frequency, rowMaxSizeInBytes, maxListedRows, 0L);
+	}
+
+	/**
+	 * @param frequency
+	 *            sharding frequency of the monitored rows.
+	 * @param rowMaxSizeInBytes
+	 *            maximum size of a row.
+	 * @param maxListedRows
+	 *            maximum number of rows listed by {@link #getLargestOpenRows()} and {@link #getRowsProjectedToOverflow()}.
+	 * @param gracePeriodInMillis
+	 *            time, after the end of a bucket, during which its rows are still considered open, e.g. to account for batched or late writes, or clock
+	 *            skew between writers.
+	 */
+	public RowSizeMonitor(final ShardingFrequency frequency, final long rowMaxSizeInBytes, final int maxListedRows, final long gracePeriodInMillis) {
+		checkArgument(rowMaxSizeInBytes > 0, "Maximum row size must be STRICTLY POSITIVE but was [" + rowMaxSizeInBytes + "].");
+		checkArgument(maxListedRows > 0, "Maximum number of listed rows must be STRICTLY POSITIVE but was [" + maxListedRows + "].");
+		checkArgument(gracePeriodInMillis >= 0, "Grace period must be POSITIVE but was [" + gracePeriodInMillis + "].");
+		this.frequency = frequency;
+		this.rowMaxSizeInBytes = rowMaxSizeInBytes;
+		this.maxListedRows = maxListedRows;
+		this.gracePeriodInMillis = gracePeriodInMillis;
+	}
+
+	/**
+	 * Record a write to a row. Lock-free, except when the row is written to for the first time. <br />
+	 * Writes to rows whose bucket has already been closed by {@link #closeRows(long)} are not counted, as these rows are already recorded.
+	 * 
+	 * @param series
+	 *            series of the row.
+	 * @param bucket
+	 *            bucket of the row, as calculated by {@link ShardingFrequency#calculateBucket(long, ShardingFrequency)}.
+	 * @param columns
+	 *            number of columns written.
+	 * @param bytes
+	 *            number of bytes written, including column names.
+	 * @return <code>true</code> if the write was counted, <code>false</code> if the row's bucket was already closed.
+	 */
+	public boolean record(final String series, final long bucket, final long columns, final long bytes) {
+		if (bucket < firstOpenBucket) {
+			lateWrites.incrementAndGet();
+			return false;
+		}
+		final SeriesBucket<String> row = new SeriesBucket<String>(series, bucket);
+		RowStatistics statistics = openRows.get(row);
+		if (statistics == null) {
+			final RowStatistics created = new RowStatistics();
+			statistics = openRows.putIfAbsent(row, created);
+			if (statistics == null)
+				statistics = created;
+		}
+
+		// The row may have been closed since it was looked up, or even re-created after being closed: checked again once registered as a writer, so
+		// that closeRows() either sees this write, or this write sees the row closed.
+		statistics.writers.incrementAndGet();
+		try {
+			if (statistics.closed || (bucket < firstOpenBucket)) {
+				lateWrites.incrementAndGet();
+				return false;
+			}
+			statistics.columns.addAndGet(columns);
+			statistics.bytes.addAndGet(bytes);
+			return true;
+		} finally {
+			statistics.writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Wrap the provided sink so that every batch it writes successfully is recorded.
+	 * 
+	 * @param sink
+	 *            sink to wrap.
+	 * @param weigher
+	 *            size of the values written. Column names are counted as 16 bytes each.
+	 * @return a sink writing to the provided one, and recording its writes in this monitor.
+	 */
+	public <S, V> BucketWriteSink<S, V> track(final BucketWriteSink<S, V> sink, final Weigher<? super V> weigher) {
+		return new BucketWriteSink<S, V>() {
+			@Override
+			public void write(final S series, final long bucket, final List<UUID> columnNames, final List<V> values) {
+				sink.write(series, bucket, columnNames, values);
+				long bytes = columnNames.size() * COLUMN_NAME_SIZE_IN_BYTES;
+				for (int i = 0; i < values.size(); i++) {
+					bytes += weigher.weigh(values.get(i));
+				}
+				record(String.valueOf(series), bucket, columnNames.size(), bytes);
+			}
+		};
+	}
+
+	/**
+	 * Record the rows of the buckets closed at the provided timestamp, i.e. which ended more than the grace period before it, into the histograms, and stop
+	 * tracking them. Called before reading statistics.
+	 */
+	public synchronized void closeRows(final long now) {
+		final long currentBucket = ShardingFrequency.calculateBucket(now - gracePeriodInMillis, frequency);
+		if (currentBucket <= firstOpenBucket)
+			return;
+		// Published first, so that rows of closed buckets which are not seen below can no longer be written to:
+		firstOpenBucket = currentBucket;
+		final Iterator<Map.Entry<SeriesBucket<String>, RowStatistics>> iterator = openRows.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<SeriesBucket<String>, RowStatistics> entry = iterator.next();
+			final long bucket = entry.getKey().bucket;
+			if (bucket < currentBucket) {
+				final RowStatistics statistics = entry.getValue();
+				statistics.closed = true;
+				while (statistics.writers.get() != 0) {
+					Thread.yield(); // Writers which saw the row open are only adding to its counters.
+				}
+				iterator.remove();
+				final long columns = statistics.columns.get();
+				if (columns == 0)
+					continue; // Only created by late writes, which were not counted: this row was already recorded, or does not exist.
+				final long durationInMillis = ShardingFrequency.nextBucket(bucket, frequency) - bucket;
+				rowSizes.record(statistics.bytes.get());
+				rowColumnCounts.record(columns);
+				rowWritesPerSecond.record(columns * 1000L / durationInMillis);
+			}
+		}
+	}
+
+	/**
+	 * @return the projected size, in bytes, of the provided row at the end of its bucket, assuming it keeps being written to at the same rate,
+	 *         <code>-1</code> if too little of its bucket has elapsed yet to project its size, or 0 if the row is not being written to.
+	 */
+	public long projectSize(final String series, final long bucket, final long now) {
+		final RowStatistics statistics = openRows.get(new SeriesBucket<String>(series, bucket));
+		return (statistics == null) ? 0 : projectSize(bucket, statistics.bytes.get(), now);
+	}
+
+	private long projectSize(final long bucket, final long bytes, final long now) {
+		final long durationInMillis = ShardingFrequency.nextBucket(bucket, frequency) - bucket;
+		final long elapsedInMillis = Math.min(now - bucket, durationInMillis);
+		if (elapsedInMillis < MIN_ELAPSED_RATIO_FOR_PROJECTION * durationInMillis)
+			return -1;
+		return (long) ((double) bytes * durationInMillis / elapsedInMillis);
+	}
+
+	private List<Map.Entry<SeriesBucket<String>, long[]>> openRowsBySize() {
+		final List<Map.Entry<SeriesBucket<String>, long[]>> rows = new ArrayList<Map.Entry<SeriesBucket<String>, long[]>>();
+		for (final Map.Entry<SeriesBucket<String>, RowStatistics> entry : openRows.entrySet()) {
+			final long[] snapshot = new long[] { entry.getValue().bytes.get(), entry.getValue().columns.get() };
+			rows.add(new AbstractMap.SimpleImmutableEntry<SeriesBucket<String>, long[]>(entry.getKey(), snapshot));
+		}
+		Collections.sort(rows, new Comparator<Map.Entry<SeriesBucket<String>, long[]>>() {
+			@Override
+			public int compare(final Map.Entry<SeriesBucket<String>, long[]> first, final Map.Entry<SeriesBucket<String>, long[]> second) {
+				final long firstSize = first.getValue()[0];
+				final long secondSize = second.getValue()[0];
+				return (firstSize > secondSize) ? -1 : ((firstSize == secondSize) ? 0 : 1);
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * @return the largest rows still being written to at the provided timestamp, from the largest.
+	 */
+	public String[] getLargestOpenRows(final long now) {
+		closeRows(now);
+		final List<String> largest = new ArrayList<String>();
+		for (final Map.Entry<SeriesBucket<String>, long[]> row : openRowsBySize()) {
+			if (largest.size() == maxListedRows)
+				break;
+			largest.add(row.getKey() + ": " + row.getValue()[0] + " bytes (" + row.getValue()[1] + " columns)");
+		}
+		return largest.toArray(new String[largest.size()]);
+	}
+
+	/**
+	 * @return the rows still being written to at the provided timestamp, whose size is projected to exceed the maximum size by the end of their bucket.
+	 */
+	public String[] getRowsProjectedToOverflow(final long now) {
+		closeRows(now);
+		final List<String> overflowing = new ArrayList<String>();
+		for (final Map.Entry<SeriesBucket<String>, long[]> row : openRowsBySize()) {
+			if (overflowing.size() == maxListedRows)
+				break;
+			final long projectedSize = projectSize(row.getKey().bucket, row.getValue()[0], now);
+			if (projectedSize > rowMaxSizeInBytes)
+				overflowing.add(row.getKey() + ": " + projectedSize + " bytes projected");
+		}
+		return overflowing.toArray(new String[overflowing.size()]);
+	}
+
+	/**
+	 * @return number of writes to rows whose bucket was already closed, and which were therefore not counted.
+	 */
+	@Override
+	public long getLateWriteCount() {
+		return lateWrites.get();
+	}
+
+	/**
+	 * @return histogram of the size, in bytes, of the rows of closed buckets.
+	 */
+	public LogLinearHistogram getRowSizes() {
+		return rowSizes;
+	}
+
+	/**
+	 * @return histogram of the number of columns of the rows of closed buckets.
+	 */
+	public LogLinearHistogram getRowColumnCounts() {
+		return rowColumnCounts;
+	}
+
+	/**
+	 * @return histogram of the average number of columns written per second to the rows of closed buckets.
+	 */
+	public LogLinearHistogram getRowWritesPerSecond() {
+		return rowWritesPerSecond;
+	}
+
+	/**
+	 * Register this monitor with the platform MBean server, as <code>com.carmatech.cassandra:type=RowSizeMonitor,name=&lt;name&gt;</code>.
+	 */
+	public synchronized void register(final String name) throws JMException {
+		checkState(objectName == null, "Monitor is already registered as [" + objectName + "].");
+		final ObjectName newObjectName = new ObjectName("com.carmatech.cassandra:type=RowSizeMonitor,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, newObjectName);
+		objectName = newObjectName;
+	}
+
+	/**
+	 * Unregister this monitor from the platform MBean server, if it was registered.
+	 */
+	public synchronized void unregister() throws JMException {
+		if (objectName == null)
+			return;
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.unregisterMBean(objectName);
+		objectName = null;
+	}
+
+	// JMX attributes, read at the current time:
+
+	@Override
+	public long getClosedRowCount() {
+		closeRows(System.currentTimeMillis());
+		return rowSizes.getCount();
+	}
+
+	@Override
+	public long getRowSizeInBytesMedian() {
+		return percentile(rowSizes, 50);
+	}
+
+	@Override
+	public long getRowSizeInBytes99thPercentile() {
+		return percentile(rowSizes, 99);
+	}
+
+	@Override
+	public long getRowSizeInBytes999thPercentile() {
+		return percentile(rowSizes, 99.9);
+	}
+
+	@Override
+	public long getRowSizeInBytesMax() {
+		return percentile(rowSizes, 100);
+	}
+
+	@Override
+	public long getRowColumnCountMedian() {
+		return percentile(rowColumnCounts, 50);
+	}
+
+	@Override
+	public long getRowColumnCount99thPercentile() {
+		return percentile(rowColumnCounts, 99);
+	}
+
+	@Override
+	public long getRowColumnCountMax() {
+		return percentile(rowColumnCounts, 100);
+	}
+
+	@Override
+	public long getRowWritesPerSecondMedian() {
+		return percentile(rowWritesPerSecond, 50);
+	}
+
+	@Override
+	public long getRowWritesPerSecond99thPercentile() {
+		return percentile(rowWritesPerSecond, 99);
+	}
+
+	@Override
+	public int getOpenRowCount() {
+		closeRows(System.currentTimeMillis());
+		return openRows.size();
+	}
+
+	@Override
+	public String[] getLargestOpenRows() {
+		return getLargestOpenRows(System.currentTimeMillis());
+	}
+
+	@Override
+	public String[] getRowsProjectedToOverflow() {
+		return getRowsProjectedToOverflow(System.currentTimeMillis());
+	}
+
+	private long percentile(final LogLinearHistogram histogram, final double percentile) {
+		closeRows(System.currentTimeMillis());
+		return histogram.getValueAtPercentile(percentile);
+	}
+
+	private static final class RowStatistics {
+		private final AtomicLong columns = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicInteger writers = new AtomicInteger();
+		private volatile boolean closed;
+	}
+}
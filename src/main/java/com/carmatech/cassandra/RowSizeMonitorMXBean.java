@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * JMX view of a {@link RowSizeMonitor}. <br />
+ * Percentiles are calculated over the rows of closed buckets, while the largest rows and the rows projected to overflow are among the rows of buckets
+ * still being written to.
+ */
+public interface RowSizeMonitorMXBean {
+	long getClosedRowCount();
+
+	long getRowSizeInBytesMedian();
+
+	long getRowSizeInBytes99thPercentile();
+
+	long getRowSizeInBytes999thPercentile();
+
+	long getRowSizeInBytesMax();
+
+	long getRowColumnCountMedian();
+
+	long getRowColumnCount99thPercentile();
+
+	long getRowColumnCountMax();
+
+	long getRowWritesPerSecondMedian();
+
+	long getRowWritesPerSecond99thPercentile();
+
+	int getOpenRowCount();
+
+	long getLateWriteCount();
+
+	/**
+	 * @return the largest rows still being written to, from the largest, as <code>series/bucket: size in bytes (column count)</code>.
+	 */
+	String[] getLargestOpenRows();
+
+	/**
+	 * @return the rows still being written to whose size is projected to exceed the maximum size by the end of their bucket, as
+	 *         <code>series/bucket: projected size in bytes</code>.
+	 */
+	String[] getRowsProjectedToOverflow();
+}
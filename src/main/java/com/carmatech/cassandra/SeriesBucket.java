@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * Identifies a row by its series and bucket, e.g. as the key of a map of rows.
+ * 
+ * @param <S>
+ *            type of the series, which must implement {@link Object#equals(Object)} and {@link Object#hashCode()}.
+ */
+final class SeriesBucket<S> {
+	final S series;
+	final long bucket;
+
+	SeriesBucket(final S series, final long bucket) {
+		this.series = series;
+		this.bucket = bucket;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * series.hashCode() + (int) (bucket ^ (bucket >>> 32));
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (!(other instanceof SeriesBucket))
+			return false;
+		final SeriesBucket<?> row = (SeriesBucket<?>) other;
+		return (bucket == row.bucket) && series.equals(row.series);
+	}
+
+	@Override
+	public String toString() {
+		return series + "/" + bucket;
+	}
+}
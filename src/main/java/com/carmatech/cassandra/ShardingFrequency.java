@@ -21,7 +21,9 @@ import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import org.joda.time.MutableDateTime;
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
 
 public enum ShardingFrequency {
 	// @formatter:off
@@ -45,7 +47,7 @@ public enum ShardingFrequency {
 
 	private final static long KB = 1024;
 	private final static long MB = 1024 * KB;
-	private final static long ROW_MAX_SIZE = 10 * MB;
+	final static long ROW_MAX_SIZE = 10 * MB;
 
 	public static ShardingFrequency calculateFrequency(final long averageSizeInBytes, final long writesPerTimeUnit, final TimeUnit timeUnit) {
 		return calculateFrequency(averageSizeInBytes, writesPerTimeUnit, timeUnit, ROW_MAX_SIZE);
@@ -54,7 +56,15 @@ public enum ShardingFrequency {
 	public static ShardingFrequency calculateFrequency(final long averageSizeInBytes, final long writesPerTimeUnit, final TimeUnit timeUnit,
 			final long rowMaxSizeInBytes) {
 		final double shardingFrequencyInMillis = timeUnit.toMillis(1) * rowMaxSizeInBytes / averageSizeInBytes / writesPerTimeUnit;
+		return fromRowFillTime(shardingFrequencyInMillis);
+	}
 
+	/**
+	 * @param shardingFrequencyInMillis
+	 *            time it takes, in milliseconds, to fill a row up to its maximum size.
+	 * @return the coarsest frequency whose buckets are shorter than the provided time, i.e. whose rows never reach their maximum size.
+	 */
+	static ShardingFrequency fromRowFillTime(final double shardingFrequencyInMillis) {
 		if (shardingFrequencyInMillis > MONTHLY.toMillis())
 			return MONTHLY;
 		if (shardingFrequencyInMillis > WEEKLY.toMillis())
@@ -72,38 +82,119 @@ public enum ShardingFrequency {
 				+ " ms. You may want to reconsider your data storage strategy.");
 	}
 
+	/**
+	 * Calculate the bucket of the provided timestamp, i.e. the timestamp truncated according to the provided frequency, in the default time zone. <br />
+	 * Frequencies up to {@link #DAILY} are calculated arithmetically from the time zone's offset, and only fall back to the calendar around daylight saving
+	 * time transitions. No object is allocated.
+	 * 
+	 * @param timestamp
+	 *            timestamp, in milliseconds, to calculate the bucket for.
+	 * @param frequency
+	 *            sharding frequency used to truncate the timestamp.
+	 */
 	public static long calculateBucket(final long timestamp, final ShardingFrequency frequency) {
-		final MutableDateTime dateTime = new MutableDateTime(timestamp);
+		if (frequency == SECONDLY)
+			return timestamp - floorMod(timestamp, SECONDLY.toMillis());
+
+		final DateTimeZone zone = DateTimeZone.getDefault();
+		if (frequency.compareTo(DAILY) <= 0)
+			return calculateBucket(zone, ISOChronology.getInstance(zone), timestamp, frequency);
+		return truncate(ISOChronology.getInstance(zone), timestamp, frequency);
+	}
+
+	/**
+	 * Calculate the bucket of each of the provided timestamps. <br />
+	 * Equivalent to calling {@link #calculateBucket(long, ShardingFrequency)} on each timestamp, but only looking the time zone up once. For
+	 * {@link #SECONDLY}, or for frequencies up to {@link #DAILY} in a time zone with a fixed offset (e.g. UTC), this is a tight, branch-free loop which the
+	 * JIT compiler can unroll.
+	 * 
+	 * @param timestamps
+	 *            timestamps, in milliseconds, to calculate buckets for.
+	 * @param frequency
+	 *            sharding frequency used to truncate timestamps.
+	 * @param buckets
+	 *            array where buckets are stored, at the same index as their timestamp. Must be at least as long as <code>timestamps</code>, and may be
+	 *            the same array.
+	 */
+	public static void calculateBuckets(final long[] timestamps, final ShardingFrequency frequency, final long[] buckets) {
+		checkArgument(buckets.length >= timestamps.length, "Output array is too small: expected at least [" + timestamps.length + "] but was ["
+				+ buckets.length + "].");
+
+		final DateTimeZone zone = DateTimeZone.getDefault();
+		final Chronology chronology = ISOChronology.getInstance(zone);
+		if (frequency.compareTo(DAILY) > 0) {
+			for (int i = 0; i < timestamps.length; i++) {
+				buckets[i] = truncate(chronology, timestamps[i], frequency);
+			}
+		} else if ((frequency == SECONDLY) || zone.isFixed()) {
+			// Time zones' offsets are whole seconds, so truncating to the second never depends on the time zone.
+			final long offset = (frequency == SECONDLY) ? 0L : zone.getOffset(0L);
+			final long size = frequency.toMillis();
+			for (int i = 0; i < timestamps.length; i++) {
+				buckets[i] = timestamps[i] - floorMod(timestamps[i] + offset, size);
+			}
+		} else {
+			for (int i = 0; i < timestamps.length; i++) {
+				buckets[i] = calculateBucket(zone, chronology, timestamps[i], frequency);
+			}
+		}
+	}
+
+	private static long calculateBucket(final DateTimeZone zone, final Chronology chronology, final long timestamp, final ShardingFrequency frequency) {
+		final long offset = zone.getOffset(timestamp);
+		final long bucket = timestamp - floorMod(timestamp + offset, frequency.toMillis());
+		// Only fall back to the chronology if a daylight saving time transition happened between the bucket and the timestamp:
+		return (zone.isFixed() || (zone.getOffset(bucket) == offset)) ? bucket : truncate(chronology, timestamp, frequency);
+	}
+
+	static long floorMod(final long dividend, final long divisor) {
+		final long remainder = dividend % divisor;
+		return remainder + ((remainder >> 63) & divisor); // Branch-free: adds divisor only when remainder is negative.
+	}
+
+	private static long truncate(final Chronology chronology, final long timestamp, final ShardingFrequency frequency) {
+		long bucket = timestamp;
 
 		if (frequency.compareTo(SECONDLY) >= 0)
-			dateTime.setMillisOfSecond(0);
+			bucket = chronology.millisOfSecond().set(bucket, 0);
 		if (frequency.compareTo(MINUTELY) >= 0)
-			dateTime.setSecondOfMinute(0);
+			bucket = chronology.secondOfMinute().set(bucket, 0);
 		if (frequency.compareTo(HOURLY) >= 0)
-			dateTime.setMinuteOfHour(0);
+			bucket = chronology.minuteOfHour().set(bucket, 0);
 		if (frequency.compareTo(DAILY) >= 0)
-			dateTime.setHourOfDay(0);
+			bucket = chronology.hourOfDay().set(bucket, 0);
 		if (frequency.compareTo(WEEKLY) >= 0)
-			dateTime.setDayOfWeek(1);
+			bucket = chronology.dayOfWeek().set(bucket, 1);
 		if (frequency.compareTo(MONTHLY) >= 0)
-			dateTime.setDayOfMonth(1);
+			bucket = chronology.dayOfMonth().set(bucket, 1);
 
-		return dateTime.getMillis();
+		return bucket;
 	}
 
 	public static Set<Long> getBuckets(final long from, final long to, final ShardingFrequency frequency) {
 		checkArgument(from <= to, "'To' timestamp must be greater than, or equal to 'from' timestamp: 'from'=[" + from + "], 'to'=[" + to + "].");
 
 		final Set<Long> buckets = new LinkedHashSet<Long>();
-		buckets.add(calculateBucket(from, frequency));
-
-		long timestamp = from + frequency.toMillis();
-		while (timestamp < to) {
-			buckets.add(calculateBucket(timestamp, frequency));
-			timestamp += frequency.toMillis();
+		final long last = calculateBucket(to, frequency);
+		for (long bucket = calculateBucket(from, frequency); bucket < last; bucket = nextBucket(bucket, frequency)) {
+			buckets.add(bucket);
 		}
-
-		buckets.add(calculateBucket(to, frequency));
+		buckets.add(last);
 		return buckets;
 	}
+
+	/**
+	 * Calculate the bucket following the provided one. <br />
+	 * Unlike adding the frequency to the bucket, this never skips nor repeats a bucket, even though days, weeks and months do not all last the same
+	 * time (daylight saving time transitions, months of 28 to 31 days).
+	 * 
+	 * @param bucket
+	 *            bucket, as calculated by {@link #calculateBucket(long, ShardingFrequency)}.
+	 * @param frequency
+	 *            sharding frequency of the bucket.
+	 */
+	public static long nextBucket(final long bucket, final ShardingFrequency frequency) {
+		// Half-way through the next bucket is always within the next bucket, however long each of them actually is:
+		return calculateBucket(bucket + frequency.toMillis() + frequency.toMillis() / 2, frequency);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Online estimate of the sharding frequency of a series, from the actual size and rate of its writes, as opposed to
+ * {@link ShardingFrequency#calculateFrequency(long, long, TimeUnit)} which needs them upfront. <br />
+ * Writes are counted in a sliding window, split in slots of equal duration, the window ending at a given time being made of the slot of this time and
+ * the previous ones. Recording a write is lock-free, and only touches the counters of its slot,
+ * so writers never contend with each other unless they write at the same time. Counters of a slot are reset when it is reused for a later period, and
+ * writes recorded concurrently with the reset may be lost: the estimate is approximate, but never blocks writers. <br />
+ * See {@link #scheduleIfNeeded(ShardingSchedule, long)} to change the frequency of a series when its rows trend over, or well under, their maximum size.
+ */
+public final class ShardingFrequencyEstimator {
+	public static final long DEFAULT_WINDOW_IN_MS = TimeUnit.HOURS.toMillis(1);
+	public static final int DEFAULT_NUM_SLOTS = 60;
+
+	/**
+	 * Rows must be projected to be at most this fraction of their maximum size, at a coarser frequency, before switching to it. Otherwise, the
+	 * frequency would switch back and forth for series whose rows are close to their maximum size.
+	 */
+	private static final double COARSER_FREQUENCY_MAX_FILL_RATIO = 0.5;
+	private static final ShardingFrequency[] FREQUENCIES = ShardingFrequency.values();
+
+	private final long slotInMillis;
+	private final int numSlots;
+	private final long rowMaxSizeInBytes;
+	private final AtomicLongArray periods;
+	private final AtomicLongArray writes;
+	private final AtomicLongArray bytes;
+
+	/**
+	 * Create an estimator over a one-hour window, targeting rows of 10 MB at most.
+	 */
+	public ShardingFrequencyEstimator() {
+		this(DEFAULT_WINDOW_IN_MS, DEFAULT_NUM_SLOTS, ShardingFrequency.ROW_MAX_SIZE);
+	}
+
+	/**
+	 * @param windowInMillis
+	 *            duration, in milliseconds, of the sliding window over which writes are counted.
+	 * @param numSlots
+	 *            number of slots the window is split into. More slots make the window slide more smoothly.
+	 * @param rowMaxSizeInBytes
+	 *            maximum size of a row.
+	 */
+	public ShardingFrequencyEstimator(final long windowInMillis, final int numSlots, final long rowMaxSizeInBytes) {
+		checkArgument(numSlots > 0, "Number of slots must be STRICTLY POSITIVE but was [" + numSlots + "].");
+		checkArgument(windowInMillis >= numSlots, "Window must be at least [" + numSlots + "] ms but was [" + windowInMillis + "].");
+		checkArgument(rowMaxSizeInBytes > 0, "Maximum row size must be STRICTLY POSITIVE but was [" + rowMaxSizeInBytes + "].");
+		this.slotInMillis = windowInMillis / numSlots;
+		this.numSlots = numSlots;
+		this.rowMaxSizeInBytes = rowMaxSizeInBytes;
+		this.periods = new AtomicLongArray(numSlots);
+		this.writes = new AtomicLongArray(numSlots);
+		this.bytes = new AtomicLongArray(numSlots);
+		for (int i = 0; i < numSlots; i++) {
+			periods.set(i, Long.MIN_VALUE);
+		}
+	}
+
+	/**
+	 * Record a write.
+	 * 
+	 * @param timestamp
+	 *            timestamp, in milliseconds, of the write.
+	 * @param sizeInBytes
+	 *            size of the written column, including its name.
+	 */
+	public void record(final long timestamp, final long sizeInBytes) {
+		final long period = periodOf(timestamp);
+		final int slot = (int) ShardingFrequency.floorMod(period, numSlots);
+		long current = periods.get(slot);
+		while (current < period) {
+			if (periods.compareAndSet(slot, current, period)) {
+				writes.set(slot, 0);
+				bytes.set(slot, 0);
+				break;
+			}
+			current = periods.get(slot);
+		}
+		if (periods.get(slot) == period) {
+			writes.incrementAndGet(slot);
+			bytes.addAndGet(slot, sizeInBytes);
+		} // Otherwise, the write is so old that its slot has already been reused for a later period.
+	}
+
+	/**
+	 * @return number of writes recorded in the window ending at the provided timestamp.
+	 */
+	public long getWrites(final long now) {
+		return sum(writes, now);
+	}
+
+	/**
+	 * @return number of bytes recorded in the window ending at the provided timestamp.
+	 */
+	public long getBytes(final long now) {
+		return sum(bytes, now);
+	}
+
+	private long sum(final AtomicLongArray counters, final long now) {
+		final long last = periodOf(now);
+		long sum = 0;
+		for (int i = 0; i < numSlots; i++) {
+			final long period = periods.get(i);
+			if ((period > last - numSlots) && (period <= last))
+				sum += counters.get(i);
+		}
+		return sum;
+	}
+
+	private long periodOf(final long timestamp) {
+		// Rounded down, rather than towards zero, so that timestamps before the epoch also map to slots of the window:
+		return (timestamp - ShardingFrequency.floorMod(timestamp, slotInMillis)) / slotInMillis;
+	}
+
+	/**
+	 * @return the projected size, in bytes, of a row at the provided frequency, at the rate observed in the window ending at the provided timestamp.
+	 */
+	public double projectRowSize(final ShardingFrequency frequency, final long now) {
+		return (double) getBytes(now) / (numSlots * slotInMillis) * frequency.toMillis();
+	}
+
+	/**
+	 * @return the coarsest frequency whose rows would stay under their maximum size, at the rate observed in the window ending at the provided
+	 *         timestamp, {@link ShardingFrequency#SECONDLY} if even its rows would exceed their maximum size, or <code>null</code> if no write was
+	 *         recorded in this window.
+	 */
+	public ShardingFrequency recommend(final long now) {
+		final long bytesInWindow = getBytes(now);
+		if (bytesInWindow == 0)
+			return null;
+		final double rowFillTimeInMillis = (double) rowMaxSizeInBytes * numSlots * slotInMillis / bytesInWindow;
+		// The finest frequency is the best that can be done: recommend it, rather than fail as calculateFrequency() does.
+		if (rowFillTimeInMillis <= ShardingFrequency.SECONDLY.toMillis())
+			return ShardingFrequency.SECONDLY;
+		return ShardingFrequency.fromRowFillTime(rowFillTimeInMillis);
+	}
+
+	/**
+	 * Schedule a change of frequency if rows at the current frequency are projected to exceed their maximum size, or if rows at a coarser frequency are
+	 * projected to stay well under their maximum size. In the latter case, the coarsest such frequency is picked, even if the recommended one is
+	 * projected to be too full. <br />
+	 * Changes are scheduled from the provided timestamp, and only if no change is already pending, atomically, so that several estimators, or threads,
+	 * can share the same schedule.
+	 * 
+	 * @return the timestamp, in milliseconds, from which the new frequency applies, or {@link Long#MIN_VALUE} if the frequency does not need to change.
+	 */
+	public long scheduleIfNeeded(final ShardingSchedule schedule, final long now) {
+		final ShardingFrequency recommended = recommend(now);
+		if (recommended == null)
+			return Long.MIN_VALUE;
+
+		final ShardingFrequency current = schedule.frequencyAt(now);
+		if (recommended.compareTo(current) < 0)
+			return schedule.scheduleIfNoPendingChange(recommended, now);
+
+		// From the recommended frequency down to the first one coarser than the current frequency:
+		for (int i = recommended.ordinal(); i > current.ordinal(); i--) {
+			final ShardingFrequency coarser = FREQUENCIES[i];
+			if (projectRowSize(coarser, now) <= COARSER_FREQUENCY_MAX_FILL_RATIO * rowMaxSizeInBytes)
+				return schedule.scheduleIfNoPendingChange(coarser, now);
+		}
+		return Long.MIN_VALUE;
+	}
+}
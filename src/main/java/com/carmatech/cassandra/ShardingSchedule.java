@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * History of the sharding frequencies of a series: the frequency of the rows can change over time (see {@link ShardingFrequencyEstimator}), and the
+ * schedule records from when each frequency applies, so that buckets can be calculated, and ranges enumerated, across frequency changes. <br />
+ * Changes only take effect at bucket boundaries which guarantee that rows of the new frequency never share a key with rows of the previous frequency.
+ * <br />
+ * The schedule can be saved to, and loaded from, a small text file, with one change per line: <code>&lt;timestamp in ms&gt; &lt;frequency&gt;</code>.
+ * Thread-safe: readers never block, even while a change is being scheduled.
+ */
+public final class ShardingSchedule {
+	private volatile long[] starts; // Timestamps, in milliseconds, from which each frequency applies. The first one is Long.MIN_VALUE.
+	private volatile ShardingFrequency[] frequencies;
+
+	/**
+	 * @param initialFrequency
+	 *            frequency applying until the first change.
+	 */
+	public ShardingSchedule(final ShardingFrequency initialFrequency) {
+		this(new long[] { Long.MIN_VALUE }, new ShardingFrequency[] { initialFrequency });
+	}
+
+	private ShardingSchedule(final long[] starts, final ShardingFrequency[] frequencies) {
+		this.starts = starts;
+		this.frequencies = frequencies;
+	}
+
+	/**
+	 * @return the frequency applying at the provided timestamp.
+	 */
+	public ShardingFrequency frequencyAt(final long timestamp) {
+		final long[] starts = this.starts;
+		final ShardingFrequency[] frequencies = this.frequencies;
+		return frequencies[indexOf(starts, timestamp)];
+	}
+
+	/**
+	 * Calculate the bucket of the provided timestamp, with the frequency applying at this timestamp.
+	 */
+	public long calculateBucket(final long timestamp) {
+		return ShardingFrequency.calculateBucket(timestamp, frequencyAt(timestamp));
+	}
+
+	/**
+	 * Get the buckets between the provided timestamps, even if the frequency changed between them.
+	 * 
+	 * @return Buckets, in time order.
+	 */
+	public Set<Long> getBuckets(final long from, final long to) {
+		checkArgument(from <= to, "'To' timestamp must be greater than, or equal to 'from' timestamp: 'from'=[" + from + "], 'to'=[" + to + "].");
+
+		final long[] starts = this.starts;
+		final ShardingFrequency[] frequencies = this.frequencies;
+		final Set<Long> buckets = new LinkedHashSet<Long>();
+		for (int i = indexOf(starts, from); (i < starts.length) && (starts[i] <= to); i++) {
+			final long end = (i + 1 < starts.length) ? Math.min(to, starts[i + 1] - 1) : to;
+			buckets.addAll(ShardingFrequency.getBuckets(Math.max(from, starts[i]), end, frequencies[i]));
+		}
+		return buckets;
+	}
+
+	/**
+	 * @return the timestamp, in milliseconds, of the last scheduled change, or {@link Long#MIN_VALUE} if the frequency never changed.
+	 */
+	public long getLastChange() {
+		final long[] starts = this.starts;
+		return starts[starts.length - 1];
+	}
+
+	/**
+	 * Schedule a change of frequency, at the earliest bucket boundary at, or after, the provided timestamp, where the change can safely happen.
+	 * 
+	 * @param frequency
+	 *            new frequency.
+	 * @param notBefore
+	 *            timestamp, in milliseconds, before which the change must not happen. Must be after the last scheduled change.
+	 * @return the timestamp, in milliseconds, from which the new frequency applies, or from which it already applied if it is the current frequency.
+	 */
+	public synchronized long schedule(final ShardingFrequency frequency, final long notBefore) {
+		final long lastChange = getLastChange();
+		checkArgument(notBefore > lastChange, "Changes must be scheduled after the last one, at [" + lastChange + "], but was [" + notBefore + "].");
+		final ShardingFrequency current = frequencyAt(notBefore);
+		if (frequency == current)
+			return lastChange;
+
+		final long start = findBoundary(current, frequency, notBefore);
+		final long[] newStarts = Arrays.copyOf(starts, starts.length + 1);
+		final ShardingFrequency[] newFrequencies = Arrays.copyOf(frequencies, frequencies.length + 1);
+		newStarts[newStarts.length - 1] = start;
+		newFrequencies[newFrequencies.length - 1] = frequency;
+		// Readers may momentarily see the new frequencies with the old starts, which is harmless as the old starts are a prefix of the new ones:
+		frequencies = newFrequencies;
+		starts = newStarts;
+		return start;
+	}
+
+	/**
+	 * Schedule a change of frequency, as {@link #schedule(ShardingFrequency, long)} does, unless a change is already pending at the provided timestamp.
+	 * Both are done atomically, so that several threads, or estimators, can share this schedule.
+	 * 
+	 * @param frequency
+	 *            new frequency.
+	 * @param notBefore
+	 *            timestamp, in milliseconds, before which the change must not happen.
+	 * @return the timestamp, in milliseconds, from which the new frequency applies, or from which it already applied if it is the current frequency, or
+	 *         {@link Long#MIN_VALUE} if a change is already scheduled at, or after, <code>notBefore</code>.
+	 */
+	public synchronized long scheduleIfNoPendingChange(final ShardingFrequency frequency, final long notBefore) {
+		if (getLastChange() >= notBefore)
+			return Long.MIN_VALUE;
+		return schedule(frequency, notBefore);
+	}
+
+	/**
+	 * Find the first boundary of the finer of both frequencies, such that the first row of the new frequency is after the last row of the current one.
+	 * Rows of both frequencies can then never have the same key. For example, going from hourly to daily rows waits for midnight, while going from daily
+	 * to hourly rows only waits for the next hour.
+	 */
+	private static long findBoundary(final ShardingFrequency current, final ShardingFrequency next, final long notBefore) {
+		final ShardingFrequency finer = (current.compareTo(next) < 0) ? current : next;
+		long boundary = alignUp(notBefore, finer);
+		while (ShardingFrequency.calculateBucket(boundary, next) <= ShardingFrequency.calculateBucket(boundary - 1, current)) {
+			// No boundary within the same row of the new frequency can be valid either, so skip to its next row:
+			boundary = Math.max(ShardingFrequency.nextBucket(boundary, finer), alignUp(startOfNextBucket(boundary, next), finer));
+		}
+		return boundary;
+	}
+
+	/**
+	 * Find the first timestamp of the bucket following the one of the provided timestamp. <br />
+	 * This is not always the next bucket itself: monthly buckets, for example, only start on the first Monday of their month.
+	 */
+	private static long startOfNextBucket(final long timestamp, final ShardingFrequency frequency) {
+		final long bucket = ShardingFrequency.calculateBucket(timestamp, frequency);
+		// Buckets increase with time, and no bucket lasts twice its frequency, so the start is between both bounds:
+		long low = timestamp;
+		long high = timestamp + 2 * frequency.toMillis();
+		while (high - low > 1) {
+			final long middle = low + (high - low) / 2;
+			if (ShardingFrequency.calculateBucket(middle, frequency) == bucket)
+				low = middle;
+			else
+				high = middle;
+		}
+		return high;
+	}
+
+	private static long alignUp(final long timestamp, final ShardingFrequency frequency) {
+		final long bucket = ShardingFrequency.calculateBucket(timestamp, frequency);
+		return (bucket == timestamp) ? bucket : ShardingFrequency.nextBucket(bucket, frequency);
+	}
+
+	private static int indexOf(final long[] starts, final long timestamp) {
+		int index = Arrays.binarySearch(starts, timestamp);
+		if (index < 0)
+			index = -index - 2; // Last start before the timestamp.
+		return Math.min(index, starts.length - 1);
+	}
+
+	/**
+	 * Save this schedule to the provided file, atomically replacing any previous version of it, as a truncated schedule would silently change buckets.
+	 */
+	public synchronized void save(final File file) throws IOException {
+		final File temporary = new File(file.getPath() + ".tmp");
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+		try {
+			for (int i = 0; i < starts.length; i++) {
+				writer.write(starts[i] + " " + frequencies[i].name() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file)))
+			throw new IOException("Failed to replace [" + file + "] with [" + temporary + "].");
+	}
+
+	/**
+	 * Load a schedule previously saved with {@link #save(File)}.
+	 * 
+	 * @throws IOException
+	 *             if the file is not a valid schedule, or cannot be read.
+	 */
+	public static ShardingSchedule load(final File file) throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			long[] starts = new long[0];
+			ShardingFrequency[] frequencies = new ShardingFrequency[0];
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (line.trim().isEmpty())
+					continue;
+				final String[] fields = line.trim().split("\\s+");
+				try {
+					final long start = Long.parseLong(fields[0]);
+					if ((starts.length == 0) ? (start != Long.MIN_VALUE) : (start <= starts[starts.length - 1]))
+						throw new IOException("Invalid schedule in [" + file + "]: changes must be in time order, and start from [" + Long.MIN_VALUE
+								+ "], but got [" + line + "].");
+					starts = Arrays.copyOf(starts, starts.length + 1);
+					frequencies = Arrays.copyOf(frequencies, frequencies.length + 1);
+					starts[starts.length - 1] = start;
+					frequencies[frequencies.length - 1] = ShardingFrequency.valueOf(fields[1]);
+				} catch (RuntimeException e) {
+					throw new IOException("Invalid schedule in [" + file + "]: [" + line + "].", e);
+				}
+			}
+			if (starts.length == 0)
+				throw new IOException("Invalid schedule in [" + file + "]: no frequency.");
+			return new ShardingSchedule(starts, frequencies);
+		} finally {
+			reader.close();
+		}
+	}
+}
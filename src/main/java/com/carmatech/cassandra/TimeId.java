@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+
+/**
+ * Utilities to generate 64-bit, time-ordered IDs, half the size of time UUIDs, for column names (<code>LongType</code>) or row keys with a very high
+ * cardinality. <br />
+ * Layout, from the most significant bit, which is always 0 so that IDs sort the same way as signed longs:
+ * 
+ * <pre>
+ * [0: 1 bit] [milliseconds since 1970-01-01T00:00Z: 42 bits, until 2109] [node: 9 bits] [sequence: 12 bits]
+ * </pre>
+ * 
+ * Each process can generate up to 4096 IDs per millisecond: beyond that, the sequence overflows into the next millisecond, i.e. IDs run slightly ahead of
+ * the clock, but stay unique and increasing. Generation is lock-free. <br />
+ * Unlike time UUIDs, there is only room for 512 nodes: IDs are only unique across processes if each of them uses a distinct node, which must be set with
+ * {@link #setNode(int)} before generating any ID. There is no default node, as one derived from the host or process would only make collisions between
+ * processes unlikely for a handful of them.
+ */
+public final class TimeId {
+	private TimeId() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	static final int NODE_BITS = 9;
+	static final int SEQUENCE_BITS = 12;
+	private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+	private static final long MAX_TIMESTAMP = (1L << (63 - TIMESTAMP_SHIFT)) - 1;
+	private static final int MAX_NODE = (1 << NODE_BITS) - 1;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	// Timestamp and sequence of the last generated ID, i.e. the ID without its node bits:
+	private static final AtomicLong LAST = new AtomicLong(Long.MIN_VALUE);
+	private static final int NO_NODE = -1;
+	private static volatile int node = NO_NODE;
+
+	/**
+	 * WARNING: Use only for testing purposes, as it may lead to duplicate IDs. Re-initialize the value of the last timestamp seen.
+	 */
+	public static void reset() {
+		LAST.set(Long.MIN_VALUE);
+	}
+
+	/**
+	 * WARNING: Use only for testing purposes. Forget the node set with {@link #setNode(int)}, so that IDs cannot be generated until it is set again.
+	 */
+	static void resetNode() {
+		node = NO_NODE;
+	}
+
+	/**
+	 * Set the node used by all IDs generated from now on. Must be called on startup, before generating any ID.
+	 * 
+	 * @param node
+	 *            node, between 0 and 511, unique to this process among all processes generating IDs for the same column family.
+	 */
+	public static void setNode(final int node) {
+		checkArgument((node >= 0) && (node <= MAX_NODE), "Node must be between 0 and " + MAX_NODE + " but was [" + node + "].");
+		TimeId.node = node;
+	}
+
+	/**
+	 * @return the node used by generated IDs.
+	 * @throws IllegalStateException
+	 *             if the node has not been set with {@link #setNode(int)}.
+	 */
+	public static int getNode() {
+		final int current = node;
+		if (current == NO_NODE)
+			throw new IllegalStateException("Node must be set with TimeId.setNode(int) before generating IDs, so that they are unique across processes.");
+		return current;
+	}
+
+	/**
+	 * Generate a new, unique ID based on current timestamp.
+	 */
+	public static long createId() {
+		return createId(System.currentTimeMillis());
+	}
+
+	/**
+	 * Generate a new, unique ID based on the provided date-time.
+	 * 
+	 * @param dateTime
+	 *            date-time used for the "time" component of the ID.
+	 */
+	public static long createId(final DateTime dateTime) {
+		return createId(dateTime.getMillis());
+	}
+
+	/**
+	 * Generate a new, unique ID based on the provided date.
+	 * 
+	 * @param javaDate
+	 *            date used for the "time" component of the ID.
+	 */
+	public static long createId(final Date javaDate) {
+		return createId(javaDate.getTime());
+	}
+
+	/**
+	 * Generate a new, unique ID based on the provided timestamp. <br />
+	 * If the timestamp is not after the last one used, the ID is made unique by incrementing the sequence of the last ID generated, and, once the sequence
+	 * overflows, its timestamp.
+	 * 
+	 * @param timestamp
+	 *            timestamp used for the "time" component of the ID.
+	 * @throws IllegalStateException
+	 *             if the node has not been set with {@link #setNode(int)}.
+	 */
+	public static long createId(final long timestamp) {
+		final long first = checkTimestamp(timestamp) << SEQUENCE_BITS;
+		// Checked before claiming a sequence, so that failed calls do not push the last ID ahead of the clock:
+		final int node = getNode();
+		while (true) {
+			final long last = LAST.get();
+			final long next = (first > last) ? first : last + 1;
+			if (LAST.compareAndSet(last, next))
+				return withNode(next, node);
+		}
+	}
+
+	/**
+	 * WARNING: returned ID is not unique. Get the ID corresponding to the provided timestamp, the node of this process and a sequence of 0.
+	 * 
+	 * @param timestamp
+	 *            timestamp used for the "time" component of the ID.
+	 */
+	public static long toId(final long timestamp) {
+		return withNode(checkTimestamp(timestamp) << SEQUENCE_BITS, getNode());
+	}
+
+	/**
+	 * Get the lowest possible ID for the provided timestamp. Use it as the inclusive start of a slice query, to get all columns from the provided timestamp.
+	 * 
+	 * @param timestamp
+	 *            timestamp, in milliseconds, used for the "time" component of the ID.
+	 */
+	public static long minId(final long timestamp) {
+		return checkTimestamp(timestamp) << TIMESTAMP_SHIFT;
+	}
+
+	/**
+	 * Get the highest possible ID for the provided timestamp. Use it as the inclusive end of a slice query, to get all columns up to the provided timestamp,
+	 * including all IDs generated within that millisecond.
+	 * 
+	 * @param timestamp
+	 *            timestamp, in milliseconds, used for the "time" component of the ID.
+	 */
+	public static long maxId(final long timestamp) {
+		return minId(timestamp) | ((1L << TIMESTAMP_SHIFT) - 1);
+	}
+
+	/**
+	 * Extract the "time" component of the provided ID.
+	 * 
+	 * @param id
+	 *            ID to extract timestamp from.
+	 * @return Timestamp in milliseconds.
+	 */
+	public static long toMillis(final long id) {
+		return id >>> TIMESTAMP_SHIFT;
+	}
+
+	/**
+	 * Extract the "node" component of the provided ID.
+	 * 
+	 * @param id
+	 *            ID to extract node from.
+	 */
+	public static int toNode(final long id) {
+		return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE);
+	}
+
+	/**
+	 * Get the bucket the provided ID belongs to. Equivalent to <code>ShardingFrequency.calculateBucket(TimeId.toMillis(id), frequency)</code>.
+	 * 
+	 * @param id
+	 *            ID to get the bucket of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @return Bucket, in milliseconds.
+	 */
+	public static long bucketOf(final long id, final ShardingFrequency frequency) {
+		return ShardingFrequency.calculateBucket(toMillis(id), frequency);
+	}
+
+	/**
+	 * Get the bucket of each of the provided IDs.
+	 * 
+	 * @param ids
+	 *            IDs to get the buckets of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @param buckets
+	 *            array where buckets are stored, at the same index as their ID. Must be at least as long as <code>ids</code>, and may be the same array.
+	 */
+	public static void bucketsOf(final long[] ids, final ShardingFrequency frequency, final long[] buckets) {
+		checkArgument(buckets.length >= ids.length, "Output array is too small: expected at least [" + ids.length + "] but was [" + buckets.length + "].");
+		for (int i = 0; i < ids.length; i++) {
+			buckets[i] = toMillis(ids[i]);
+		}
+		ShardingFrequency.calculateBuckets(buckets, frequency, buckets);
+	}
+
+	private static long checkTimestamp(final long timestamp) {
+		if ((timestamp < 0) || (timestamp > MAX_TIMESTAMP))
+			throw new IllegalArgumentException("Timestamp must be between 0 and " + MAX_TIMESTAMP + " but was [" + timestamp + "].");
+		return timestamp;
+	}
+
+	private static long withNode(final long timestampAndSequence, final int node) {
+		final long timestamp = timestampAndSequence >>> SEQUENCE_BITS;
+		return (timestamp << TIMESTAMP_SHIFT) | ((long) node << SEQUENCE_BITS) | (timestampAndSequence & SEQUENCE_MASK);
+	}
+}
@@ -15,26 +15,45 @@
  ******************************************************************************/
 package com.carmatech.cassandra;
 
+import static com.carmatech.cassandra.UUIDTime.from100Ns;
+import static com.carmatech.cassandra.UUIDTime.fromUUIDTime;
+import static com.carmatech.cassandra.UUIDTime.to100Ns;
+import static com.carmatech.cassandra.UUIDTime.toUUIDTime;
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.util.Date;
 import java.util.UUID;
 
 import org.joda.time.DateTime;
 
-import com.eaio.uuid.UUIDGen;
-
 public final class TimeUUID {
 	private TimeUUID() {
 		// Pure utility class, do NOT instantiate.
 	}
 
-	private static final long NUM_100NS_INTERVALS_SINCE_UUID_EPOCH = 0x01b21dd213814000L;
-	private static long lastTimestamp = Long.MIN_VALUE;
+	// Shared with ReverseTimeUUID, so that both encodings never issue the same timestamp twice:
+	static final MonotonicClock CLOCK = new MonotonicClock();
+
+	// Cassandra compares the bytes of the "clock sequence and node" component as signed bytes:
+	static final long MIN_CLOCK_SEQ_AND_NODE = 0x8080808080808080L;
+	static final long MAX_CLOCK_SEQ_AND_NODE = 0x7f7f7f7f7f7f7f7fL;
 
 	/**
 	 * WARNING: Use only for testing purposes, as it may lead to duplicate UUIDs. Re-initialize the value of the last timestamp seen.
 	 */
-	public static synchronized void reset() {
-		lastTimestamp = Long.MIN_VALUE;
+	public static void reset() {
+		CLOCK.reset();
+	}
+
+	/**
+	 * Make generated UUIDs unique across restarts, by resuming from, and periodically persisting to, the provided checkpoint. Should be called on startup,
+	 * before generating any UUID.
+	 * 
+	 * @param checkpoint
+	 *            checkpoint dedicated to this generator, or <code>null</code> to stop persisting timestamps.
+	 */
+	public static void setCheckpoint(final TimestampCheckpoint checkpoint) {
+		CLOCK.setCheckpoint(checkpoint);
 	}
 
 	/**
@@ -72,38 +91,92 @@ public final class TimeUUID {
 	 */
 	public static UUID createUUID(final long timestamp) {
 		final long timestampIn100Ns = to100Ns(timestamp);
-		final long uniqueTimestampIn100Ns = makeUnique(timestampIn100Ns);
-		return new UUID(toUUIDTime(uniqueTimestampIn100Ns), UUIDGen.getClockSeqAndNode());
+		final long uniqueTimestampIn100Ns = CLOCK.makeUnique(timestampIn100Ns);
+		return new UUID(toUUIDTime(uniqueTimestampIn100Ns), NodeProviders.getDefault().getClockSeqAndNode());
 	}
 
-	private static long to100Ns(final long timestampInMs) {
-		return (timestampInMs * 10000) + NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+	/**
+	 * Generate a new, unique UUID based on the provided timestamp, unless the generator already ran ahead of it, e.g. because UUIDs are requested faster
+	 * than one every 100 nanoseconds. Never blocks: callers may instead wait for {@link #getRunAheadMillis()}, e.g. by sleeping, which lets a virtual
+	 * thread unmount from its carrier thread, and try again.
+	 * 
+	 * @param timestamp
+	 *            timestamp used for the "time" component of the UUID.
+	 * @param maxRunAheadMillis
+	 *            how many milliseconds the "time" component of the UUID may be after the provided timestamp.
+	 * @return the UUID, or <code>null</code> if its "time" component would be more than <code>maxRunAheadMillis</code> after the provided timestamp.
+	 */
+	public static UUID tryCreateUUID(final long timestamp, final long maxRunAheadMillis) {
+		checkArgument(maxRunAheadMillis >= 0, "Maximum run-ahead must be POSITIVE but was [" + maxRunAheadMillis + "].");
+		final long uniqueTimestampIn100Ns = CLOCK.tryMakeUnique(to100Ns(timestamp), maxRunAheadMillis * 10000 + 9999);
+		if (uniqueTimestampIn100Ns == Long.MIN_VALUE)
+			return null;
+		return new UUID(toUUIDTime(uniqueTimestampIn100Ns), NodeProviders.getDefault().getClockSeqAndNode());
 	}
 
-	private static synchronized long makeUnique(final long timestamp) {
-		if (timestamp > lastTimestamp) {
-			lastTimestamp = timestamp;
-			return timestamp;
-		} else {
-			return ++lastTimestamp;
-		}
+	/**
+	 * @return how many milliseconds the last generated UUID is ahead of the system clock, i.e. how long to wait for new UUIDs not to run ahead of it, or
+	 *         0 if the generator is not ahead.
+	 */
+	public static long getRunAheadMillis() {
+		final long lastTimestampIn100Ns = CLOCK.getLastTimestamp();
+		if (lastTimestampIn100Ns == Long.MIN_VALUE)
+			return 0;
+		return Math.max(0, from100Ns(lastTimestampIn100Ns) - System.currentTimeMillis());
 	}
 
-	private static long toUUIDTime(final long timestampIn100Ns) {
-		// Example:
-		// Lowest 16 bits and version 1: 0123 4567 89AB CDEF -> 89AB CDEF 0000 0000 -> 89AB CDEF 0000 1000
-		// Middle 32 bits: 0123 4567 89AB CDEF -> 0000 4567 0000 0000 -> 0000 0000 4567 0000 -> 89AB CDEF 4567 1000
-		// Highest 16 bits: 0123 4567 89AB CDEF -> 0123 0000 0000 0000 -> 0000 0000 0000 0123 -> 89AB CDEF 4567 1123
+	/**
+	 * Generate a new, unique UUID based on current timestamp, in place, without allocating any object.
+	 * 
+	 * @param holder
+	 *            holder to fill with the generated UUID.
+	 * @return the provided holder.
+	 */
+	public static MutableTimeUUID generateInto(final MutableTimeUUID holder) {
+		return generateInto(System.currentTimeMillis(), holder);
+	}
+
+	/**
+	 * Generate a new, unique UUID based on the provided timestamp, in place, without allocating any object.
+	 * 
+	 * @param timestamp
+	 *            timestamp used for the "time" component of the UUID.
+	 * @param holder
+	 *            holder to fill with the generated UUID.
+	 * @return the provided holder.
+	 */
+	public static MutableTimeUUID generateInto(final long timestamp, final MutableTimeUUID holder) {
+		final long uniqueTimestampIn100Ns = CLOCK.makeUnique(to100Ns(timestamp));
+		return holder.set(toUUIDTime(uniqueTimestampIn100Ns), NodeProviders.getDefault().getClockSeqAndNode());
+	}
+
+	/**
+	 * Generate new, unique UUIDs based on the provided timestamps, in bulk. <br />
+	 * Equivalent to calling {@link #createUUID(long)} for each timestamp, but only updating the clock guarding uniqueness once.
+	 * 
+	 * @param timestamps
+	 *            timestamps used for the "time" component of the UUIDs.
+	 * @param uuids
+	 *            array where UUIDs are stored, at the same index as their timestamp. Must be at least as long as <code>timestamps</code>.
+	 */
+	public static void createUUIDs(final long[] timestamps, final UUID[] uuids) {
+		checkArgument(uuids.length >= timestamps.length, "Output array is too small: expected at least [" + timestamps.length + "] but was [" + uuids.length
+				+ "].");
+		final long[] timestampsIn100Ns = new long[timestamps.length];
+		for (int i = 0; i < timestamps.length; i++) {
+			timestampsIn100Ns[i] = to100Ns(timestamps[i]);
+		}
+		CLOCK.makeUnique(timestampsIn100Ns);
 
-		long uuidTime = (timestampIn100Ns << 32) | 0x0000000000001000L;
-		uuidTime |= (timestampIn100Ns & 0x0000FFFF00000000L) >>> 16;
-		uuidTime |= (timestampIn100Ns & 0xFFFF000000000000L) >>> 48;
-		return uuidTime;
+		final long clockSeqAndNode = NodeProviders.getDefault().getClockSeqAndNode();
+		for (int i = 0; i < timestamps.length; i++) {
+			uuids[i] = new UUID(toUUIDTime(timestampsIn100Ns[i]), clockSeqAndNode);
+		}
 	}
 
 	/**
-	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided date-time and the clock sequence, which depends on the IP and MAC
-	 * addresses of the current machine, and a random component per process/JVM.
+	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided date-time and the clock sequence and node of the default
+	 * {@link NodeProvider} (by default, based on the MAC address of the current machine and a random component per process/JVM).
 	 * 
 	 * @param dateTime
 	 *            date-time used for the "time" component of the UUID.
@@ -113,8 +186,8 @@ public final class TimeUUID {
 	}
 
 	/**
-	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided date and the clock sequence, which depends on the IP and MAC addresses
-	 * of the current machine, and a random component per process/JVM.
+	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided date and the clock sequence and node of the default
+	 * {@link NodeProvider} (by default, based on the MAC address of the current machine and a random component per process/JVM).
 	 * 
 	 * @param javaDate
 	 *            date used for the "time" component of the UUID.
@@ -124,15 +197,37 @@ public final class TimeUUID {
 	}
 
 	/**
-	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided timestamp and the clock sequence, which depends on the IP and MAC
-	 * addresses of the current machine, and a random component per process/JVM.
+	 * WARNING: returned UUID is not unique. Get the UUID corresponding to the provided timestamp and the clock sequence and node of the default
+	 * {@link NodeProvider} (by default, based on the MAC address of the current machine and a random component per process/JVM).
 	 * 
 	 * @param timestamp
 	 *            timestamp used for the "time" component of the UUID.
 	 */
 	public static UUID toUUID(final long timestamp) {
 		final long timestampIn100Ns = to100Ns(timestamp);
-		return new UUID(toUUIDTime(timestampIn100Ns), UUIDGen.getClockSeqAndNode());
+		return new UUID(toUUIDTime(timestampIn100Ns), NodeProviders.getDefault().getClockSeqAndNode());
+	}
+
+	/**
+	 * Get the lowest possible UUID for the provided timestamp, according to Cassandra's <code>TimeUUIDType</code> ordering. Use it as the inclusive start of
+	 * a slice query, to get all columns from the provided timestamp.
+	 * 
+	 * @param timestamp
+	 *            timestamp, in milliseconds, used for the "time" component of the UUID.
+	 */
+	public static UUID minUUID(final long timestamp) {
+		return new UUID(toUUIDTime(to100Ns(timestamp)), MIN_CLOCK_SEQ_AND_NODE);
+	}
+
+	/**
+	 * Get the highest possible UUID for the provided timestamp, according to Cassandra's <code>TimeUUIDType</code> ordering. Use it as the inclusive end of
+	 * a slice query, to get all columns up to the provided timestamp, including all UUIDs generated within that millisecond.
+	 * 
+	 * @param timestamp
+	 *            timestamp, in milliseconds, used for the "time" component of the UUID.
+	 */
+	public static UUID maxUUID(final long timestamp) {
+		return new UUID(toUUIDTime(to100Ns(timestamp) + 9999), MAX_CLOCK_SEQ_AND_NODE);
 	}
 
 	/**
@@ -146,7 +241,82 @@ public final class TimeUUID {
 		return from100Ns(uuid.timestamp());
 	}
 
-	private static long from100Ns(long timestampIn100Ns) {
-		return (timestampIn100Ns - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH) / 10000;
+	/**
+	 * Extract the "time" component of the provided Johann Burkard's UUID, without converting it to a JDK UUID first.
+	 * 
+	 * @param uuid
+	 *            UUID to extract timestamp from.
+	 * @return Timestamp in milliseconds.
+	 */
+	public static long toMillis(final com.eaio.uuid.UUID uuid) {
+		return UUIDTime.toMillis(uuid.getTime());
+	}
+
+	/**
+	 * Extract the "time" component of all the provided UUIDs, given as their most significant bits (which is also the "time" of Johann Burkard's UUIDs).
+	 * <br />
+	 * Equivalent to calling {@link #toMillis(UUID)} on each UUID, but written as a tight, branch-free loop over primitive arrays, which the JIT compiler can
+	 * unroll, and without allocating any object.
+	 * 
+	 * @param mostSignificantBits
+	 *            most significant bits of the UUIDs to extract timestamps from.
+	 * @param millis
+	 *            array where timestamps in milliseconds are stored, at the same index as their UUID. Must be at least as long as
+	 *            <code>mostSignificantBits</code>, and may be the same array.
+	 */
+	public static void toMillis(final long[] mostSignificantBits, final long[] millis) {
+		checkArgument(millis.length >= mostSignificantBits.length, "Output array is too small: expected at least [" + mostSignificantBits.length
+				+ "] but was [" + millis.length + "].");
+		for (int i = 0; i < mostSignificantBits.length; i++) {
+			millis[i] = from100Ns(fromUUIDTime(mostSignificantBits[i]));
+		}
+	}
+
+	/**
+	 * Get the bucket the provided UUID belongs to, decoding its "time" component and truncating it in one step, without any intermediate object.
+	 * Equivalent to <code>ShardingFrequency.calculateBucket(TimeUUID.toMillis(uuid), frequency)</code>.
+	 * 
+	 * @param uuid
+	 *            UUID to get the bucket of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @return Bucket, in milliseconds.
+	 */
+	public static long bucketOf(final UUID uuid, final ShardingFrequency frequency) {
+		return ShardingFrequency.calculateBucket(UUIDTime.toMillis(uuid.getMostSignificantBits()), frequency);
+	}
+
+	/**
+	 * Get the bucket of each of the provided UUIDs, given as their most significant bits (which is also the "time" of Johann Burkard's UUIDs).
+	 * 
+	 * @param mostSignificantBits
+	 *            most significant bits of the UUIDs to get the buckets of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @param buckets
+	 *            array where buckets are stored, at the same index as their UUID. Must be at least as long as <code>mostSignificantBits</code>, and may be
+	 *            the same array.
+	 */
+	public static void bucketsOf(final long[] mostSignificantBits, final ShardingFrequency frequency, final long[] buckets) {
+		toMillis(mostSignificantBits, buckets);
+		ShardingFrequency.calculateBuckets(buckets, frequency, buckets);
+	}
+
+	/**
+	 * Get the bucket of each of the provided UUIDs.
+	 * 
+	 * @param uuids
+	 *            UUIDs to get the buckets of.
+	 * @param frequency
+	 *            sharding frequency of the buckets.
+	 * @param buckets
+	 *            array where buckets are stored, at the same index as their UUID. Must be at least as long as <code>uuids</code>.
+	 */
+	public static void bucketsOf(final UUID[] uuids, final ShardingFrequency frequency, final long[] buckets) {
+		checkArgument(buckets.length >= uuids.length, "Output array is too small: expected at least [" + uuids.length + "] but was [" + buckets.length + "].");
+		for (int i = 0; i < uuids.length; i++) {
+			buckets[i] = UUIDTime.toMillis(uuids[i].getMostSignificantBits());
+		}
+		ShardingFrequency.calculateBuckets(buckets, frequency, buckets);
 	}
 }
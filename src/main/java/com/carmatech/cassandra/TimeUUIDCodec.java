@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Compact serialization of sequences of time UUIDs (version 1), for indexes, change feeds or blob columns, instead of 16 bytes per UUID. <br />
+ * A block starts with a header holding the "clock sequence and node" component of its first UUID, shared by most UUIDs generated by the same process.
+ * Each UUID is then encoded as the difference between its timestamp and the previous one, as a variable-length integer: 2 to 4 bytes when UUIDs are
+ * generated every few microseconds to every few seconds. UUIDs with a different "clock sequence and node" are followed by their 8 raw bytes. <br />
+ * Sequences do not have to be sorted, but mostly sorted sequences encode best. An empty sequence encodes to an empty block. <br />
+ * Format:
+ * 
+ * <pre>
+ * block  := [version: 1 byte] [shared lsb: 8 bytes] entry*
+ * entry  := varint((zigzag(timestamp delta in 100 ns) << 1) | raw) [lsb: 8 bytes, only if raw]
+ * </pre>
+ */
+public final class TimeUUIDCodec {
+	private TimeUUIDCodec() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	private static final byte FORMAT_VERSION = 1;
+	static final int HEADER_SIZE = 9;
+
+	/**
+	 * Encode the provided UUIDs in a new buffer, ready to be read.
+	 * 
+	 * @param uuids
+	 *            time UUIDs to encode.
+	 */
+	public static ByteBuffer encode(final Iterable<UUID> uuids) {
+		final ByteBuffer out = ByteBuffer.allocate(encodedSize(uuids));
+		final Encoder encoder = new Encoder(out);
+		for (final UUID uuid : uuids) {
+			encoder.write(uuid);
+		}
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * Calculate the exact number of bytes the provided UUIDs encode to.
+	 * 
+	 * @param uuids
+	 *            time UUIDs to encode.
+	 */
+	public static int encodedSize(final Iterable<UUID> uuids) {
+		final Iterator<UUID> iterator = uuids.iterator();
+		if (!iterator.hasNext())
+			return 0;
+
+		UUID uuid = iterator.next();
+		final long sharedLsb = uuid.getLeastSignificantBits();
+		long previous = 0;
+		int size = HEADER_SIZE;
+		while (true) {
+			final long timestamp = timestampOf(uuid);
+			final boolean raw = uuid.getLeastSignificantBits() != sharedLsb;
+			size += varintSize(tag(timestamp - previous, raw)) + (raw ? 8 : 0);
+			previous = timestamp;
+			if (!iterator.hasNext())
+				return size;
+			uuid = iterator.next();
+		}
+	}
+
+	/**
+	 * Decode all the UUIDs of the provided block, from its position to its limit, without modifying its position.
+	 * 
+	 * @param in
+	 *            block of encoded UUIDs.
+	 */
+	public static List<UUID> decode(final ByteBuffer in) {
+		final List<UUID> uuids = new ArrayList<UUID>();
+		final Decoder decoder = new Decoder(in.duplicate());
+		while (decoder.hasNext()) {
+			uuids.add(decoder.next());
+		}
+		return uuids;
+	}
+
+	/**
+	 * Streaming encoder, writing UUIDs one by one, as they come, to a buffer. <br />
+	 * Once the buffer is full, send or store it, and call {@link #reset(ByteBuffer)} to start a new, independent block.
+	 */
+	public static final class Encoder {
+		private ByteBuffer out;
+		private boolean empty;
+		private long sharedLsb;
+		private long previous;
+
+		public Encoder(final ByteBuffer out) {
+			reset(out);
+		}
+
+		/**
+		 * Start a new block in the provided buffer, from its current position.
+		 */
+		public void reset(final ByteBuffer out) {
+			this.out = out;
+			empty = true;
+			previous = 0;
+		}
+
+		/**
+		 * Append the provided UUID to the block.
+		 * 
+		 * @param uuid
+		 *            time UUID to encode.
+		 * @return <code>true</code> if the UUID was written, <code>false</code> if the buffer does not have enough space left, in which case nothing was
+		 *         written.
+		 */
+		public boolean write(final UUID uuid) {
+			final long timestamp = timestampOf(uuid);
+			final long lsb = uuid.getLeastSignificantBits();
+			final int headerSize = empty ? HEADER_SIZE : 0;
+			final boolean raw = !empty && (lsb != sharedLsb);
+			final long tag = tag(timestamp - previous, raw);
+			if (out.remaining() < headerSize + varintSize(tag) + (raw ? 8 : 0))
+				return false;
+
+			if (empty) {
+				out.put(FORMAT_VERSION);
+				out.putLong(lsb);
+				sharedLsb = lsb;
+				empty = false;
+			}
+			writeVarint(out, tag);
+			if (raw)
+				out.putLong(lsb);
+			previous = timestamp;
+			return true;
+		}
+	}
+
+	/**
+	 * Streaming decoder, reading UUIDs one by one from the provided block, from its position to its limit, and moving its position along.
+	 */
+	public static final class Decoder extends AbstractIterator<UUID> {
+		private final ByteBuffer in;
+		private long sharedLsb;
+		private long previous;
+
+		public Decoder(final ByteBuffer in) {
+			this.in = in;
+			if (in.hasRemaining()) {
+				final byte version = in.get();
+				checkArgument(version == FORMAT_VERSION, "Unsupported format version: expected [" + FORMAT_VERSION + "] but was [" + version + "].");
+				sharedLsb = in.getLong();
+			}
+		}
+
+		@Override
+		protected UUID computeNext() {
+			if (!in.hasRemaining())
+				return endOfData();
+
+			final long tag = readVarint(in);
+			final long delta = (tag >>> 2) ^ -((tag >>> 1) & 1); // Zigzag decoding.
+			final long timestamp = previous + delta;
+			final long lsb = ((tag & 1) == 1) ? in.getLong() : sharedLsb;
+			previous = timestamp;
+			return new UUID(UUIDTime.toUUIDTime(timestamp), lsb);
+		}
+	}
+
+	private static long timestampOf(final UUID uuid) {
+		checkArgument(uuid.version() == 1, "UUID must be a time UUID (version 1) but was [" + uuid + "].");
+		return UUIDTime.fromUUIDTime(uuid.getMostSignificantBits());
+	}
+
+	private static long tag(final long delta, final boolean raw) {
+		// Zigzag encoding keeps small negative deltas, of UUIDs slightly out of order, small:
+		final long zigzag = (delta << 1) ^ (delta >> 63);
+		return (zigzag << 1) | (raw ? 1 : 0);
+	}
+
+	static int varintSize(final long value) {
+		int size = 1;
+		for (long remaining = value >>> 7; remaining != 0; remaining >>>= 7) {
+			++size;
+		}
+		return size;
+	}
+
+	static void writeVarint(final ByteBuffer out, final long value) {
+		long remaining = value;
+		while ((remaining & ~0x7FL) != 0) {
+			out.put((byte) ((remaining & 0x7F) | 0x80));
+			remaining >>>= 7;
+		}
+		out.put((byte) remaining);
+	}
+
+	static long readVarint(final ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed variable-length integer: more than 10 bytes.");
+	}
+}
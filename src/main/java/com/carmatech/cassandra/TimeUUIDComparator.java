@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Orders UUIDs the same way as Cassandra's <code>TimeUUIDType</code>: by timestamp first, then by their bytes compared as signed bytes. <br />
+ * Unlike {@link UUID#compareTo(UUID)}, this is consistent with the order of columns returned by slice queries.
+ */
+public final class TimeUUIDComparator implements Comparator<UUID> {
+	public static final TimeUUIDComparator INSTANCE = new TimeUUIDComparator();
+
+	// Flipping these bits turns a byte-wise comparison of signed bytes into a comparison of signed longs:
+	private static final long SIGNED_BYTES_TO_SIGNED_LONG = 0x0080808080808080L;
+
+	private TimeUUIDComparator() {
+		// Stateless, use INSTANCE.
+	}
+
+	@Override
+	public int compare(final UUID first, final UUID second) {
+		final int result = compare(UUIDTime.fromUUIDTime(first.getMostSignificantBits()), UUIDTime.fromUUIDTime(second.getMostSignificantBits()));
+		if (result != 0)
+			return result;
+		return compare(first.getLeastSignificantBits() ^ SIGNED_BYTES_TO_SIGNED_LONG, second.getLeastSignificantBits() ^ SIGNED_BYTES_TO_SIGNED_LONG);
+	}
+
+	private static int compare(final long first, final long second) {
+		return (first < second) ? -1 : ((first == second) ? 0 : 1);
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Durable high-water mark of the timestamps issued by a UUID generator, stored in a small memory-mapped file. <br />
+ * Generators reserve timestamps ahead of time, in chunks (one second by default), and write the new high-water mark to the file from a background
+ * thread, once half of a chunk is used. On startup, generators resume from the persisted high-water mark, so that UUIDs generated before a restart
+ * are never generated again, even if the system clock went backwards. <br />
+ * A checkpoint file must only be used by one generator at a time: see {@link TimeUUID#setCheckpoint(TimestampCheckpoint)} and
+ * {@link CorbaTimeUUID#setCheckpoint(TimestampCheckpoint)}.
+ */
+public final class TimestampCheckpoint implements Closeable {
+	public static final long DEFAULT_RESERVE_AHEAD_IN_MS = 1000L;
+
+	private static final long MAGIC = 0x54555549445F4857L; // "TUUID_HW"
+	private static final int MAGIC_OFFSET = 0;
+	private static final int HIGH_WATER_MARK_OFFSET = 8;
+	private static final int FILE_SIZE = 16;
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileLock lock;
+	private final MappedByteBuffer buffer;
+	private final long reserveAheadIn100Ns;
+	// Not a monitor, so that virtual threads writing to the file do not pin their carrier thread:
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private volatile long highWaterMark;
+
+	private TimestampCheckpoint(final File file, final RandomAccessFile randomAccessFile, final FileLock lock, final MappedByteBuffer buffer,
+			final long reserveAheadIn100Ns) {
+		this.file = file;
+		this.randomAccessFile = randomAccessFile;
+		this.lock = lock;
+		this.buffer = buffer;
+		this.reserveAheadIn100Ns = reserveAheadIn100Ns;
+		this.highWaterMark = buffer.getLong(HIGH_WATER_MARK_OFFSET);
+	}
+
+	/**
+	 * Open, or create if it does not exist yet, the provided checkpoint file, reserving timestamps one second ahead.
+	 * 
+	 * @param file
+	 *            checkpoint file.
+	 * @throws IOException
+	 *             if the file is not a checkpoint file, or is already used by another process, or cannot be read or written.
+	 */
+	public static TimestampCheckpoint open(final File file) throws IOException {
+		return open(file, DEFAULT_RESERVE_AHEAD_IN_MS);
+	}
+
+	/**
+	 * Open, or create if it does not exist yet, the provided checkpoint file.
+	 * 
+	 * @param file
+	 *            checkpoint file.
+	 * @param reserveAheadInMillis
+	 *            how far ahead, in milliseconds, timestamps are reserved every time the file is written. Larger values mean fewer writes, but generators
+	 *            running further ahead of the system clock after a restart.
+	 * @throws IOException
+	 *             if the file is not a checkpoint file, or is already used by another process, or cannot be read or written.
+	 */
+	public static TimestampCheckpoint open(final File file, final long reserveAheadInMillis) throws IOException {
+		checkArgument(reserveAheadInMillis > 0, "Reserve-ahead duration must be STRICTLY POSITIVE but was [" + reserveAheadInMillis + "].");
+
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final FileLock lock = tryLock(channel, file);
+			final boolean isNew = (channel.size() == 0);
+			if (!isNew && (channel.size() != FILE_SIZE))
+				throw new IOException("Invalid checkpoint file [" + file + "]: expected " + FILE_SIZE + " bytes but was " + channel.size() + ".");
+
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+			if (isNew) {
+				buffer.putLong(MAGIC_OFFSET, MAGIC);
+				buffer.putLong(HIGH_WATER_MARK_OFFSET, Long.MIN_VALUE);
+				buffer.force();
+			} else if (buffer.getLong(MAGIC_OFFSET) != MAGIC) {
+				throw new IOException("Invalid checkpoint file [" + file + "]: unexpected header.");
+			}
+			return new TimestampCheckpoint(file, randomAccessFile, lock, buffer, reserveAheadInMillis * 10000);
+		} catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		} catch (RuntimeException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+	private static FileLock tryLock(final FileChannel channel, final File file) throws IOException {
+		try {
+			final FileLock lock = channel.tryLock();
+			if (lock == null)
+				throw new IOException("Checkpoint file [" + file + "] is already used by another process.");
+			return lock;
+		} catch (OverlappingFileLockException e) {
+			throw new IOException("Checkpoint file [" + file + "] is already used in this process.");
+		}
+	}
+
+	/**
+	 * @return the timestamp, in 100s of nanoseconds since the UUID epoch, all issued timestamps are strictly lower than, or {@link Long#MIN_VALUE} if no
+	 *         timestamp was ever reserved.
+	 */
+	public long getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	long getReserveAheadIn100Ns() {
+		return reserveAheadIn100Ns;
+	}
+
+	/**
+	 * Reserve all timestamps up to the provided one, and a chunk beyond it, and durably store the new high-water mark.
+	 * 
+	 * @param timestampIn100Ns
+	 *            timestamp about to be issued.
+	 * @return the new high-water mark.
+	 */
+	long reserve(final long timestampIn100Ns) {
+		writeLock.lock();
+		try {
+			final long newHighWaterMark = timestampIn100Ns + reserveAheadIn100Ns;
+			if (newHighWaterMark > highWaterMark) {
+				buffer.putLong(HIGH_WATER_MARK_OFFSET, newHighWaterMark);
+				buffer.force();
+				highWaterMark = newHighWaterMark;
+			}
+			return highWaterMark;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Release the lock on the checkpoint file. Generators using this checkpoint must not generate any further UUID.
+	 */
+	@Override
+	public void close() throws IOException {
+		writeLock.lock();
+		try {
+			try {
+				buffer.force();
+				lock.release();
+			} finally {
+				randomAccessFile.close();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TimestampCheckpoint[" + file + "]";
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import me.prettyprint.hector.api.Serializer;
+
+/**
+ * Local description of a Cassandra ring, i.e. the tokens of its nodes (one or several per node, with virtual nodes), to know which node owns the row of
+ * a given bucket without asking the cluster. <br />
+ * As in Cassandra, each node owns the range of tokens from the previous token of the ring, excluded, to its own token, included; the first node also
+ * owns the tokens after the last one, as the ring wraps around. <br />
+ * Grouping the buckets of a range by owner (see {@link #groupByEndpoint(Object, Iterable, RowKeyBuilder)}) allows queries to be sent to their owner directly, batched
+ * per node, and parallel scans to spread their load evenly across nodes.
+ */
+public final class TokenRing {
+	private final Partitioner partitioner;
+	private final NavigableMap<BigInteger, String> endpoints;
+
+	/**
+	 * @param partitioner
+	 *            partitioner of the cluster.
+	 * @param endpoints
+	 *            endpoint (e.g. the address of the node) owning each token of the ring, as reported by <code>nodetool ring</code>.
+	 */
+	public TokenRing(final Partitioner partitioner, final Map<BigInteger, String> endpoints) {
+		checkArgument(!endpoints.isEmpty(), "Ring must have at least one token.");
+		this.partitioner = partitioner;
+		this.endpoints = new TreeMap<BigInteger, String>(endpoints);
+	}
+
+	/**
+	 * @return the endpoint owning the provided token.
+	 */
+	public String getEndpoint(final BigInteger token) {
+		final Map.Entry<BigInteger, String> owner = endpoints.ceilingEntry(token);
+		return (owner == null) ? endpoints.firstEntry().getValue() : owner.getValue();
+	}
+
+	/**
+	 * @return the endpoint owning the provided row key.
+	 */
+	public String getEndpoint(final ByteBuffer key) {
+		return getEndpoint(partitioner.getToken(key));
+	}
+
+	/**
+	 * Group the provided buckets of a series by the endpoint owning their row.
+	 * 
+	 * @param series
+	 *            series of the rows.
+	 * @param buckets
+	 *            buckets to group, e.g. as returned by {@link ShardingFrequency#getBuckets(long, long, ShardingFrequency)}.
+	 * @param rowKeyBuilder
+	 *            builder of the serialized key of the row of a given series and bucket, e.g. as returned by
+	 *            {@link #serializedRowKeys(RowKeyBuilder, Serializer)}.
+	 * @return Buckets of each endpoint, in the order they were provided. Endpoints are in the order of their first bucket.
+	 */
+	public <S> Map<String, List<Long>> groupByEndpoint(final S series, final Iterable<Long> buckets,
+			final RowKeyBuilder<? super S, ByteBuffer> rowKeyBuilder) {
+		final Map<String, List<Long>> groups = new LinkedHashMap<String, List<Long>>();
+		for (final Long bucket : buckets) {
+			final String endpoint = getEndpoint(rowKeyBuilder.toRowKey(series, bucket));
+			List<Long> group = groups.get(endpoint);
+			if (group == null) {
+				group = new ArrayList<Long>();
+				groups.put(endpoint, group);
+			}
+			group.add(bucket);
+		}
+		return groups;
+	}
+
+	/**
+	 * @return builder serializing the keys built by the provided builder, e.g. the row key builder of a {@link HectorBucketQueryExecutor}.
+	 */
+	public static <S, K> RowKeyBuilder<S, ByteBuffer> serializedRowKeys(final RowKeyBuilder<S, K> rowKeyBuilder, final Serializer<K> keySerializer) {
+		return new RowKeyBuilder<S, ByteBuffer>() {
+			@Override
+			public ByteBuffer toRowKey(final S series, final long bucket) {
+				return keySerializer.toByteBuffer(rowKeyBuilder.toRowKey(series, bucket));
+			}
+		};
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Conversions between JDK's UUIDs and Johann Burkard's UUIDs. <br />
+ * Both families share the exact same binary layout ("time" == most significant bits, "clock sequence and node" == least significant bits), so
+ * conversions are direct copies of the two longs, without any round-trip through a string.
+ */
+public final class UUIDConverter {
+	private UUIDConverter() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	/**
+	 * Convert the provided Johann Burkard's UUID to the equivalent JDK's UUID.
+	 * 
+	 * @param uuid
+	 *            UUID to convert.
+	 */
+	public static java.util.UUID toJavaUUID(final com.eaio.uuid.UUID uuid) {
+		return new java.util.UUID(uuid.getTime(), uuid.getClockSeqAndNode());
+	}
+
+	/**
+	 * Convert the provided JDK's UUID to the equivalent Johann Burkard's UUID.
+	 * 
+	 * @param uuid
+	 *            UUID to convert.
+	 */
+	public static com.eaio.uuid.UUID toCorbaUUID(final java.util.UUID uuid) {
+		return new com.eaio.uuid.UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+
+	/**
+	 * Convert all the provided Johann Burkard's UUIDs to the equivalent JDK's UUIDs.
+	 * 
+	 * @param uuids
+	 *            UUIDs to convert.
+	 * @return a new array containing the converted UUIDs, in the same order.
+	 */
+	public static java.util.UUID[] toJavaUUIDs(final com.eaio.uuid.UUID[] uuids) {
+		final java.util.UUID[] javaUuids = new java.util.UUID[uuids.length];
+		toJavaUUIDs(uuids, javaUuids);
+		return javaUuids;
+	}
+
+	/**
+	 * Convert all the provided Johann Burkard's UUIDs to the equivalent JDK's UUIDs, and store them in the provided array.
+	 * 
+	 * @param uuids
+	 *            UUIDs to convert.
+	 * @param javaUuids
+	 *            array where converted UUIDs are stored, at the same index as their source. Must be at least as long as <code>uuids</code>.
+	 */
+	public static void toJavaUUIDs(final com.eaio.uuid.UUID[] uuids, final java.util.UUID[] javaUuids) {
+		checkArgument(javaUuids.length >= uuids.length, "Output array is too small: expected at least [" + uuids.length + "] but was [" + javaUuids.length
+				+ "].");
+		for (int i = 0; i < uuids.length; i++) {
+			javaUuids[i] = new java.util.UUID(uuids[i].getTime(), uuids[i].getClockSeqAndNode());
+		}
+	}
+
+	/**
+	 * Convert all the provided JDK's UUIDs to the equivalent Johann Burkard's UUIDs.
+	 * 
+	 * @param uuids
+	 *            UUIDs to convert.
+	 * @return a new array containing the converted UUIDs, in the same order.
+	 */
+	public static com.eaio.uuid.UUID[] toCorbaUUIDs(final java.util.UUID[] uuids) {
+		final com.eaio.uuid.UUID[] corbaUuids = new com.eaio.uuid.UUID[uuids.length];
+		toCorbaUUIDs(uuids, corbaUuids);
+		return corbaUuids;
+	}
+
+	/**
+	 * Convert all the provided JDK's UUIDs to the equivalent Johann Burkard's UUIDs, and store them in the provided array.
+	 * 
+	 * @param uuids
+	 *            UUIDs to convert.
+	 * @param corbaUuids
+	 *            array where converted UUIDs are stored, at the same index as their source. Must be at least as long as <code>uuids</code>.
+	 */
+	public static void toCorbaUUIDs(final java.util.UUID[] uuids, final com.eaio.uuid.UUID[] corbaUuids) {
+		checkArgument(corbaUuids.length >= uuids.length, "Output array is too small: expected at least [" + uuids.length + "] but was [" + corbaUuids.length
+				+ "].");
+		for (int i = 0; i < uuids.length; i++) {
+			corbaUuids[i] = new com.eaio.uuid.UUID(uuids[i].getMostSignificantBits(), uuids[i].getLeastSignificantBits());
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * Encoding and decoding of the "time" component (i.e. most significant bits) of version 1 UUIDs, shared by {@link TimeUUID} and {@link CorbaTimeUUID}.
+ * <br />
+ * Both {@link java.util.UUID#getMostSignificantBits()} and {@link com.eaio.uuid.UUID#getTime()} use the exact same layout, so the below methods work on
+ * either UUID family.
+ */
+final class UUIDTime {
+	private UUIDTime() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	static final long NUM_100NS_INTERVALS_SINCE_UUID_EPOCH = 0x01b21dd213814000L;
+
+	static long to100Ns(final long timestampInMs) {
+		return (timestampInMs * 10000) + NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+	}
+
+	static long from100Ns(final long timestampIn100Ns) {
+		return (timestampIn100Ns - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH) / 10000;
+	}
+
+	static long toUUIDTime(final long timestampIn100Ns) {
+		// Example:
+		// Lowest 16 bits and version 1: 0123 4567 89AB CDEF -> 89AB CDEF 0000 0000 -> 89AB CDEF 0000 1000
+		// Middle 32 bits: 0123 4567 89AB CDEF -> 0000 4567 0000 0000 -> 0000 0000 4567 0000 -> 89AB CDEF 4567 1000
+		// Highest 16 bits: 0123 4567 89AB CDEF -> 0123 0000 0000 0000 -> 0000 0000 0000 0123 -> 89AB CDEF 4567 1123
+
+		long uuidTime = (timestampIn100Ns << 32) | 0x0000000000001000L;
+		uuidTime |= (timestampIn100Ns & 0x0000FFFF00000000L) >>> 16;
+		uuidTime |= (timestampIn100Ns & 0xFFFF000000000000L) >>> 48;
+		return uuidTime;
+	}
+
+	static long fromUUIDTime(final long uuidTime) {
+		// Example:
+		// Lowest 16 bits: 89AB CDEF 4567 1123 -> 0000 0000 89AB CDEF
+		// Middle 32 bits: 89AB CDEF 4567 1123 -> 0000 0000 4567 0000 -> 0000 4567 0000 0000 -> 0000 4567 89AB CDEF
+		// Highest 16 bits and version 1: 89AB CDEF 4567 1123 -> 0000 0000 0000 0123 -> 0123 0000 0000 0000 -> 0123 4567 89AB CDEF
+
+		long timestampIn100Ns = uuidTime >>> 32;
+		timestampIn100Ns |= (uuidTime & 0x00000000FFFF0000L) << 16;
+		timestampIn100Ns |= (uuidTime & 0x0000000000000FFFL) << 48;
+		return timestampIn100Ns;
+	}
+
+	static long toMillis(final long uuidTime) {
+		return from100Ns(fromUUIDTime(uuidTime));
+	}
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+/**
+ * Estimates the size of a column, e.g. its memory footprint in a {@link ClosedBucketCache}, or the bytes it adds to a row monitored by a
+ * {@link RowSizeMonitor}.
+ * 
+ * @param <T>
+ *            type of the columns.
+ */
+public interface Weigher<T> {
+	/**
+	 * @return approximate size, in bytes, of the provided column.
+	 */
+	long weigh(T column);
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class BucketAggregatorTest {
+	private static final long FROM = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+	private static final long MINUTE = 60 * 1000L;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+
+	private final Map<Long, RollupAggregate> emitted = new LinkedHashMap<Long, RollupAggregate>();
+	private final List<Long> emittedTwice = new ArrayList<Long>();
+	private final BucketAggregator.Listener listener = new BucketAggregator.Listener() {
+		@Override
+		public void onBucket(final long bucket, final RollupAggregate aggregate) {
+			synchronized (emitted) {
+				if (emitted.put(bucket, aggregate) != null)
+					emittedTwice.add(bucket);
+			}
+		}
+	};
+
+	@Test
+	public void bucketShouldBeEmittedOnceWatermarkPassesItsEnd() {
+		BucketAggregator aggregator = new BucketAggregator(ShardingFrequency.HOURLY, 0, listener);
+		long hour = ShardingFrequency.calculateBucket(FROM, ShardingFrequency.HOURLY);
+		aggregator.add(hour, 1);
+		aggregator.add(hour + 10 * MINUTE, 5);
+		aggregator.add(hour + HOUR - 1, -2);
+		aggregator.add(hour + HOUR, 42);
+
+		aggregator.advanceWatermark(hour + HOUR - 1);
+		assertThat(emitted.isEmpty(), is(true));
+
+		aggregator.advanceWatermark(hour + HOUR);
+		assertThat(emitted.size(), is(1));
+		assertThat(emitted.get(hour), is(new RollupAggregate(3, 4, -2, 5)));
+
+		aggregator.advanceWatermark(hour + 3 * HOUR);
+		assertThat(emitted.size(), is(2));
+		assertThat(emitted.get(hour + HOUR), is(new RollupAggregate(1, 42, 42, 42)));
+		assertThat(aggregator.getWatermark(), is(hour + 3 * HOUR));
+	}
+
+	@Test
+	public void lateEventsShouldBeAcceptedUntilAllowedLatenessThenDropped() {
+		BucketAggregator aggregator = new BucketAggregator(ShardingFrequency.HOURLY, 10 * MINUTE, listener);
+		long hour = ShardingFrequency.calculateBucket(FROM, ShardingFrequency.HOURLY);
+		aggregator.add(hour, 1);
+
+		aggregator.advanceWatermark(hour + HOUR + 5 * MINUTE);
+		assertThat(aggregator.add(hour + 30 * MINUTE, 2), is(true));
+		assertThat(emitted.isEmpty(), is(true));
+
+		aggregator.advanceWatermark(hour + HOUR + 10 * MINUTE);
+		assertThat(aggregator.add(hour + 30 * MINUTE, 3), is(false));
+		assertThat(aggregator.getDroppedCount(), is(1L));
+		assertThat(emitted.get(hour), is(new RollupAggregate(2, 3, 1, 2)));
+
+		aggregator.advanceWatermark(hour); // Watermarks never go backwards.
+		assertThat(aggregator.getWatermark(), is(hour + HOUR + 10 * MINUTE));
+	}
+
+	@Test
+	public void monthlyBucketShouldOnlyBeCompleteOnceItReallyEnds() {
+		BucketAggregator aggregator = new BucketAggregator(ShardingFrequency.MONTHLY, 0, listener);
+		aggregator.add(FROM, 1);
+
+		// Saturday 1st of June 2013 still belongs to May's bucket, which ends on the first Monday of June:
+		long may = ShardingFrequency.calculateBucket(FROM - 10 * DAY, ShardingFrequency.MONTHLY);
+		aggregator.add(FROM - 4 * DAY - 12 * HOUR, 2);
+		assertThat(ShardingFrequency.calculateBucket(FROM - 4 * DAY - 12 * HOUR, ShardingFrequency.MONTHLY), is(may));
+
+		aggregator.advanceWatermark(FROM - 3 * DAY);
+		assertThat(emitted.isEmpty(), is(true));
+
+		aggregator.advanceWatermark(FROM - DAY);
+		assertThat(emitted.keySet().iterator().next(), is(may));
+		assertThat(emitted.get(may), is(new RollupAggregate(1, 2, 2, 2)));
+	}
+
+	@Test
+	public void aggregatesShouldBeSameAsAggregatingEveryValueAcrossStripesAndGrowth() {
+		BucketAggregator aggregator = new BucketAggregator(ShardingFrequency.MINUTELY, 0, 4, listener);
+		Map<Long, RollupAggregate> expected = new TreeMap<Long, RollupAggregate>();
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			long timestamp = FROM + (long) (random.nextDouble() * 2 * DAY);
+			double value = random.nextGaussian() * 100;
+			aggregator.add(timestamp, value);
+			long bucket = ShardingFrequency.calculateBucket(timestamp, ShardingFrequency.MINUTELY);
+			if (!expected.containsKey(bucket))
+				expected.put(bucket, new RollupAggregate());
+			expected.get(bucket).add(value);
+		}
+
+		aggregator.advanceWatermark(FROM + DAY);
+		aggregator.flush();
+
+		assertThat(emitted.keySet(), is(expected.keySet()));
+		assertThat(emittedTwice.isEmpty(), is(true));
+		for (Map.Entry<Long, RollupAggregate> entry : expected.entrySet()) {
+			RollupAggregate actual = emitted.get(entry.getKey());
+			assertThat(actual.getCount(), is(entry.getValue().getCount()));
+			assertThat(actual.getSum(), is(closeTo(entry.getValue().getSum(), 1e-9)));
+			assertThat(actual.getMin(), is(entry.getValue().getMin()));
+			assertThat(actual.getMax(), is(entry.getValue().getMax()));
+		}
+	}
+
+	@Test
+	public void concurrentEventsShouldEachBeEmittedOnceOrDropped() throws InterruptedException {
+		final BucketAggregator aggregator = new BucketAggregator(ShardingFrequency.SECONDLY, 0, 2, listener);
+		final int numThreads = 4;
+		final int numEvents = 100000;
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int i = 0; i < numThreads; i++) {
+			final long seed = i;
+			writers.add(new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					for (int j = 0; j < numEvents; j++) {
+						// Mostly in order, with some events up to 2 seconds late:
+						aggregator.add(FROM + j - random.nextInt(2000), 1);
+					}
+				}
+			});
+		}
+		Thread watermarks = new Thread() {
+			@Override
+			public void run() {
+				while (running.get()) {
+					aggregator.advanceWatermark(FROM + (long) (Math.random() * numEvents));
+				}
+			}
+		};
+		watermarks.start();
+		for (Thread writer : writers) {
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		running.set(false);
+		watermarks.join();
+		aggregator.advanceWatermark(FROM + numEvents + 1000);
+
+		long count = 0;
+		for (RollupAggregate aggregate : emitted.values()) {
+			count += aggregate.getCount();
+		}
+		assertThat(count + aggregator.getDroppedCount(), is((long) numThreads * numEvents));
+		assertThat(emittedTwice.isEmpty(), is(true));
+	}
+
+	@Test
+	public void eventsAddedWhileFlushingShouldNeverBeDropped() throws InterruptedException {
+		final AtomicLong emittedCount = new AtomicLong();
+		final BucketAggregator aggregator = new BucketAggregator(ShardingFrequency.SECONDLY, 0, 2, new BucketAggregator.Listener() {
+			@Override
+			public void onBucket(final long bucket, final RollupAggregate aggregate) {
+				emittedCount.addAndGet(aggregate.getCount());
+				Thread.yield(); // Slow listener, e.g. writing to Cassandra.
+			}
+		});
+		final int numThreads = 4;
+		final int numEvents = 100000;
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int i = 0; i < numThreads; i++) {
+			writers.add(new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < numEvents; j++) {
+						aggregator.add(FROM + j, 1);
+					}
+				}
+			});
+		}
+		Thread flusher = new Thread() {
+			@Override
+			public void run() {
+				while (running.get()) {
+					aggregator.flush();
+				}
+			}
+		};
+		flusher.start();
+		for (Thread writer : writers) {
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		running.set(false);
+		flusher.join();
+		aggregator.flush();
+
+		assertThat(aggregator.getDroppedCount(), is(0L));
+		assertThat(emittedCount.get(), is((long) numThreads * numEvents));
+	}
+
+	@Test
+	public void storeListenerShouldMergeAggregatesIntoStore() {
+		InMemoryRollupStore store = new InMemoryRollupStore();
+		BucketAggregator aggregator = new BucketAggregator(ShardingFrequency.HOURLY, 0,
+				BucketAggregator.storeIn(store, "series", ShardingFrequency.HOURLY));
+		long hour = ShardingFrequency.calculateBucket(FROM, ShardingFrequency.HOURLY);
+		aggregator.add(hour, 1);
+		aggregator.add(hour + 1, 2);
+
+		aggregator.flush();
+
+		assertThat(store.get("series", ShardingFrequency.HOURLY, hour), is(new RollupAggregate(2, 3, 1, 2)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeLatenessShouldBeRejected() {
+		new BucketAggregator(ShardingFrequency.HOURLY, -1, listener);
+	}
+}
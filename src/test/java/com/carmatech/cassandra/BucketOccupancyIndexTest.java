@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BucketOccupancyIndexTest {
+	private static final long FROM = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+	private static final long YEAR = 365 * 24 * 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void getBucketsShouldOnlyReturnBucketsWrittenTo() {
+		BucketOccupancyIndex index = new BucketOccupancyIndex(ShardingFrequency.HOURLY);
+		List<Long> written = new ArrayList<Long>();
+		for (long timestamp : Arrays.asList(FROM, FROM + 42 * 60 * 60 * 1000L, FROM + YEAR / 2)) {
+			long bucket = ShardingFrequency.calculateBucket(timestamp, ShardingFrequency.HOURLY);
+			index.add("sensor42", bucket);
+			written.add(bucket);
+		}
+		index.add("sensor43", ShardingFrequency.calculateBucket(FROM + YEAR / 4, ShardingFrequency.HOURLY));
+
+		assertThat(index.getBuckets("sensor42", FROM, FROM + YEAR), is(written));
+		assertThat(index.getBuckets("sensor42", FROM + 1000L, FROM + 1000L), is(written.subList(0, 1)));
+		assertThat(index.getBuckets("sensor44", FROM, FROM + YEAR).isEmpty(), is(true));
+	}
+
+	@Test
+	public void getBucketsShouldReturnBucketsWrittenToForAnyOfTheSeries() {
+		BucketOccupancyIndex index = new BucketOccupancyIndex(ShardingFrequency.DAILY);
+		long first = ShardingFrequency.calculateBucket(FROM, ShardingFrequency.DAILY);
+		long second = ShardingFrequency.calculateBucket(FROM + YEAR / 2, ShardingFrequency.DAILY);
+		index.add("sensor42", second);
+		index.add("sensor43", first);
+		index.add("sensor43", second);
+
+		assertThat(index.getBuckets(Arrays.asList("sensor42", "sensor43"), FROM, FROM + YEAR), is(Arrays.asList(first, second)));
+	}
+
+	@Test
+	public void everyBucketShouldHaveItsOwnIndex() {
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			long to = FROM + frequency.toMillis() * 2000;
+			BucketOccupancyIndex index = new BucketOccupancyIndex(frequency);
+			List<Long> written = new ArrayList<Long>();
+			boolean write = true;
+			for (long bucket : ShardingFrequency.getBuckets(FROM, to, frequency)) {
+				if (write) {
+					index.add("series", bucket);
+					written.add(bucket);
+				}
+				write = !write;
+			}
+
+			assertThat(frequency.name(), index.getBuckets("series", FROM, to), is(written));
+		}
+	}
+
+	@Test
+	public void indexShouldBeIdenticalOnceSavedAndLoaded() throws IOException {
+		File file = new File(folder.getRoot(), "hourly.index");
+		BucketOccupancyIndex index = new BucketOccupancyIndex(ShardingFrequency.HOURLY);
+		for (long timestamp = FROM; timestamp < FROM + YEAR; timestamp += 7 * 60 * 60 * 1000L + 42) {
+			index.add("sensor" + (timestamp % 3), ShardingFrequency.calculateBucket(timestamp, ShardingFrequency.HOURLY));
+		}
+		index.save(file);
+		index.save(file); // Replacing an existing file.
+
+		BucketOccupancyIndex loaded = BucketOccupancyIndex.load(file);
+		for (String prefix : Arrays.asList("sensor0", "sensor1", "sensor2", "sensor3")) {
+			assertThat(loaded.getBuckets(prefix, FROM, FROM + YEAR), is(index.getBuckets(prefix, FROM, FROM + YEAR)));
+		}
+	}
+
+	@Test
+	public void bloomFilterShouldNeverMissBucketsWrittenToAndRarelyReportEmptyOnes() throws IOException {
+		BucketOccupancyIndex index = BucketOccupancyIndex.withBloomFilter(ShardingFrequency.HOURLY, 10000, 0.01);
+		List<Long> buckets = new ArrayList<Long>(ShardingFrequency.getBuckets(FROM, FROM + 2 * YEAR, ShardingFrequency.HOURLY));
+		for (int i = 0; i < 10000; i++) {
+			index.add("sensor" + (i % 10), buckets.get(i));
+		}
+		File file = new File(folder.getRoot(), "bloom.index");
+		index.save(file);
+		BucketOccupancyIndex loaded = BucketOccupancyIndex.load(file);
+
+		int falsePositives = 0;
+		for (int i = 0; i < buckets.size(); i++) {
+			if (i < 10000) {
+				assertThat(loaded.mightContain("sensor" + (i % 10), buckets.get(i)), is(true));
+			} else if (loaded.mightContain("sensor" + (i % 10), buckets.get(i))) {
+				++falsePositives;
+			}
+		}
+		assertThat((double) falsePositives / (buckets.size() - 10000), is(lessThan(0.02)));
+	}
+
+	@Test
+	public void trackedSinkShouldRecordBucketsItWritesTo() {
+		final List<Long> written = new ArrayList<Long>();
+		BucketOccupancyIndex index = new BucketOccupancyIndex(ShardingFrequency.DAILY);
+		BucketWriteSink<Integer, String> sink = index.track(new BucketWriteSink<Integer, String>() {
+			@Override
+			public void write(final Integer series, final long bucket, final List<UUID> columnNames, final List<String> values) {
+				written.add(bucket);
+			}
+		});
+		long bucket = ShardingFrequency.calculateBucket(FROM, ShardingFrequency.DAILY);
+
+		sink.write(42, bucket, Collections.singletonList(TimeUUID.toUUID(FROM)), Collections.singletonList("value"));
+
+		assertThat(written, is(Collections.singletonList(bucket)));
+		assertThat(index.getBuckets("42", FROM - YEAR, FROM + YEAR), is(Collections.singletonList(bucket)));
+	}
+
+	@Test(expected = IOException.class)
+	public void loadShouldRejectFilesWhichAreNotIndexFiles() throws IOException {
+		File file = folder.newFile("other.index");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("Not an index".getBytes("UTF-8"));
+		out.close();
+
+		BucketOccupancyIndex.load(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void loadShouldRejectIndexSavedInAnotherTimeZone() throws IOException {
+		File file = new File(folder.getRoot(), "offset.index");
+		DateTimeZone defaultZone = DateTimeZone.getDefault();
+		try {
+			// A fixed offset, as no default time zone has such an identifier:
+			DateTimeZone.setDefault(DateTimeZone.forOffsetHoursMinutes(5, 30));
+			new BucketOccupancyIndex(ShardingFrequency.DAILY).save(file);
+		} finally {
+			DateTimeZone.setDefault(defaultZone);
+		}
+
+		BucketOccupancyIndex.load(file);
+	}
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BucketRangeReaderTest {
+	private static final long FROM = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+	private static final long TO = FROM + 24 * 60 * 60 * 1000L; // Thu Jun 6 19:24:44 BST 2013
+
+	private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+	@After
+	public void after() {
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void readShouldReturnAllColumnsOfAllSeriesInTimeOrder() {
+		InMemoryExecutor first = new InMemoryExecutor(ShardingFrequency.HOURLY, 0L);
+		InMemoryExecutor second = new InMemoryExecutor(ShardingFrequency.HOURLY, 0L);
+		InMemoryExecutor third = new InMemoryExecutor(ShardingFrequency.HOURLY, 0L);
+		List<UUID> expected = new ArrayList<UUID>();
+		for (long timestamp = FROM - 60 * 1000L; timestamp <= TO + 60 * 1000L; timestamp += 7 * 1000L) {
+			InMemoryExecutor series = Arrays.asList(first, second, third).get((int) (timestamp % 3));
+			UUID uuid = series.insert(timestamp);
+			if ((timestamp >= FROM) && (timestamp <= TO))
+				expected.add(uuid);
+		}
+		Collections.sort(expected, TimeUUIDComparator.INSTANCE);
+
+		BucketRangeReader<UUID> reader = new BucketRangeReader<UUID>(Arrays.asList(first, second, third), TimeUUIDComparator.INSTANCE, executorService, 8);
+
+		assertThat(toList(reader.read(FROM, TO, ShardingFrequency.HOURLY)), is(expected));
+	}
+
+	@Test
+	public void readShouldNotRunMoreQueriesThanMaximumAtTheSameTime() {
+		InMemoryExecutor executor = new InMemoryExecutor(ShardingFrequency.HOURLY, 20L);
+		for (long timestamp = FROM; timestamp <= TO; timestamp += 60 * 1000L) {
+			executor.insert(timestamp);
+		}
+
+		BucketRangeReader<UUID> reader = new BucketRangeReader<UUID>(executor, TimeUUIDComparator.INSTANCE, executorService, 3);
+
+		assertThat(toList(reader.read(FROM, TO, ShardingFrequency.HOURLY)).size(), is(24 * 60 + 1));
+		assertThat(executor.maxConcurrentQueries.get(), is(lessThanOrEqualTo(3)));
+	}
+
+	@Test
+	public void readShouldTakeAboutAsLongAsTheSlowestBucket() {
+		InMemoryExecutor executor = new InMemoryExecutor(ShardingFrequency.HOURLY, 100L);
+		executor.insert(FROM);
+
+		BucketRangeReader<UUID> reader = new BucketRangeReader<UUID>(executor, TimeUUIDComparator.INSTANCE, executorService, 25);
+		long begin = System.currentTimeMillis();
+		toList(reader.read(FROM, TO, ShardingFrequency.HOURLY));
+		long elapsed = System.currentTimeMillis() - begin;
+
+		assertThat(elapsed, is(lessThan(25 * 100L / 2))); // 25 buckets, 100 ms each.
+	}
+
+	@Test
+	public void readShouldBeLazy() {
+		InMemoryExecutor executor = new InMemoryExecutor(ShardingFrequency.HOURLY, 0L);
+		executor.insert(FROM);
+
+		BucketRangeReader<UUID> reader = new BucketRangeReader<UUID>(executor, TimeUUIDComparator.INSTANCE, executorService, 2);
+		Iterator<UUID> iterator = reader.read(FROM, TO, ShardingFrequency.HOURLY);
+		iterator.next();
+
+		assertThat(executor.queries.get(), is(lessThanOrEqualTo(3)));
+	}
+
+	@Test
+	public void closeShouldCancelPendingQueries() throws InterruptedException {
+		InMemoryExecutor executor = new InMemoryExecutor(ShardingFrequency.HOURLY, 60 * 1000L);
+		executor.insert(FROM);
+
+		BucketRangeReader<UUID> reader = new BucketRangeReader<UUID>(executor, TimeUUIDComparator.INSTANCE, executorService, 4);
+		BucketRangeReader.CloseableIterator<UUID> iterator = reader.read(FROM, TO, ShardingFrequency.HOURLY);
+		iterator.close();
+
+		for (int i = 0; (i < 100) && (executor.concurrentQueries.get() > 0); i++) {
+			Thread.sleep(10); // Cancelled queries are interrupted, rather than waited for.
+		}
+		assertThat(executor.concurrentQueries.get(), is(0));
+		assertThat(executor.queries.get(), is(lessThanOrEqualTo(4)));
+		assertThat(iterator.hasNext(), is(false));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void readShouldPropagateFailedQueries() {
+		BucketQueryExecutor<UUID> failing = new BucketQueryExecutor<UUID>() {
+			@Override
+			public List<UUID> query(final long bucket, final long from, final long to) {
+				throw new IllegalStateException("Cassandra is down.");
+			}
+		};
+
+		new BucketRangeReader<UUID>(failing, TimeUUIDComparator.INSTANCE, executorService, 2).read(FROM, TO, ShardingFrequency.HOURLY).hasNext();
+	}
+
+	private static List<UUID> toList(final Iterator<UUID> iterator) {
+		List<UUID> list = new ArrayList<UUID>();
+		while (iterator.hasNext()) {
+			list.add(iterator.next());
+		}
+		return list;
+	}
+
+	/**
+	 * In-memory stand-in for a keyspace, with rows sharded by bucket.
+	 */
+	static class InMemoryExecutor implements BucketQueryExecutor<UUID> {
+		private final Map<Long, List<UUID>> rows = new TreeMap<Long, List<UUID>>();
+		private final ShardingFrequency frequency;
+		private final long latencyInMs;
+		final AtomicInteger queries = new AtomicInteger();
+		final AtomicInteger concurrentQueries = new AtomicInteger();
+		final AtomicInteger maxConcurrentQueries = new AtomicInteger();
+
+		InMemoryExecutor(final ShardingFrequency frequency, final long latencyInMs) {
+			this.frequency = frequency;
+			this.latencyInMs = latencyInMs;
+		}
+
+		synchronized UUID insert(final long timestamp) {
+			UUID uuid = TimeUUID.toUUID(timestamp);
+			long bucket = ShardingFrequency.calculateBucket(timestamp, frequency);
+			if (!rows.containsKey(bucket))
+				rows.put(bucket, new ArrayList<UUID>());
+			rows.get(bucket).add(uuid);
+			Collections.sort(rows.get(bucket), TimeUUIDComparator.INSTANCE);
+			return uuid;
+		}
+
+		@Override
+		public List<UUID> query(final long bucket, final long from, final long to) {
+			queries.incrementAndGet();
+			int concurrent = concurrentQueries.incrementAndGet();
+			try {
+				synchronized (maxConcurrentQueries) {
+					maxConcurrentQueries.set(Math.max(concurrent, maxConcurrentQueries.get()));
+				}
+				Thread.sleep(latencyInMs);
+				return slice(bucket, from, to);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} finally {
+				concurrentQueries.decrementAndGet();
+			}
+		}
+
+		private synchronized List<UUID> slice(final long bucket, final long from, final long to) {
+			List<UUID> columns = new ArrayList<UUID>();
+			if (rows.containsKey(bucket)) {
+				for (UUID uuid : rows.get(bucket)) {
+					long timestamp = TimeUUID.toMillis(uuid);
+					if ((timestamp >= from) && (timestamp <= to))
+						columns.add(uuid);
+				}
+			}
+			return columns;
+		}
+	}
+}
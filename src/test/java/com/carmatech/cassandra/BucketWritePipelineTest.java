@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BucketWritePipelineTest {
+	@Test
+	public void pipelineShouldWriteEveryEventExactlyOnceToTheRowOfItsSeriesAndBucket() throws InterruptedException {
+		RecordingSink sink = new RecordingSink();
+		BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(sink, ShardingFrequency.SECONDLY, 64, 50, 10,
+				TimeUnit.MILLISECONDS);
+		pipeline.start();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 1000; i++) {
+			pipeline.submit("series-" + (i % 3), now + i, i);
+		}
+		pipeline.close();
+
+		Set<UUID> uuids = new HashSet<UUID>();
+		Set<Integer> values = new HashSet<Integer>();
+		for (Write write : sink.writes()) {
+			for (int i = 0; i < write.columnNames.size(); i++) {
+				UUID uuid = write.columnNames.get(i);
+				assertThat(TimeUUID.bucketOf(uuid, ShardingFrequency.SECONDLY), is(write.bucket));
+				assertThat(write.series, is("series-" + (write.values.get(i) % 3)));
+				uuids.add(uuid);
+				values.add(write.values.get(i));
+			}
+		}
+		assertThat(uuids.size(), is(1000));
+		assertThat(values.size(), is(1000));
+	}
+
+	@Test
+	public void pipelineShouldWriteBatchAsSoonAsItReachesMaximumSize() throws InterruptedException {
+		RecordingSink sink = new RecordingSink();
+		BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(sink, ShardingFrequency.DAILY, 64, 10, 1,
+				TimeUnit.HOURS);
+		pipeline.start();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 25; i++) {
+			pipeline.submit("series", now, i);
+		}
+		sink.awaitWrites(2);
+		assertThat(sink.writes().size(), is(2));
+
+		pipeline.close();
+		List<Write> writes = sink.writes();
+		assertThat(writes.size(), is(3));
+		assertThat(writes.get(0).values.size(), is(10));
+		assertThat(writes.get(1).values.size(), is(10));
+		assertThat(writes.get(2).values.size(), is(5));
+	}
+
+	@Test
+	public void pipelineShouldWriteIncompleteBatchOnceItReachesMaximumLatency() throws InterruptedException {
+		RecordingSink sink = new RecordingSink();
+		BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(sink, ShardingFrequency.DAILY, 64, 1000, 50,
+				TimeUnit.MILLISECONDS);
+		pipeline.start();
+		long start = System.nanoTime();
+		pipeline.submit("series", 1);
+		pipeline.submit("series", 2);
+		sink.awaitWrites(1);
+		long elapsedInMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertThat(elapsedInMs >= 50, is(true));
+		assertThat(sink.writes().get(0).values.size(), is(2));
+		pipeline.close();
+	}
+
+	@Test
+	public void offerShouldReturnFalseWhenSinkCannotKeepUpAndQueueIsFull() throws InterruptedException {
+		RecordingSink sink = new RecordingSink();
+		sink.block();
+		BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(sink, ShardingFrequency.DAILY, 4, 1, 1,
+				TimeUnit.HOURS);
+		pipeline.start();
+		long now = System.currentTimeMillis();
+
+		int accepted = 0;
+		while (pipeline.offer("series", now, accepted, 100, TimeUnit.MILLISECONDS)) {
+			accepted++;
+		}
+		// At most one queue's worth of events is being batched and written, and another one waits in the queue:
+		assertThat(accepted <= 2 * 4, is(true));
+
+		sink.unblock();
+		pipeline.close();
+		assertThat(sink.writes().size(), is(accepted));
+	}
+
+	@Test
+	public void pipelineShouldRejectEventsOnceSinkFailed() throws InterruptedException {
+		RecordingSink sink = new RecordingSink();
+		sink.fail();
+		BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(sink, ShardingFrequency.DAILY, 64, 1, 1,
+				TimeUnit.HOURS);
+		pipeline.start();
+		pipeline.submit("series", 1);
+		sink.awaitWrites(1);
+
+		try {
+			for (int i = 0; i < 1000; i++) {
+				pipeline.submit("series", i);
+				Thread.sleep(1L);
+			}
+			fail("Pipeline should reject events once its sink failed.");
+		} catch (IllegalStateException e) {
+			assertThat(e.getCause().getMessage(), is("Sink is down."));
+		}
+		try {
+			pipeline.close();
+			fail("Closing pipeline should report the sink's failure.");
+		} catch (IllegalStateException e) {
+			assertThat(e.getCause().getMessage(), is("Sink is down."));
+		}
+	}
+
+	@Test(timeout = 10000L)
+	public void producersWaitingForSpaceShouldBeRejectedAndCloseShouldReturnOnceSinkFailed() throws InterruptedException {
+		RecordingSink sink = new RecordingSink();
+		sink.block();
+		sink.fail();
+		final BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(sink, ShardingFrequency.DAILY, 4, 1, 1,
+				TimeUnit.HOURS);
+		pipeline.start();
+		final long now = System.currentTimeMillis();
+		while (pipeline.offer("series", now, 0, 100, TimeUnit.MILLISECONDS)) {
+			// Fill the queue up, while the sink is blocked.
+		}
+
+		final int numProducers = 4;
+		final CountDownLatch rejected = new CountDownLatch(numProducers);
+		for (int i = 0; i < numProducers; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						pipeline.submit("series", now, 1);
+					} catch (IllegalStateException e) {
+						rejected.countDown();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}).start();
+		}
+		Thread.sleep(100L); // Let producers wait for space in the queue.
+		sink.unblock();
+
+		assertThat(rejected.await(5, TimeUnit.SECONDS), is(true));
+		try {
+			pipeline.close();
+			fail("Closing pipeline should report the sink's failure.");
+		} catch (IllegalStateException e) {
+			assertThat(e.getCause().getMessage(), is("Sink is down."));
+		}
+	}
+
+	@Test
+	public void pipelineShouldWriteOldestBatchesEarlyOnceTheyHoldQueueCapacityOfEvents() throws InterruptedException {
+		RecordingSink sink = new RecordingSink();
+		BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(sink, ShardingFrequency.DAILY, 8, 1000, 1,
+				TimeUnit.HOURS);
+		pipeline.start();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			pipeline.submit("series-" + i, now, i);
+		}
+		// At most one queue's worth of events is held in batches, and another one waits in the queue:
+		sink.awaitWrites(100 - 2 * 8);
+		assertThat(sink.writes().get(0).series, is("series-0"));
+
+		pipeline.close();
+		assertThat(sink.writes().size(), is(100));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closeShouldThrowExceptionWhenNeverStarted() throws InterruptedException {
+		BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(new RecordingSink(), ShardingFrequency.DAILY, 64,
+				1, 1, TimeUnit.HOURS);
+		pipeline.submit("series", 1);
+		pipeline.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void submitShouldThrowExceptionOnceClosed() throws InterruptedException {
+		BucketWritePipeline<String, Integer> pipeline = new BucketWritePipeline<String, Integer>(new RecordingSink(), ShardingFrequency.DAILY, 64,
+				1, 1, TimeUnit.HOURS);
+		pipeline.start();
+		pipeline.close();
+		pipeline.submit("series", 1);
+	}
+
+	private static class Write {
+		private final String series;
+		private final long bucket;
+		private final List<UUID> columnNames;
+		private final List<Integer> values;
+
+		Write(final String series, final long bucket, final List<UUID> columnNames, final List<Integer> values) {
+			this.series = series;
+			this.bucket = bucket;
+			this.columnNames = new ArrayList<UUID>(columnNames);
+			this.values = new ArrayList<Integer>(values);
+		}
+	}
+
+	private static class RecordingSink implements BucketWriteSink<String, Integer> {
+		private final List<Write> writes = new ArrayList<Write>();
+		private volatile CountDownLatch blocked = new CountDownLatch(0);
+		private volatile boolean failing;
+
+		@Override
+		public void write(final String series, final long bucket, final List<UUID> columnNames, final List<Integer> values) {
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			synchronized (this) {
+				writes.add(new Write(series, bucket, columnNames, values));
+				notifyAll();
+			}
+			if (failing)
+				throw new RuntimeException("Sink is down.");
+		}
+
+		public void block() {
+			blocked = new CountDownLatch(1);
+		}
+
+		public void unblock() {
+			blocked.countDown();
+		}
+
+		public void fail() {
+			failing = true;
+		}
+
+		public synchronized List<Write> writes() {
+			return new ArrayList<Write>(writes);
+		}
+
+		public synchronized void awaitWrites(final int count) throws InterruptedException {
+			while (writes.size() < count) {
+				wait(5000L);
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.carmatech.cassandra.BucketRangeReaderTest.InMemoryExecutor;
+import com.google.common.base.Function;
+
+public class ClosedBucketCacheTest {
+	// Wed Jun 5 19:00:00 BST 2013 in London, but calculated so that hourly buckets are aligned in any time zone:
+	private static final long BUCKET = ShardingFrequency.calculateBucket(1370456684678L, ShardingFrequency.HOURLY);
+	private static final long HOUR = 60 * 60 * 1000L;
+	private static final long COLUMN_SIZE = 16 + 8;
+	private static final long ROW_SIZE = 64 + 60 * COLUMN_SIZE;
+
+	private static final Function<UUID, Long> TIMESTAMP = new Function<UUID, Long>() {
+		@Override
+		public Long apply(final UUID uuid) {
+			return TimeUUID.toMillis(uuid);
+		}
+	};
+	private static final Weigher<UUID> WEIGHER = new Weigher<UUID>() {
+		@Override
+		public long weigh(final UUID uuid) {
+			return 16;
+		}
+	};
+
+	@Test
+	public void queriesForClosedBucketShouldReadRowOnceAndReturnSameColumnsAsExecutor() {
+		InMemoryExecutor executor = minutelyColumns(BUCKET, BUCKET + 3 * HOUR);
+		ClosedBucketCache<UUID> cache = new ClosedBucketCache<UUID>(ShardingFrequency.HOURLY, TIMESTAMP, WEIGHER, 10 * ROW_SIZE);
+		BucketQueryExecutor<UUID> cached = cache.wrap("series", executor);
+
+		assertThat(cached.query(BUCKET, BUCKET + 10 * 60 * 1000L, BUCKET + 20 * 60 * 1000L),
+				is(executor.query(BUCKET, BUCKET + 10 * 60 * 1000L, BUCKET + 20 * 60 * 1000L)));
+		assertThat(cached.query(BUCKET, BUCKET + 10 * 60 * 1000L + 1, BUCKET + 20 * 60 * 1000L - 1),
+				is(executor.query(BUCKET, BUCKET + 10 * 60 * 1000L + 1, BUCKET + 20 * 60 * 1000L - 1)));
+		assertThat(cached.query(BUCKET, BUCKET - HOUR, BUCKET + 2 * HOUR), is(executor.query(BUCKET, BUCKET - HOUR, BUCKET + 2 * HOUR)));
+		assertThat(cached.query(BUCKET, BUCKET + HOUR, BUCKET + 2 * HOUR).isEmpty(), is(true));
+
+		assertThat(executor.queries.get(), is(1 + 3));
+		assertThat(cache.getMissCount(), is(1L));
+		assertThat(cache.getHitCount(), is(3L));
+		assertThat(cache.getSizeInBytes(), is(ROW_SIZE));
+	}
+
+	@Test
+	public void queriesForCurrentBucketShouldAlwaysGoToExecutor() {
+		long now = System.currentTimeMillis();
+		long current = ShardingFrequency.calculateBucket(now, ShardingFrequency.HOURLY);
+		InMemoryExecutor executor = new InMemoryExecutor(ShardingFrequency.HOURLY, 0L);
+		ClosedBucketCache<UUID> cache = new ClosedBucketCache<UUID>(ShardingFrequency.HOURLY, TIMESTAMP, WEIGHER, 10 * ROW_SIZE);
+		BucketQueryExecutor<UUID> cached = cache.wrap("series", executor);
+
+		executor.insert(now);
+		assertThat(cached.query(current, current, now).size(), is(1));
+		executor.insert(now + 1);
+		assertThat(cached.query(current, current, now + 1).size(), is(2));
+		assertThat(cached.query(current + HOUR, current + HOUR, current + 2 * HOUR).size(), is(0));
+
+		assertThat(executor.queries.get(), is(3));
+		assertThat(cache.getSizeInBytes(), is(0L));
+	}
+
+	@Test
+	public void bucketsWithinGracePeriodShouldNotBeCached() {
+		long previous = ShardingFrequency.calculateBucket(System.currentTimeMillis(), ShardingFrequency.HOURLY) - HOUR;
+		InMemoryExecutor executor = minutelyColumns(previous, previous + HOUR);
+		ClosedBucketCache<UUID> cache = new ClosedBucketCache<UUID>(ShardingFrequency.HOURLY, TIMESTAMP, WEIGHER, 10 * ROW_SIZE, 2 * HOUR);
+		BucketQueryExecutor<UUID> cached = cache.wrap("series", executor);
+
+		cached.query(previous, previous, previous + HOUR);
+		cached.query(previous, previous, previous + HOUR);
+
+		assertThat(executor.queries.get(), is(2));
+	}
+
+	@Test
+	public void leastRecentlyUsedRowsShouldBeEvictedOnceMaximumSizeIsReached() {
+		InMemoryExecutor executor = minutelyColumns(BUCKET, BUCKET + 3 * HOUR);
+		ClosedBucketCache<UUID> cache = new ClosedBucketCache<UUID>(ShardingFrequency.HOURLY, TIMESTAMP, WEIGHER, 2 * ROW_SIZE);
+		BucketQueryExecutor<UUID> cached = cache.wrap("series", executor);
+
+		cached.query(BUCKET, BUCKET, BUCKET + HOUR);
+		cached.query(BUCKET + HOUR, BUCKET + HOUR, BUCKET + 2 * HOUR);
+		cached.query(BUCKET, BUCKET, BUCKET + HOUR); // Most recently used is now the first bucket.
+		cached.query(BUCKET + 2 * HOUR, BUCKET + 2 * HOUR, BUCKET + 3 * HOUR); // Evicts the second bucket.
+		assertThat(cache.getSizeInBytes(), is(lessThanOrEqualTo(2 * ROW_SIZE)));
+		assertThat(executor.queries.get(), is(3));
+
+		cached.query(BUCKET, BUCKET, BUCKET + HOUR);
+		assertThat(executor.queries.get(), is(3));
+		cached.query(BUCKET + HOUR, BUCKET + HOUR, BUCKET + 2 * HOUR);
+		assertThat(executor.queries.get(), is(4));
+	}
+
+	@Test
+	public void rowsOfDifferentSeriesShouldBeCachedSeparately() {
+		InMemoryExecutor first = minutelyColumns(BUCKET, BUCKET + HOUR);
+		InMemoryExecutor second = new InMemoryExecutor(ShardingFrequency.HOURLY, 0L);
+		second.insert(BUCKET + 42);
+		ClosedBucketCache<UUID> cache = new ClosedBucketCache<UUID>(ShardingFrequency.HOURLY, TIMESTAMP, WEIGHER, 10 * ROW_SIZE);
+
+		assertThat(cache.wrap("first", first).query(BUCKET, BUCKET, BUCKET + HOUR).size(), is(60));
+		assertThat(cache.wrap("second", second).query(BUCKET, BUCKET, BUCKET + HOUR).size(), is(1));
+		assertThat(cache.wrap("first", first).query(BUCKET, BUCKET, BUCKET + HOUR).size(), is(60));
+		assertThat(first.queries.get(), is(1));
+		assertThat(second.queries.get(), is(1));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void cachedColumnsShouldBeImmutable() {
+		InMemoryExecutor executor = minutelyColumns(BUCKET, BUCKET + HOUR);
+		ClosedBucketCache<UUID> cache = new ClosedBucketCache<UUID>(ShardingFrequency.HOURLY, TIMESTAMP, WEIGHER, 10 * ROW_SIZE);
+
+		cache.wrap("series", executor).query(BUCKET, BUCKET, BUCKET + 30 * 60 * 1000L).clear();
+	}
+
+	private static InMemoryExecutor minutelyColumns(final long from, final long to) {
+		InMemoryExecutor executor = new InMemoryExecutor(ShardingFrequency.HOURLY, 0L);
+		for (long timestamp = from; timestamp < to; timestamp += 60 * 1000L) {
+			executor.insert(timestamp);
+		}
+		return executor;
+	}
+}
@@ -32,6 +32,7 @@ import me.prettyprint.cassandra.serializers.UUIDSerializer;
 import me.prettyprint.cassandra.utils.TimeUUIDUtils;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -240,6 +241,33 @@ public class CorbaTimeUUIDTest {
 		assertThat(t3, is(lessThan(t2)));
 	}
 
+	@Test
+	public void bucketOfIsEquivalentToToMillisThenCalculateBucket() {
+		long now = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+		UUID[] uuids = new UUID[100];
+		for (int i = 0; i < uuids.length; i++) {
+			uuids[i] = CorbaTimeUUID.toUUID(now + i * 1234567L);
+		}
+
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			long[] buckets = new long[uuids.length];
+			CorbaTimeUUID.bucketsOf(uuids, frequency, buckets);
+
+			for (int i = 0; i < uuids.length; i++) {
+				long expectedBucket = ShardingFrequency.calculateBucket(CorbaTimeUUID.toMillis(uuids[i]), frequency);
+				assertThat(CorbaTimeUUID.bucketOf(uuids[i], frequency), is(expectedBucket));
+				assertThat(buckets[i], is(expectedBucket));
+			}
+		}
+		DateTimeZone defaultZone = DateTimeZone.getDefault();
+		try {
+			DateTimeZone.setDefault(DateTimeZone.forID("Europe/London"));
+			assertThat(CorbaTimeUUID.bucketOf(CorbaTimeUUID.toUUID(now), ShardingFrequency.HOURLY), is(1370455200000L)); // Wed Jun 5 19:00:00 BST 2013
+		} finally {
+			DateTimeZone.setDefault(defaultZone);
+		}
+	}
+
 	@Test
 	public void comparePerformanceToHector() throws Exception {
 		// Warm-up: to initialize all static members in all classes:
@@ -324,4 +352,17 @@ public class CorbaTimeUUIDTest {
 			return end - begin;
 		}
 	}
+
+	@Test
+	public void tryCreateUUIDReturnsNullInsteadOfRunningTooFarAhead() {
+		UUID latest = CorbaTimeUUID.createUUID();
+		long oneSecondAgo = CorbaTimeUUID.toMillis(latest) - 1000;
+
+		assertThat(CorbaTimeUUID.tryCreateUUID(oneSecondAgo, 500), is((UUID) null));
+
+		UUID next = CorbaTimeUUID.tryCreateUUID(oneSecondAgo, 2000);
+		assertThat(next, is(not(latest)));
+		assertThat(CorbaTimeUUID.toMillis(next) >= CorbaTimeUUID.toMillis(latest), is(true));
+		assertThat((double) CorbaTimeUUID.getRunAheadMillis(), is(closeTo(0, TOLERANCE_IN_MS)));
+	}
 }
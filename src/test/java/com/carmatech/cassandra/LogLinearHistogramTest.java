@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogLinearHistogramTest {
+	@Test
+	public void smallValuesShouldBeRecordedExactly() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		for (long value = 0; value < 128; value++) {
+			histogram.record(value);
+		}
+
+		assertThat(histogram.getCount(), is(128L));
+		assertThat(histogram.getMin(), is(0L));
+		assertThat(histogram.getMax(), is(127L));
+		assertThat(histogram.getValueAtPercentile(50), is(63L));
+		assertThat(histogram.getValueAtPercentile(100), is(127L));
+		assertThat(histogram.getMean(), is(63.5));
+	}
+
+	@Test
+	public void percentilesShouldBeWithinPrecisionOfExactPercentiles() {
+		Random random = new Random(42);
+		long[] values = new long[100000];
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextDouble() * 40);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+
+		for (double percentile : new double[] { 0, 1, 10, 50, 90, 99, 99.9, 99.99, 100 }) {
+			long exact = values[Math.max(0, (int) Math.ceil(percentile / 100 * values.length) - 1)];
+			long estimate = histogram.getValueAtPercentile(percentile);
+			assertThat(estimate, is(greaterThanOrEqualTo(exact)));
+			assertThat((double) estimate, is(closeTo(exact, exact / 64.0)));
+		}
+	}
+
+	@Test
+	public void largestValuesShouldBeRecorded() {
+		LogLinearHistogram histogram = new LogLinearHistogram(2);
+		histogram.record(Long.MAX_VALUE);
+
+		assertThat(histogram.getValueAtPercentile(50), is(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void addShouldCombineAllValuesOfBothHistograms() {
+		LogLinearHistogram first = new LogLinearHistogram();
+		LogLinearHistogram second = new LogLinearHistogram();
+		LogLinearHistogram both = new LogLinearHistogram();
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			long value = random.nextInt(1000000);
+			((i % 3 == 0) ? first : second).record(value);
+			both.record(value);
+		}
+
+		first.add(second);
+
+		assertThat(first.getCount(), is(both.getCount()));
+		assertThat(first.getMin(), is(both.getMin()));
+		assertThat(first.getMax(), is(both.getMax()));
+		assertThat(first.getMean(), is(both.getMean()));
+		assertThat(first.getValueAtPercentile(99.9), is(both.getValueAtPercentile(99.9)));
+		assertThat(second.getCount(), is(10000L - 3334L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void addShouldRejectHistogramWithDifferentPrecision() {
+		new LogLinearHistogram().add(new LogLinearHistogram(8));
+	}
+
+	@Test
+	public void resetShouldForgetAllValues() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		histogram.record(42, 1000);
+		histogram.reset();
+
+		assertThat(histogram.getCount(), is(0L));
+		assertThat(histogram.getValueAtPercentile(99), is(0L));
+		assertThat(histogram.getMax(), is(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void concurrentRecordsShouldAllBeCounted() throws InterruptedException {
+		final LogLinearHistogram histogram = new LogLinearHistogram();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final long offset = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (long value = 0; value < 100000; value++) {
+						histogram.record(value * 8 + offset);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(histogram.getCount(), is(800000L));
+		assertThat(histogram.getMin(), is(0L));
+		assertThat(histogram.getMax(), is(799999L));
+	}
+}
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies that UUIDs generated concurrently, by many threads and through all the generation methods sharing {@link TimeUUID}'s clock, are globally
+ * unique and increasing within each thread, at a scale where duplicates would not go unnoticed. <br />
+ * Only runs with the <code>long-test</code> profile: <code>mvn test -P long-test</code>. The number of threads and UUIDs can be changed with the
+ * <code>verifier.threads</code> and <code>verifier.uuids</code> system properties. <br />
+ * Each thread writes the timestamps of its UUIDs to its own file. As they must be increasing within each thread, every file is sorted, so global uniqueness
+ * is checked by merging the memory-mapped files, without sorting and without holding UUIDs on the heap.
+ */
+public class MonotonicClockLongTest {
+	private static final int NUM_THREADS = Integer.getInteger("verifier.threads", 8);
+	private static final long NUM_UUIDS = Long.getLong("verifier.uuids", 200000000L);
+	private static final int BATCH_SIZE = 256;
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+	private static final long MAPPED_WINDOW_SIZE = 1 << 26;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private enum Method {
+		CREATE_UUID, CREATE_UUIDS, GENERATE_INTO, REVERSE
+	}
+
+	@Test
+	public void uuidsGeneratedConcurrentlyAreGloballyUniqueAndIncreasingWithinEachThread() throws Exception {
+		final List<Generator> generators = new ArrayList<Generator>();
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final long count = NUM_UUIDS / NUM_THREADS + ((i < NUM_UUIDS % NUM_THREADS) ? 1 : 0);
+			generators.add(new Generator(Method.values()[i % Method.values().length], count, new File(folder.getRoot(), "thread-" + i + ".bin")));
+		}
+		for (final Generator generator : generators) {
+			generator.start();
+		}
+
+		final List<MappedLongReader> readers = new ArrayList<MappedLongReader>();
+		try {
+			for (final Generator generator : generators) {
+				generator.join();
+				if (generator.failure != null)
+					throw generator.failure;
+				assertThat(generator.method + ": not increasing", generator.notIncreasing, is(0L));
+				assertThat(generator.method + ": unexpected clock sequence and node", generator.unexpectedClockSeqAndNode, is(0L));
+				readers.add(new MappedLongReader(generator.file));
+			}
+
+			assertThat(countDuplicates(readers), is(0L));
+		} finally {
+			for (final MappedLongReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * K-way merge of the sorted files: the merged sequence must be strictly increasing.
+	 */
+	private static long countDuplicates(final List<MappedLongReader> readers) throws IOException {
+		final int k = readers.size();
+		final long[] heads = new long[k];
+		final boolean[] exhausted = new boolean[k];
+		for (int i = 0; i < k; i++) {
+			exhausted[i] = !readers.get(i).hasNext();
+			if (!exhausted[i])
+				heads[i] = readers.get(i).next();
+		}
+
+		long duplicates = 0;
+		long merged = 0;
+		long previous = Long.MIN_VALUE;
+		while (true) {
+			int min = -1;
+			for (int i = 0; i < k; i++) {
+				if (!exhausted[i] && ((min < 0) || (heads[i] < heads[min])))
+					min = i;
+			}
+			if (min < 0)
+				break;
+
+			if ((merged > 0) && (heads[min] <= previous))
+				++duplicates;
+			previous = heads[min];
+			++merged;
+
+			final MappedLongReader reader = readers.get(min);
+			if (reader.hasNext()) {
+				final long next = reader.next();
+				assertThat("File was not sorted.", next > heads[min], is(true));
+				heads[min] = next;
+			} else {
+				exhausted[min] = true;
+			}
+		}
+		assertThat(merged, is(NUM_UUIDS));
+		return duplicates;
+	}
+
+	private static final class Generator extends Thread {
+		private final Method method;
+		private final long count;
+		private final File file;
+		private final long clockSeqAndNode = NodeProviders.getDefault().getClockSeqAndNode();
+		private long previous = Long.MIN_VALUE;
+		private long notIncreasing;
+		private long unexpectedClockSeqAndNode;
+		private Exception failure;
+
+		Generator(final Method method, final long count, final File file) {
+			this.method = method;
+			this.count = count;
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			try {
+				final FileOutputStream out = new FileOutputStream(file);
+				try {
+					generate(out.getChannel());
+				} finally {
+					out.close();
+				}
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+
+		private void generate(final FileChannel channel) throws IOException {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+			final MutableTimeUUID holder = new MutableTimeUUID();
+			final long[] timestamps = new long[BATCH_SIZE];
+			final UUID[] uuids = new UUID[BATCH_SIZE];
+
+			long generated = 0;
+			while (generated < count) {
+				switch (method) {
+				case CREATE_UUID: {
+					final UUID uuid = TimeUUID.createUUID();
+					write(channel, buffer, UUIDTime.fromUUIDTime(uuid.getMostSignificantBits()), uuid.getLeastSignificantBits());
+					++generated;
+					break;
+				}
+				case CREATE_UUIDS: {
+					final int size = (int) Math.min(BATCH_SIZE, count - generated);
+					final long[] batch = (size == BATCH_SIZE) ? timestamps : new long[size];
+					for (int i = 0; i < size; i++) {
+						batch[i] = System.currentTimeMillis();
+					}
+					TimeUUID.createUUIDs(batch, uuids);
+					for (int i = 0; i < size; i++) {
+						write(channel, buffer, UUIDTime.fromUUIDTime(uuids[i].getMostSignificantBits()), uuids[i].getLeastSignificantBits());
+					}
+					generated += size;
+					break;
+				}
+				case GENERATE_INTO: {
+					TimeUUID.generateInto(holder);
+					write(channel, buffer, UUIDTime.fromUUIDTime(holder.getMostSignificantBits()), holder.getLeastSignificantBits());
+					++generated;
+					break;
+				}
+				case REVERSE: {
+					final UUID uuid = ReverseTimeUUID.createUUID();
+					final long timestamp = ReverseTimeUUID.MAX_TIMESTAMP_IN_100NS - UUIDTime.fromUUIDTime(uuid.getMostSignificantBits());
+					write(channel, buffer, timestamp, uuid.getLeastSignificantBits());
+					++generated;
+					break;
+				}
+				}
+			}
+			flush(channel, buffer);
+		}
+
+		private void write(final FileChannel channel, final ByteBuffer buffer, final long timestamp, final long lsb) throws IOException {
+			if (timestamp <= previous)
+				++notIncreasing;
+			if (lsb != clockSeqAndNode)
+				++unexpectedClockSeqAndNode;
+			previous = timestamp;
+
+			if (!buffer.hasRemaining())
+				flush(channel, buffer);
+			buffer.putLong(timestamp);
+		}
+
+		private static void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Reads a file of longs through a sliding memory-mapped window, so that files larger than the heap, or than 2 GB, can be read.
+	 */
+	private static final class MappedLongReader {
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final long size;
+		private long mappedUntil;
+		private MappedByteBuffer window;
+
+		MappedLongReader(final File file) throws IOException {
+			this.file = new RandomAccessFile(file, "r");
+			this.channel = this.file.getChannel();
+			this.size = channel.size();
+		}
+
+		boolean hasNext() throws IOException {
+			if ((window != null) && window.hasRemaining())
+				return true;
+			if (mappedUntil >= size)
+				return false;
+			final long length = Math.min(MAPPED_WINDOW_SIZE, size - mappedUntil);
+			window = channel.map(MapMode.READ_ONLY, mappedUntil, length);
+			mappedUntil += length;
+			return true;
+		}
+
+		long next() {
+			return window.getLong();
+		}
+
+		void close() throws IOException {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+
+import org.junit.Test;
+
+public class MutableTimeUUIDTest {
+	private static final int TOLERANCE_IN_MS = 1000;
+	private static final long TIMESTAMP = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+
+	@Test
+	public void generateIntoFillsTheSameHolderWithUniqueIncreasingUUIDs() {
+		long expectedTimestamp = System.currentTimeMillis();
+		MutableTimeUUID holder = new MutableTimeUUID();
+
+		assertThat(TimeUUID.generateInto(holder), is(sameInstance(holder)));
+		UUID first = holder.toUUID();
+		TimeUUID.generateInto(holder);
+		UUID second = holder.toUUID();
+
+		assertThat((double) holder.toMillis(), is(closeTo(expectedTimestamp, TOLERANCE_IN_MS)));
+		assertThat(second.version(), is(1));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(first, second), is(lessThan(0)));
+		assertThat(holder.getLeastSignificantBits(), is(NodeProviders.getDefault().getClockSeqAndNode()));
+	}
+
+	@Test
+	public void accessorsAreEquivalentToThoseOfTimeUUID() {
+		UUID uuid = TimeUUID.toUUID(TIMESTAMP);
+		MutableTimeUUID holder = new MutableTimeUUID().set(uuid);
+
+		assertThat(holder.toMillis(), is(TIMESTAMP));
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			assertThat(holder.bucketOf(frequency), is(TimeUUID.bucketOf(uuid, frequency)));
+		}
+		assertThat(holder.toUUID(), is(uuid));
+		assertThat(holder.hashCode(), is(uuid.hashCode()));
+		assertThat(holder.toString(), is(uuid.toString()));
+		assertThat(holder, is(new MutableTimeUUID().set(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())));
+	}
+
+	@Test
+	public void serializationIsTheSameAsHectorUUIDSerializer() {
+		UUID uuid = TimeUUID.toUUID(TIMESTAMP);
+		ByteBuffer buffer = ByteBuffer.allocate(32);
+		buffer.putInt(42);
+
+		new MutableTimeUUID().set(uuid).writeTo(buffer);
+		buffer.flip();
+		buffer.getInt();
+
+		assertThat(buffer.slice(), is(UUIDSerializer.get().toByteBuffer(uuid)));
+		assertThat(new MutableTimeUUID().readFrom(buffer).toUUID(), is(uuid));
+		assertThat(buffer.hasRemaining(), is(false));
+	}
+}
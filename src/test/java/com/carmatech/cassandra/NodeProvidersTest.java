@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Locale;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+
+import com.eaio.uuid.UUIDGen;
+
+public class NodeProvidersTest {
+	@After
+	public void after() {
+		NodeProviders.setDefault(null);
+	}
+
+	@Test
+	public void explicitProviderUsesProvidedNodeAndClockSequence() {
+		long clockSeqAndNode = NodeProviders.explicit(0x0242ac110002L, 0x1234).getClockSeqAndNode();
+
+		assertThat(clockSeqAndNode, is(0x92340242ac110002L));
+		assertThat(new UUID(TimeUUID.toUUID(0L).getMostSignificantBits(), clockSeqAndNode).variant(), is(2));
+		assertThat(new UUID(TimeUUID.toUUID(0L).getMostSignificantBits(), clockSeqAndNode).clockSequence(), is(0x1234));
+		assertThat(new UUID(TimeUUID.toUUID(0L).getMostSignificantBits(), clockSeqAndNode).node(), is(0x0242ac110002L));
+	}
+
+	@Test
+	public void explicitProviderOnlyKeeps48BitsOfNode() {
+		assertThat(NodeProviders.explicit(0xFFFF0242ac110002L, 0).getClockSeqAndNode(), is(0x80000242ac110002L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void explicitProviderRejectsTooLargeClockSequence() {
+		NodeProviders.explicit(1L, 0x4000);
+	}
+
+	@Test
+	public void randomAndHashedProvidersSetVariantAndMulticastBits() {
+		for (NodeProvider provider : new NodeProvider[] { NodeProviders.random(), NodeProviders.hashed() }) {
+			UUID uuid = new UUID(TimeUUID.toUUID(0L).getMostSignificantBits(), provider.getClockSeqAndNode());
+			assertThat(uuid.variant(), is(2));
+			assertThat(uuid.node() & 0x010000000000L, is(0x010000000000L));
+			assertThat(provider.getClockSeqAndNode(), is(provider.getClockSeqAndNode()));
+		}
+	}
+
+	@Test
+	public void hashedProviderIsSameWithinSameProcess() {
+		assertThat(NodeProviders.hashed().getClockSeqAndNode(), is(NodeProviders.hashed().getClockSeqAndNode()));
+	}
+
+	@Test
+	public void randomProvidersAreDifferentFromEachOther() {
+		assertThat(NodeProviders.random().getClockSeqAndNode(), is(not(NodeProviders.random().getClockSeqAndNode())));
+	}
+
+	@Test
+	public void eaioProviderIsEquivalentToUUIDGen() {
+		assertThat(NodeProviders.eaio().getClockSeqAndNode(), is(UUIDGen.getClockSeqAndNode()));
+	}
+
+	@Test
+	public void defaultProviderIsResolvedFromSystemPropertyAndUsedByBothUUIDFamilies() {
+		assertThat(NodeProviders.getDefault(), is(sameInstance(NodeProviders.eaio())));
+
+		NodeProvider provider = NodeProviders.explicit(0x123456789ABCL, 42);
+		NodeProviders.setDefault(provider);
+		long timestamp = new DateTime().getMillis();
+
+		assertThat(NodeProviders.getDefault(), is(sameInstance(provider)));
+		assertThat(TimeUUID.toUUID(timestamp).getLeastSignificantBits(), is(provider.getClockSeqAndNode()));
+		assertThat(CorbaTimeUUID.toUUID(timestamp).getClockSeqAndNode(), is(provider.getClockSeqAndNode()));
+	}
+
+	@Test
+	public void fromPropertyParsesAllSupportedValues() {
+		assertThat(NodeProviders.fromProperty("eaio"), is(sameInstance(NodeProviders.eaio())));
+		assertThat(NodeProviders.fromProperty(" Hashed ").getClockSeqAndNode() & 0x0000FFFFFFFFFFFFL,
+				is(NodeProviders.hashed().getClockSeqAndNode() & 0x0000FFFFFFFFFFFFL));
+		assertThat(NodeProviders.fromProperty("random").getClockSeqAndNode() >>> 62, is(2L));
+		assertThat(NodeProviders.fromProperty("0x0242AC110002").getClockSeqAndNode() & 0x0000FFFFFFFFFFFFL, is(0x0242ac110002L));
+		assertThat(NodeProviders.fromProperty("0242ac110003").getClockSeqAndNode() & 0x0000FFFFFFFFFFFFL, is(0x0242ac110003L));
+	}
+
+	@Test
+	public void fromPropertyIsCaseInsensitiveInAnyLocale() {
+		Locale defaultLocale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr", "TR")); // Where "I" is not the upper case of "i".
+		try {
+			assertThat(NodeProviders.fromProperty("EAIO"), is(sameInstance(NodeProviders.eaio())));
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fromPropertyRejectsUnknownValues() {
+		NodeProviders.fromProperty("mac");
+	}
+}
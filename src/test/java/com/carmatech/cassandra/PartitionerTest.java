@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class PartitionerTest {
+	@Test
+	public void murmur3TokensShouldBeSameAsCassandra() throws Exception {
+		// SELECT token(id) FROM ... WHERE id = 1, for an int key:
+		assertThat(Partitioner.murmur3Token(ByteBuffer.wrap(new byte[] { 0, 0, 0, 1 })), is(-4069959284402364209L));
+		assertThat(Partitioner.murmur3Token(ByteBuffer.wrap("sensor42:1370455200000".getBytes("UTF-8"))), is(8208815047730936342L));
+		assertThat(Partitioner.MURMUR3.getToken(ByteBuffer.wrap(new byte[] { 0, 0, 0, 1 })), is(BigInteger.valueOf(-4069959284402364209L)));
+	}
+
+	@Test
+	public void murmur3TokensShouldSignExtendTrailingBytesLikeCassandra() {
+		// The reference MurmurHash3 implementation would give 3456160900079661876:
+		assertThat(Partitioner.murmur3Token(ByteBuffer.wrap(new byte[] { (byte) 0xff, (byte) 0xfe, (byte) 0x80, 'a', 'b', 'c' })),
+				is(2306278379196453918L));
+
+		byte[] key = new byte[31]; // One full block, and a 15-byte tail.
+		for (int i = 0; i < key.length; i++) {
+			key[i] = (byte) (200 + i);
+		}
+		assertThat(Partitioner.murmur3Token(ByteBuffer.wrap(key)), is(4398332801500074197L));
+	}
+
+	@Test
+	public void emptyKeyShouldHaveMinimumToken() {
+		assertThat(Partitioner.murmur3Token(ByteBuffer.allocate(0)), is(Long.MIN_VALUE));
+		assertThat(Partitioner.RANDOM.getToken(ByteBuffer.allocate(0)), is(BigInteger.ONE.negate()));
+	}
+
+	@Test
+	public void randomPartitionerTokensShouldBeSameAsCassandra() throws Exception {
+		assertThat(Partitioner.RANDOM.getToken(ByteBuffer.wrap(new byte[] { 0, 0, 0, 1 })), is(new BigInteger("19580090105725936846312850328329299579")));
+		assertThat(Partitioner.RANDOM.getToken(ByteBuffer.wrap("sensor42:1370455200000".getBytes("UTF-8"))), is(new BigInteger(
+				"94373769257757760049646143086839111032")));
+	}
+
+	@Test
+	public void tokensShouldOnlyDependOnRemainingBytesAndNotModifyBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.wrap("xxsensor42:1370455200000yy".getBytes("UTF-8"));
+		buffer.position(2);
+		buffer.limit(buffer.limit() - 2);
+
+		assertThat(Partitioner.murmur3Token(buffer), is(8208815047730936342L));
+		assertThat(Partitioner.RANDOM.getToken(buffer), is(new BigInteger("94373769257757760049646143086839111032")));
+		assertThat(buffer.position(), is(2));
+		assertThat(buffer.remaining(), is(22));
+	}
+}
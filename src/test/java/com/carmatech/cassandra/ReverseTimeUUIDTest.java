@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReverseTimeUUIDTest {
+	private static final int TOLERANCE_IN_MS = 1000;
+	private static final long TIMESTAMP = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+
+	@Before
+	public void before() throws InterruptedException {
+		Thread.sleep(5); // Sleep 5 ms to avoid "collisions" in the UUID generator.
+	}
+
+	@Test
+	public void createUUIDAndConvertUUIDBackToTimestamp() {
+		long expectedTimestamp = System.currentTimeMillis();
+
+		UUID uuid = ReverseTimeUUID.createUUID(expectedTimestamp);
+
+		// The clock shared with TimeUUID may have run ahead, if many UUIDs were generated by other tests:
+		assertThat((double) ReverseTimeUUID.toMillis(uuid), is(closeTo(expectedTimestamp, TOLERANCE_IN_MS)));
+		assertThat(uuid.version(), is(1));
+		assertThat(ReverseTimeUUID.toMillis(ReverseTimeUUID.toUUID(TIMESTAMP)), is(TIMESTAMP));
+	}
+
+	@Test
+	public void newerUUIDsAreSortedFirstEvenForSameTimestampInMilliseconds() {
+		long now = System.currentTimeMillis();
+		List<UUID> uuids = new ArrayList<UUID>();
+		for (int i = 0; i < 100; i++) {
+			uuids.add(ReverseTimeUUID.createUUID(now));
+		}
+		uuids.add(ReverseTimeUUID.createUUID(now + 1));
+
+		List<UUID> sorted = new ArrayList<UUID>(uuids);
+		Collections.sort(sorted, TimeUUIDComparator.INSTANCE);
+		Collections.reverse(uuids);
+		assertThat(sorted, is(uuids));
+	}
+
+	@Test
+	public void serializedUUIDsAreSortedNewestFirstByCassandra() {
+		UUID older = ReverseTimeUUID.toUUID(TIMESTAMP);
+		UUID newer = ReverseTimeUUID.toUUID(TIMESTAMP + 1);
+
+		// Serialization must not lose the reversed ordering, e.g. to a negative timestamp:
+		UUID deserializedNewer = UUIDSerializer.get().fromByteBuffer(UUIDSerializer.get().toByteBuffer(newer));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(deserializedNewer, older), is(lessThan(0)));
+		assertThat(newer.timestamp(), is(lessThan(older.timestamp())));
+		assertThat(newer.timestamp(), is(greaterThan(0L)));
+	}
+
+	@Test
+	public void minAndMaxUUIDsAreTheBoundsOfAllUUIDsGeneratedForTheSameTimestamp() {
+		UUID first;
+		UUID second;
+		do {
+			first = ReverseTimeUUID.createUUID();
+			second = ReverseTimeUUID.createUUID();
+		} while (ReverseTimeUUID.toMillis(first) != ReverseTimeUUID.toMillis(second));
+		long now = ReverseTimeUUID.toMillis(first);
+
+		assertThat(TimeUUIDComparator.INSTANCE.compare(ReverseTimeUUID.minUUID(now), second), is(lessThan(0)));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(second, first), is(lessThan(0)));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(first, ReverseTimeUUID.maxUUID(now)), is(lessThan(0)));
+
+		// Slice bounds of adjacent milliseconds do not overlap:
+		assertThat(TimeUUIDComparator.INSTANCE.compare(ReverseTimeUUID.maxUUID(now + 1), ReverseTimeUUID.minUUID(now)), is(lessThan(0)));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(ReverseTimeUUID.maxUUID(now), ReverseTimeUUID.minUUID(now - 1)), is(lessThan(0)));
+	}
+
+	@Test
+	public void bucketOfIsEquivalentToToMillisThenCalculateBucket() {
+		UUID uuid = ReverseTimeUUID.toUUID(TIMESTAMP);
+
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			assertThat(ReverseTimeUUID.bucketOf(uuid, frequency), is(ShardingFrequency.calculateBucket(TIMESTAMP, frequency)));
+		}
+
+		long[] buckets = new long[] { uuid.getMostSignificantBits(), ReverseTimeUUID.toUUID(TIMESTAMP + 3600000L).getMostSignificantBits() };
+		ReverseTimeUUID.bucketsOf(buckets, ShardingFrequency.HOURLY, buckets);
+		assertThat(buckets[0], is(ShardingFrequency.calculateBucket(TIMESTAMP, ShardingFrequency.HOURLY)));
+		assertThat(buckets[1], is(ShardingFrequency.calculateBucket(TIMESTAMP + 3600000L, ShardingFrequency.HOURLY)));
+	}
+
+	@Test
+	public void bucketsAreListedNewestFirst() {
+		List<Long> buckets = ReverseTimeUUID.getBuckets(TIMESTAMP, TIMESTAMP + 2 * 3600000L, ShardingFrequency.HOURLY);
+
+		long first = ShardingFrequency.calculateBucket(TIMESTAMP, ShardingFrequency.HOURLY);
+		assertThat(buckets, is(Arrays.asList(first + 2 * 3600000L, first + 3600000L, first)));
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import org.junit.Test;
+
+public class RollupAggregateTest {
+	@Test
+	public void emptyAggregateShouldHaveNoValue() {
+		RollupAggregate aggregate = new RollupAggregate();
+
+		assertThat(aggregate.isEmpty(), is(true));
+		assertThat(aggregate.getCount(), is(0L));
+		assertThat(aggregate.getMin(), is(Double.POSITIVE_INFINITY));
+		assertThat(aggregate.getMax(), is(Double.NEGATIVE_INFINITY));
+		assertThat(Double.isNaN(aggregate.getMean()), is(true));
+	}
+
+	@Test
+	public void addShouldUpdateCountSumMinAndMax() {
+		RollupAggregate aggregate = new RollupAggregate().add(3.0).add(-1.5).add(7.0);
+
+		assertThat(aggregate, is(new RollupAggregate(3, 8.5, -1.5, 7.0)));
+		assertThat(aggregate.getMean(), is(8.5 / 3));
+	}
+
+	@Test
+	public void mergeShouldBeSameAsAddingAllValues() {
+		RollupAggregate first = new RollupAggregate().add(3.0).add(-1.5);
+		RollupAggregate second = new RollupAggregate().add(7.0);
+
+		assertThat(first.copy().merge(second), is(new RollupAggregate().add(3.0).add(-1.5).add(7.0)));
+		assertThat(first.copy().merge(new RollupAggregate()), is(first));
+		assertThat(new RollupAggregate().merge(first), is(first));
+	}
+
+	@Test
+	public void copyShouldBeIndependent() {
+		RollupAggregate aggregate = new RollupAggregate().add(1.0);
+		RollupAggregate copy = aggregate.copy();
+		copy.add(2.0);
+
+		assertThat(copy, is(not(aggregate)));
+		assertThat(aggregate.getCount(), is(1L));
+	}
+}
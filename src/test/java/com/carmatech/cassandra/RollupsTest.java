@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RollupsTest {
+	private static final long FROM = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+	private static final long MINUTE = 60 * 1000L;
+	private static final long DAY = 24 * 60 * MINUTE;
+
+	private DateTimeZone defaultZone;
+
+	@Before
+	public void pinDefaultTimeZone() {
+		// Expected numbers of buckets below depend on where local days and hours start, here in London time:
+		defaultZone = DateTimeZone.getDefault();
+		DateTimeZone.setDefault(DateTimeZone.forID("Europe/London"));
+	}
+
+	@After
+	public void restoreDefaultTimeZone() {
+		DateTimeZone.setDefault(defaultZone);
+	}
+
+	private final long[] timestamps = new long[20 * 24 * 60];
+	private final double[] values = new double[timestamps.length];
+	private final Rollups.RawSource rawSource = new Rollups.RawSource() {
+		@Override
+		public RollupAggregate aggregate(final String series, final long from, final long to) {
+			return bruteForce(from, to);
+		}
+	};
+
+	public RollupsTest() {
+		Random random = new Random(42);
+		for (int i = 0; i < timestamps.length; i++) {
+			timestamps[i] = FROM + i * MINUTE + random.nextInt(60 * 1000);
+			values[i] = random.nextGaussian() * 100;
+		}
+	}
+
+	@Test
+	public void aggregateShouldBeSameAsAggregatingEveryValue() {
+		InMemoryRollupStore store = new InMemoryRollupStore();
+		Rollups rollups = new Rollups(store, ShardingFrequency.DAILY, ShardingFrequency.MINUTELY, ShardingFrequency.HOURLY);
+		rollups.addAll("series", timestamps, values);
+
+		Random random = new Random(42);
+		for (int i = 0; i < 100; i++) {
+			long from = FROM + (long) (random.nextDouble() * 20 * DAY);
+			long to = from + (long) (random.nextDouble() * (FROM + 20 * DAY - from));
+			assertEquivalent(rollups.aggregate("series", from, to, rawSource), bruteForce(from, to));
+		}
+	}
+
+	@Test
+	public void addShouldBeEquivalentToAddAll() {
+		InMemoryRollupStore store = new InMemoryRollupStore();
+		Rollups rollups = new Rollups(store, ShardingFrequency.HOURLY, ShardingFrequency.DAILY);
+		for (int i = 0; i < timestamps.length; i++) {
+			rollups.add("series", timestamps[i], values[i]);
+		}
+		InMemoryRollupStore bulkStore = new InMemoryRollupStore();
+		new Rollups(bulkStore, ShardingFrequency.HOURLY, ShardingFrequency.DAILY).addAll("series", timestamps, values);
+
+		assertThat(bulkStore.size(), is(store.size()));
+		for (long bucket : ShardingFrequency.getBuckets(FROM, FROM + 20 * DAY, ShardingFrequency.HOURLY)) {
+			RollupAggregate expected = store.get("series", ShardingFrequency.HOURLY, bucket);
+			RollupAggregate actual = bulkStore.get("series", ShardingFrequency.HOURLY, bucket);
+			assertEquivalent(actual, expected);
+		}
+	}
+
+	@Test
+	public void planShouldUseCoarsestBucketsFullyCoveredAndFinerBucketsAtTheEdges() {
+		Rollups rollups = new Rollups(new InMemoryRollupStore(), ShardingFrequency.MINUTELY, ShardingFrequency.HOURLY, ShardingFrequency.DAILY);
+		long from = FROM; // Wed Jun 5 19:24:44.678 BST 2013
+		long to = FROM + 30 * DAY;
+
+		List<Rollups.Segment> segments = rollups.plan(from, to);
+
+		// 1 raw edge, 35 minutes, 4 hours, 29 days, 19 hours, 24 minutes, 1 raw edge:
+		assertThat(segments.size(), is(1 + 35 + 4 + 29 + 19 + 24 + 1));
+		assertThat(segments.get(0).isRaw(), is(true));
+		assertThat(segments.get(0).getFrom(), is(from));
+		assertThat(segments.get(1).getFrequency(), is(ShardingFrequency.MINUTELY));
+		assertThat(segments.get(1 + 35 + 4).getFrequency(), is(ShardingFrequency.DAILY));
+		assertThat(segments.get(segments.size() - 1).isRaw(), is(true));
+		assertThat(segments.get(segments.size() - 1).getTo(), is(to));
+		for (int i = 1; i < segments.size(); i++) {
+			assertThat(segments.get(i).getFrom(), is(segments.get(i - 1).getTo() + 1));
+		}
+	}
+
+	@Test
+	public void planShouldOnlyUseRawValuesWhenRangeIsShorterThanFinestBucket() {
+		Rollups rollups = new Rollups(new InMemoryRollupStore(), ShardingFrequency.HOURLY);
+
+		List<Rollups.Segment> segments = rollups.plan(FROM, FROM + MINUTE);
+
+		assertThat(segments.size(), is(1));
+		assertThat(segments.get(0).isRaw(), is(true));
+	}
+
+	@Test
+	public void planShouldNotNeedRawValuesWhenRangeIsAlignedOnBuckets() {
+		Rollups rollups = new Rollups(new InMemoryRollupStore(), ShardingFrequency.HOURLY, ShardingFrequency.DAILY);
+		long from = ShardingFrequency.calculateBucket(FROM, ShardingFrequency.HOURLY);
+		long to = from + 3 * DAY - 1;
+
+		for (Rollups.Segment segment : rollups.plan(from, to)) {
+			assertThat(segment.isRaw(), is(false));
+		}
+		assertThat(rollups.plan(from, to).size(), lessThan(3 + 2 * 24));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void monthlyRollupsShouldNotBeSupported() {
+		new Rollups(new InMemoryRollupStore(), ShardingFrequency.DAILY, ShardingFrequency.MONTHLY);
+	}
+
+	private RollupAggregate bruteForce(final long from, final long to) {
+		RollupAggregate aggregate = new RollupAggregate();
+		for (int i = 0; i < timestamps.length; i++) {
+			if ((timestamps[i] >= from) && (timestamps[i] <= to))
+				aggregate.add(values[i]);
+		}
+		return aggregate;
+	}
+
+	private static void assertEquivalent(final RollupAggregate actual, final RollupAggregate expected) {
+		assertThat(actual.getCount(), is(expected.getCount()));
+		assertThat(actual.getMin(), is(expected.getMin()));
+		assertThat(actual.getMax(), is(expected.getMax()));
+		assertThat(actual.getSum(), is(closeTo(expected.getSum(), 1e-6)));
+	}
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class RowSizeMonitorTest {
+	// Wed Jun 5 19:00:00 BST 2013 in London, but calculated so that hourly buckets are aligned in any time zone:
+	private static final long BUCKET = ShardingFrequency.calculateBucket(1370456684678L, ShardingFrequency.HOURLY);
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	@Test
+	public void rowsShouldBeRecordedIntoHistogramsOnceTheirBucketIsClosed() {
+		RowSizeMonitor monitor = new RowSizeMonitor(ShardingFrequency.HOURLY);
+		for (int i = 0; i < 100; i++) {
+			monitor.record("series-" + i, BUCKET, 36 * (i + 1), 1000 * (i + 1));
+		}
+		monitor.record("series-0", BUCKET + HOUR, 1, 1000);
+
+		monitor.closeRows(BUCKET + HOUR);
+
+		assertThat(monitor.getRowSizes().getCount(), is(100L));
+		assertThat(monitor.getRowSizes().getValueAtPercentile(100), is(100000L));
+		assertThat((double) monitor.getRowColumnCounts().getValueAtPercentile(50), is(closeTo(36 * 50, 36 * 50 / 64.0)));
+		assertThat(monitor.getRowWritesPerSecond().getValueAtPercentile(100), is(1L));
+		assertThat(monitor.getLargestOpenRows(BUCKET + HOUR), is(new String[] { "series-0/" + (BUCKET + HOUR) + ": 1000 bytes (1 columns)" }));
+	}
+
+	@Test
+	public void largestOpenRowsShouldBeListedFromTheLargest() {
+		RowSizeMonitor monitor = new RowSizeMonitor(ShardingFrequency.HOURLY, 1000000L, 2);
+		monitor.record("small", BUCKET, 1, 10);
+		monitor.record("large", BUCKET, 1, 1000);
+		monitor.record("medium", BUCKET, 1, 100);
+		monitor.record("large", BUCKET, 1, 1000);
+
+		assertThat(monitor.getLargestOpenRows(BUCKET + 1), is(new String[] { "large/" + BUCKET + ": 2000 bytes (2 columns)",
+				"medium/" + BUCKET + ": 100 bytes (1 columns)" }));
+	}
+
+	@Test
+	public void rowsShouldBeFlaggedWhenProjectedToExceedMaximumSize() {
+		RowSizeMonitor monitor = new RowSizeMonitor(ShardingFrequency.HOURLY, 1000000L, 10);
+		monitor.record("fast", BUCKET, 1000, 300000);
+		monitor.record("slow", BUCKET, 1000, 200000);
+
+		assertThat(monitor.projectSize("fast", BUCKET, BUCKET + 60 * 1000L), is(-1L)); // Too early to tell.
+		assertThat(monitor.getRowsProjectedToOverflow(BUCKET + 60 * 1000L).length, is(0));
+		assertThat(monitor.projectSize("fast", BUCKET, BUCKET + HOUR / 4), is(1200000L));
+		assertThat(monitor.projectSize("slow", BUCKET, BUCKET + HOUR / 4), is(800000L));
+		assertThat(monitor.getRowsProjectedToOverflow(BUCKET + HOUR / 4), is(new String[] { "fast/" + BUCKET + ": 1200000 bytes projected" }));
+	}
+
+	@Test
+	public void writesToClosedRowsShouldNotBeCountedNorRecordRowsAgain() {
+		RowSizeMonitor monitor = new RowSizeMonitor(ShardingFrequency.HOURLY);
+		assertThat(monitor.record("series", BUCKET, 1, 100), is(true));
+		monitor.closeRows(BUCKET + HOUR);
+
+		assertThat(monitor.record("series", BUCKET, 1, 100), is(false));
+		monitor.closeRows(BUCKET + 2 * HOUR);
+
+		assertThat(monitor.getRowSizes().getCount(), is(1L));
+		assertThat(monitor.getRowSizes().getMax(), is(100L));
+		assertThat(monitor.getLateWriteCount(), is(1L));
+	}
+
+	@Test
+	public void rowsShouldOnlyBeClosedOnceGracePeriodHasElapsed() {
+		RowSizeMonitor monitor = new RowSizeMonitor(ShardingFrequency.HOURLY, 1000000L, 10, 10 * 60 * 1000L);
+		monitor.record("series", BUCKET, 1, 100);
+
+		monitor.closeRows(BUCKET + HOUR + 5 * 60 * 1000L);
+		assertThat(monitor.record("series", BUCKET, 1, 100), is(true)); // E.g. batched before the end of the bucket.
+		assertThat(monitor.getRowSizes().getCount(), is(0L));
+
+		monitor.closeRows(BUCKET + HOUR + 10 * 60 * 1000L);
+		assertThat(monitor.getRowSizes().getCount(), is(1L));
+		assertThat(monitor.getRowSizes().getMax(), is(200L));
+		assertThat(monitor.getLateWriteCount(), is(0L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeGracePeriodShouldBeRejected() {
+		new RowSizeMonitor(ShardingFrequency.HOURLY, 1000000L, 10, -1L);
+	}
+
+	@Test
+	public void concurrentWritesAndClosesShouldRecordEveryCountedWriteExactlyOnce() throws InterruptedException {
+		final RowSizeMonitor monitor = new RowSizeMonitor(ShardingFrequency.HOURLY);
+		final int numBuckets = 50;
+		final AtomicLong counted = new AtomicLong();
+		final AtomicLong countedRows = new AtomicLong();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			final String series = "series-" + i;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int bucket = 0; bucket < numBuckets; bucket++) {
+						long countedInRow = 0;
+						for (int j = 0; j < 2000; j++) {
+							if (monitor.record(series, BUCKET + bucket * HOUR, 1, 10))
+								countedInRow++;
+						}
+						counted.addAndGet(countedInRow);
+						if (countedInRow > 0)
+							countedRows.incrementAndGet();
+					}
+				}
+			});
+		}
+		threads.add(new Thread() {
+			@Override
+			public void run() {
+				for (int bucket = 1; bucket <= numBuckets; bucket++) {
+					monitor.closeRows(BUCKET + bucket * HOUR);
+					Thread.yield();
+				}
+			}
+		});
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		monitor.closeRows(BUCKET + (numBuckets + 1) * HOUR);
+
+		LogLinearHistogram columnCounts = monitor.getRowColumnCounts();
+		assertThat(columnCounts.getCount(), is(countedRows.get()));
+		assertThat(Math.round(columnCounts.getMean() * columnCounts.getCount()), is(counted.get()));
+		assertThat(counted.get() + monitor.getLateWriteCount(), is(4 * numBuckets * 2000L));
+	}
+
+	@Test
+	public void trackShouldRecordEachBatchWrittenBySink() {
+		RowSizeMonitor monitor = new RowSizeMonitor(ShardingFrequency.HOURLY);
+		final List<Long> written = new ArrayList<Long>();
+		BucketWriteSink<String, String> sink = monitor.track(new BucketWriteSink<String, String>() {
+			@Override
+			public void write(final String series, final long bucket, final List<UUID> columnNames, final List<String> values) {
+				written.add(bucket);
+			}
+		}, new Weigher<String>() {
+			@Override
+			public long weigh(final String value) {
+				return value.length();
+			}
+		});
+
+		sink.write("series", BUCKET, Arrays.asList(TimeUUID.toUUID(BUCKET), TimeUUID.toUUID(BUCKET + 1)), Arrays.asList("a", "bcd"));
+
+		assertThat(written, is(Arrays.asList(BUCKET)));
+		assertThat(monitor.getLargestOpenRows(BUCKET + 1), is(new String[] { "series/" + BUCKET + ": 36 bytes (2 columns)" }));
+	}
+
+	@Test
+	public void monitorShouldBeReadableThroughJmx() throws JMException {
+		RowSizeMonitor monitor = new RowSizeMonitor(ShardingFrequency.HOURLY);
+		long now = System.currentTimeMillis();
+		monitor.record("series", ShardingFrequency.calculateBucket(now, ShardingFrequency.HOURLY), 1, 42);
+		monitor.record("series", ShardingFrequency.calculateBucket(now - HOUR, ShardingFrequency.HOURLY), 1, 42);
+		monitor.register("test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("com.carmatech.cassandra:type=RowSizeMonitor,name=\"test\"");
+
+			assertThat((Integer) server.getAttribute(name, "OpenRowCount"), is(1));
+			assertThat((Long) server.getAttribute(name, "ClosedRowCount"), is(1L));
+			assertThat((Long) server.getAttribute(name, "RowSizeInBytesMax"), is(42L));
+			assertThat((Long) server.getAttribute(name, "LateWriteCount"), is(0L));
+			assertThat(((String[]) server.getAttribute(name, "LargestOpenRows")).length, is(1));
+		} finally {
+			monitor.unregister();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ShardingFrequencyEstimatorTest {
+	private static final long NOW = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+	private static final long MINUTE = 60 * 1000L;
+
+	@Test
+	public void writesAndBytesShouldOnlyBeCountedWithinTheWindow() {
+		ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator(60 * MINUTE, 60, ShardingFrequency.ROW_MAX_SIZE);
+		long now = ShardingFrequency.calculateBucket(NOW, ShardingFrequency.MINUTELY);
+		for (long timestamp = now - 120 * MINUTE; timestamp < now + MINUTE; timestamp += 1000L) {
+			estimator.record(timestamp, 100);
+		}
+
+		// The window is made of the slot of the provided timestamp, and the 59 previous ones:
+		assertThat(estimator.getWrites(now), is(60 * 60L));
+		assertThat(estimator.getBytes(now), is(60 * 60 * 100L));
+		assertThat(estimator.getWrites(now + 30 * MINUTE), is(30 * 60L));
+		assertThat(estimator.getWrites(now + 60 * MINUTE), is(0L));
+	}
+
+	@Test
+	public void recommendShouldBeSameAsCalculateFrequencyForObservedRate() {
+		ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator();
+		assertThat(estimator.recommend(NOW), is(nullValue()));
+
+		for (long timestamp = NOW - 60 * MINUTE; timestamp < NOW; timestamp += 100L) {
+			estimator.record(timestamp, 200);
+		}
+
+		assertThat(estimator.recommend(NOW), is(ShardingFrequency.calculateFrequency(200, 10, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void scheduleIfNeededShouldSwitchToFinerFrequencyAsSoonAsRowsAreTooLarge() {
+		ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator();
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.DAILY);
+		for (long timestamp = NOW - 60 * MINUTE; timestamp < NOW; timestamp += 100L) {
+			estimator.record(timestamp, 200); // 7.2 MB per hour, i.e. 172.8 MB per day.
+		}
+
+		long start = estimator.scheduleIfNeeded(schedule, NOW);
+
+		assertThat(start, is(ShardingFrequency.nextBucket(ShardingFrequency.calculateBucket(NOW, ShardingFrequency.HOURLY), ShardingFrequency.HOURLY)));
+		assertThat(schedule.frequencyAt(start), is(ShardingFrequency.HOURLY));
+		assertThat(estimator.scheduleIfNeeded(schedule, NOW), is(Long.MIN_VALUE)); // Already pending.
+	}
+
+	@Test
+	public void estimatorsSharingScheduleShouldScheduleChangeOnceWithoutFailing() throws InterruptedException {
+		final ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.DAILY);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger scheduled = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator();
+			for (long timestamp = NOW - 60 * MINUTE; timestamp < NOW; timestamp += 100L) {
+				estimator.record(timestamp, 200); // Daily rows would be too large.
+			}
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						if (estimator.scheduleIfNeeded(schedule, NOW) != Long.MIN_VALUE)
+							scheduled.incrementAndGet();
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(failure.get(), is(nullValue()));
+		assertThat(scheduled.get(), is(1));
+		assertThat(schedule.frequencyAt(schedule.getLastChange()), is(ShardingFrequency.HOURLY));
+	}
+
+	@Test
+	public void scheduleIfNeededShouldOnlySwitchToCoarserFrequencyIfRowsAreWellUnderMaximumSize() {
+		ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator(60 * MINUTE, 60, 10000L * 24);
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.HOURLY);
+		for (long timestamp = NOW - 60 * MINUTE; timestamp < NOW; timestamp += MINUTE) {
+			estimator.record(timestamp, 10000L / 60); // 10 kB per hour, i.e. 240 kB per day: daily rows would be almost full.
+		}
+		assertThat(estimator.recommend(NOW), is(ShardingFrequency.DAILY));
+		assertThat(estimator.scheduleIfNeeded(schedule, NOW), is(Long.MIN_VALUE));
+
+		for (long timestamp = NOW - 60 * MINUTE; timestamp < NOW; timestamp += MINUTE) {
+			estimator.record(timestamp + 30 * 1000L, -10000L / 60 / 2); // Halve the observed rate.
+		}
+		assertThat(estimator.scheduleIfNeeded(schedule, NOW), is(ShardingFrequency.nextBucket(ShardingFrequency.calculateBucket(NOW,
+				ShardingFrequency.DAILY), ShardingFrequency.DAILY)));
+	}
+
+	@Test
+	public void scheduleIfNeededShouldSwitchToCoarsestFrequencyWellUnderMaximumSizeEvenIfRecommendedOneIsNot() {
+		ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator(60 * MINUTE, 60, 1000000L);
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.SECONDLY);
+		for (long timestamp = NOW - 60 * MINUTE; timestamp < NOW; timestamp += MINUTE) {
+			estimator.record(timestamp, 800000L / 60); // 800 kB per hour: hourly rows would be almost full, minutely rows almost empty.
+		}
+		assertThat(estimator.recommend(NOW), is(ShardingFrequency.HOURLY));
+
+		long start = estimator.scheduleIfNeeded(schedule, NOW);
+
+		assertThat(start, is(ShardingFrequency.nextBucket(ShardingFrequency.calculateBucket(NOW, ShardingFrequency.MINUTELY),
+				ShardingFrequency.MINUTELY)));
+		assertThat(schedule.frequencyAt(start), is(ShardingFrequency.MINUTELY));
+	}
+
+	@Test
+	public void recommendShouldBeSecondlyWhenEvenSecondlyRowsWouldExceedMaximumSize() {
+		ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator(60 * MINUTE, 60, 1000L);
+		for (long timestamp = NOW - 60 * MINUTE; timestamp < NOW; timestamp += 100L) {
+			estimator.record(timestamp, 200); // 2 kB per second.
+		}
+
+		assertThat(estimator.recommend(NOW), is(ShardingFrequency.SECONDLY));
+	}
+
+	@Test
+	public void writesBeforeEpochShouldBeCountedWithinTheWindow() {
+		ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator(60 * MINUTE, 60, ShardingFrequency.ROW_MAX_SIZE);
+		for (long timestamp = -90 * MINUTE; timestamp < 0; timestamp += 1000L) {
+			estimator.record(timestamp, 100);
+		}
+
+		assertThat(estimator.getWrites(-1L), is(60 * 60L));
+		assertThat(estimator.getWrites(30 * MINUTE - 1L), is(30 * 60L));
+	}
+
+	@Test
+	public void concurrentWritesShouldAllBeCounted() throws InterruptedException {
+		final ShardingFrequencyEstimator estimator = new ShardingFrequencyEstimator();
+		for (int i = 0; i < 60; i++) {
+			estimator.record(NOW - i * MINUTE, 0); // Claim every slot of the window upfront.
+		}
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						estimator.record(NOW - (j % 60) * MINUTE, 1);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(estimator.getBytes(NOW), is(8 * 100000L));
+	}
+}
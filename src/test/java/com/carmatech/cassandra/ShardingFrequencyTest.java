@@ -23,9 +23,14 @@ import static org.hamcrest.Matchers.nullValue;
 
 import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import org.joda.time.DateTimeZone;
+import org.joda.time.MutableDateTime;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
 /**
@@ -35,6 +40,20 @@ import org.junit.Test;
  * -2) Hourly — 3600 / (1 / 10) * 200 = 7200000 (7.2 MB) --> ideal size.
  */
 public class ShardingFrequencyTest {
+	private DateTimeZone defaultZone;
+
+	@Before
+	public void pinDefaultTimeZone() {
+		// Expected buckets below are in London time, e.g. around its daylight saving time transitions:
+		defaultZone = DateTimeZone.getDefault();
+		DateTimeZone.setDefault(DateTimeZone.forID("Europe/London"));
+	}
+
+	@After
+	public void restoreDefaultTimeZone() {
+		DateTimeZone.setDefault(defaultZone);
+	}
+
 	@Test
 	public void calculateShardingFrequencyFromQueryVolumeDetailsAndSpecifiedRowMaxSize() {
 		long averageSizeInBytes = 200L;
@@ -93,4 +112,169 @@ public class ShardingFrequencyTest {
 				1370538000000L, 1370541600000L));
 		assertThat(buckets, equalTo(expectedSet));
 	}
+
+	@Test
+	public void getBucketsShouldNotSkipShorterMonths() {
+		long from = 1359633600000L; // Thu Jan 31 12:00:00 GMT 2013
+		long to = 1364900400000L; // Tue Apr 2 12:00:00 BST 2013
+
+		Set<Long> buckets = ShardingFrequency.getBuckets(from, to, ShardingFrequency.MONTHLY);
+
+		// Jan 1, Feb 1, Mar 1 and Apr 1 2013:
+		assertThat(buckets, equalTo((Set<Long>) new LinkedHashSet<Long>(Arrays.asList(1356998400000L, 1359676800000L, 1362096000000L, 1364770800000L))));
+	}
+
+	@Test
+	public void getBucketsShouldGenerateEveryDayAcrossDaylightSavingTimeTransition() {
+		long from = 1364644800000L; // Sat Mar 30 12:00:00 GMT 2013
+		long to = 1364814000000L; // Mon Apr 1 12:00:00 BST 2013
+
+		Set<Long> buckets = ShardingFrequency.getBuckets(from, to, ShardingFrequency.DAILY);
+
+		// Mar 30, Mar 31 (only 23 hours long) and Apr 1 2013:
+		assertThat(buckets, equalTo((Set<Long>) new LinkedHashSet<Long>(Arrays.asList(1364601600000L, 1364688000000L, 1364770800000L))));
+	}
+
+	@Test
+	public void nextBucketShouldBeTheBucketOfTheFirstTimestampAfterTheBucket() {
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			long step = Math.min(frequency.toMillis(), TimeUnit.HOURS.toMillis(1));
+			for (long timestamp : randomTimestamps(200)) {
+				long bucket = ShardingFrequency.calculateBucket(timestamp, frequency);
+				long next = timestamp;
+				while (ShardingFrequency.calculateBucket(next, frequency) == bucket) {
+					next += step;
+				}
+				assertThat(ShardingFrequency.nextBucket(bucket, frequency), is(ShardingFrequency.calculateBucket(next, frequency)));
+			}
+		}
+	}
+
+	@Test
+	public void calculateBucketsShouldBeEquivalentToCalculateBucketForEachTimestamp() {
+		long[] timestamps = randomTimestamps(10000);
+
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			assertBulkEquivalentToPerElement(timestamps, frequency);
+		}
+	}
+
+	@Test
+	public void calculateBucketsShouldBeEquivalentToCalculateBucketForEachTimestampInFixedTimeZones() {
+		long[] timestamps = randomTimestamps(10000);
+		DateTimeZone defaultZone = DateTimeZone.getDefault();
+
+		try {
+			for (DateTimeZone zone : Arrays.asList(DateTimeZone.UTC, DateTimeZone.forOffsetHoursMinutes(5, 30), DateTimeZone.forOffsetHours(-8))) {
+				DateTimeZone.setDefault(zone);
+				for (ShardingFrequency frequency : ShardingFrequency.values()) {
+					assertBulkEquivalentToPerElement(timestamps, frequency);
+				}
+			}
+		} finally {
+			DateTimeZone.setDefault(defaultZone);
+		}
+	}
+
+	@Test
+	public void calculateBucketsShouldBeEquivalentToCalculateBucketAroundDaylightSavingTimeTransitions() {
+		long springForward = 1364691600000L; // Sun Mar 31 01:00:00 GMT 2013 -> 02:00:00 BST
+		long fallBack = 1382835600000L; // Sun Oct 27 02:00:00 BST 2013 -> 01:00:00 GMT
+		long[] timestamps = new long[2 * 4 * 3600];
+		for (int i = 0; i < 4 * 3600; i++) {
+			timestamps[2 * i] = springForward - 2 * 3600 * 1000L + i * 1000L + 123;
+			timestamps[2 * i + 1] = fallBack - 2 * 3600 * 1000L + i * 1000L + 456;
+		}
+
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			assertBulkEquivalentToPerElement(timestamps, frequency);
+		}
+	}
+
+	@Test
+	public void calculateBucketsShouldAcceptSameArrayForTimestampsAndBuckets() {
+		long now = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+		long[] timestamps = new long[] { now, now + 3600 * 1000L };
+
+		ShardingFrequency.calculateBuckets(timestamps, ShardingFrequency.HOURLY, timestamps);
+
+		assertThat(timestamps[0], is(1370455200000L)); // Wed Jun 5 19:00:00 BST 2013
+		assertThat(timestamps[1], is(1370458800000L)); // Wed Jun 5 20:00:00 BST 2013
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void calculateBucketsIntoTooSmallArrayShouldFail() {
+		ShardingFrequency.calculateBuckets(new long[2], ShardingFrequency.HOURLY, new long[1]);
+	}
+
+	@Test
+	public void comparePerformanceOfBulkAndPerElementBucketCalculation() {
+		final long[] timestamps = randomTimestamps(1000000);
+		final long[] buckets = new long[timestamps.length];
+
+		for (ShardingFrequency frequency : Arrays.asList(ShardingFrequency.SECONDLY, ShardingFrequency.HOURLY)) {
+			// Warm-up:
+			for (int run = 0; run < 5; run++) {
+				calculateBucketsOneByOne(timestamps, frequency, buckets);
+				ShardingFrequency.calculateBuckets(timestamps, frequency, buckets);
+			}
+
+			long begin = System.nanoTime();
+			calculateBucketsOneByOne(timestamps, frequency, buckets);
+			System.out.println("Per-element (" + frequency + "): " + (System.nanoTime() - begin) / 1000000 + " ms.");
+
+			begin = System.nanoTime();
+			ShardingFrequency.calculateBuckets(timestamps, frequency, buckets);
+			System.out.println("Bulk (" + frequency + "): " + (System.nanoTime() - begin) / 1000000 + " ms.");
+		}
+	}
+
+	private static void assertBulkEquivalentToPerElement(final long[] timestamps, final ShardingFrequency frequency) {
+		long[] buckets = new long[timestamps.length];
+		ShardingFrequency.calculateBuckets(timestamps, frequency, buckets);
+
+		for (int i = 0; i < timestamps.length; i++) {
+			String reason = "Bucket for [" + timestamps[i] + "] at " + frequency + " in " + DateTimeZone.getDefault();
+			assertThat(reason, ShardingFrequency.calculateBucket(timestamps[i], frequency), is(calendarBucket(timestamps[i], frequency)));
+			assertThat(reason, buckets[i], is(ShardingFrequency.calculateBucket(timestamps[i], frequency)));
+		}
+	}
+
+	/**
+	 * Reference implementation, truncating the timestamp field by field using Joda Time's calendar.
+	 */
+	private static long calendarBucket(final long timestamp, final ShardingFrequency frequency) {
+		final MutableDateTime dateTime = new MutableDateTime(timestamp);
+
+		if (frequency.compareTo(ShardingFrequency.SECONDLY) >= 0)
+			dateTime.setMillisOfSecond(0);
+		if (frequency.compareTo(ShardingFrequency.MINUTELY) >= 0)
+			dateTime.setSecondOfMinute(0);
+		if (frequency.compareTo(ShardingFrequency.HOURLY) >= 0)
+			dateTime.setMinuteOfHour(0);
+		if (frequency.compareTo(ShardingFrequency.DAILY) >= 0)
+			dateTime.setHourOfDay(0);
+		if (frequency.compareTo(ShardingFrequency.WEEKLY) >= 0)
+			dateTime.setDayOfWeek(1);
+		if (frequency.compareTo(ShardingFrequency.MONTHLY) >= 0)
+			dateTime.setDayOfMonth(1);
+
+		return dateTime.getMillis();
+	}
+
+	private static void calculateBucketsOneByOne(final long[] timestamps, final ShardingFrequency frequency, final long[] buckets) {
+		for (int i = 0; i < timestamps.length; i++) {
+			buckets[i] = ShardingFrequency.calculateBucket(timestamps[i], frequency);
+		}
+	}
+
+	private static long[] randomTimestamps(final int size) {
+		Random random = new Random(42);
+		long[] timestamps = new long[size];
+		for (int i = 0; i < size; i++) {
+			// Anything between 1950 and 2090, to also cover timestamps before epoch:
+			timestamps[i] = -631152000000L + (long) (random.nextDouble() * 4417977600000L);
+		}
+		return timestamps;
+	}
 }
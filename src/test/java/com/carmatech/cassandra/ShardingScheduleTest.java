@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardingScheduleTest {
+	private static final long FROM = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+	private static final long MIDNIGHT = 1370473200000L; // Thu Jun 6 00:00:00 BST 2013
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DateTimeZone defaultZone;
+
+	@Before
+	public void pinDefaultTimeZone() {
+		// Expected buckets below are in London time:
+		defaultZone = DateTimeZone.getDefault();
+		DateTimeZone.setDefault(DateTimeZone.forID("Europe/London"));
+	}
+
+	@After
+	public void restoreDefaultTimeZone() {
+		DateTimeZone.setDefault(defaultZone);
+	}
+
+	@Test
+	public void changeToCoarserFrequencyShouldWaitForBoundaryOfCoarserFrequency() {
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.HOURLY);
+
+		assertThat(schedule.schedule(ShardingFrequency.DAILY, FROM), is(MIDNIGHT));
+		assertThat(schedule.frequencyAt(MIDNIGHT - 1), is(ShardingFrequency.HOURLY));
+		assertThat(schedule.frequencyAt(MIDNIGHT), is(ShardingFrequency.DAILY));
+		assertThat(schedule.calculateBucket(MIDNIGHT - 1), is(MIDNIGHT - 60 * 60 * 1000L));
+		assertThat(schedule.calculateBucket(MIDNIGHT + 42 * 60 * 1000L), is(MIDNIGHT));
+	}
+
+	@Test
+	public void changeToFinerFrequencyShouldOnlyWaitForBoundaryOfFinerFrequency() {
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.DAILY);
+
+		assertThat(schedule.schedule(ShardingFrequency.HOURLY, FROM), is(1370458800000L)); // Wed Jun 5 20:00:00 BST 2013
+	}
+
+	@Test
+	public void getBucketsShouldEnumerateBucketsOfEachFrequency() {
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.HOURLY);
+		schedule.schedule(ShardingFrequency.DAILY, FROM);
+
+		// From Wed Jun 5 20:30:00 BST 2013 to Sat Jun 8 12:00:00 BST 2013:
+		assertThat(schedule.getBuckets(1370458800000L + 30 * 60 * 1000L, 1370689200000L), is((Set<Long>) new LinkedHashSet<Long>(Arrays.asList(1370458800000L,
+				1370462400000L, 1370466000000L, 1370469600000L, MIDNIGHT, 1370559600000L, 1370646000000L))));
+		assertThat(schedule.getBuckets(MIDNIGHT + 1, MIDNIGHT + 2), is((Set<Long>) new LinkedHashSet<Long>(Arrays.asList(MIDNIGHT))));
+		assertThat(schedule.getBuckets(FROM, FROM), is((Set<Long>) new LinkedHashSet<Long>(Arrays.asList(1370455200000L))));
+	}
+
+	@Test
+	public void rowsOfDifferentFrequenciesShouldNeverShareKeys() {
+		Random random = new Random(42);
+		for (ShardingFrequency current : ShardingFrequency.values()) {
+			for (ShardingFrequency next : ShardingFrequency.values()) {
+				if (current == next)
+					continue;
+				for (int i = 0; i < 20; i++) {
+					long notBefore = FROM + (long) (random.nextDouble() * 365 * 24 * 60 * 60 * 1000L);
+					ShardingSchedule schedule = new ShardingSchedule(current);
+					long start = schedule.schedule(next, notBefore);
+
+					assertThat(start, is(greaterThanOrEqualTo(notBefore)));
+					assertThat(ShardingFrequency.calculateBucket(start, next), is(greaterThan(ShardingFrequency.calculateBucket(start - 1, current))));
+					List<Long> buckets = new ArrayList<Long>(schedule.getBuckets(start - 2 * current.toMillis(), start + 2 * next.toMillis()));
+					assertThat(buckets.get(buckets.size() - 1), is(greaterThan(buckets.get(0))));
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void changesShouldBeScheduledInTimeOrder() {
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.HOURLY);
+		schedule.schedule(ShardingFrequency.DAILY, FROM);
+
+		schedule.schedule(ShardingFrequency.MINUTELY, FROM + 60 * 60 * 1000L);
+	}
+
+	@Test
+	public void scheduleIfNoPendingChangeShouldOnlyScheduleWhenNoChangeIsPending() {
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.HOURLY);
+		long daily = schedule.scheduleIfNoPendingChange(ShardingFrequency.DAILY, FROM);
+
+		assertThat(schedule.scheduleIfNoPendingChange(ShardingFrequency.MINUTELY, FROM), is(Long.MIN_VALUE));
+		assertThat(schedule.getLastChange(), is(daily));
+		assertThat(schedule.scheduleIfNoPendingChange(ShardingFrequency.MINUTELY, daily + 1) > daily, is(true));
+	}
+
+	@Test
+	public void scheduleShouldBeIdenticalOnceSavedAndLoaded() throws IOException {
+		File file = new File(folder.getRoot(), "schedule.txt");
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.HOURLY);
+		long daily = schedule.schedule(ShardingFrequency.DAILY, FROM);
+		long minutely = schedule.schedule(ShardingFrequency.MINUTELY, daily + 42 * 60 * 60 * 1000L);
+		schedule.save(file);
+
+		ShardingSchedule loaded = ShardingSchedule.load(file);
+
+		assertThat(loaded.getLastChange(), is(minutely));
+		assertThat(loaded.getBuckets(FROM, minutely + 60 * 60 * 1000L), is(schedule.getBuckets(FROM, minutely + 60 * 60 * 1000L)));
+	}
+
+	@Test
+	public void saveShouldReplacePreviousVersionOfSchedule() throws IOException {
+		File file = new File(folder.getRoot(), "schedule.txt");
+		ShardingSchedule schedule = new ShardingSchedule(ShardingFrequency.HOURLY);
+		schedule.save(file);
+		long daily = schedule.schedule(ShardingFrequency.DAILY, FROM);
+
+		schedule.save(file);
+
+		assertThat(ShardingSchedule.load(file).getLastChange(), is(daily));
+		assertThat(new File(folder.getRoot(), "schedule.txt.tmp").exists(), is(false));
+	}
+
+	@Test(expected = IOException.class)
+	public void loadShouldRejectInvalidSchedules() throws IOException {
+		File file = folder.newFile("invalid.txt");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write((Long.MIN_VALUE + " HOURLY\n42 FORTNIGHTLY\n").getBytes("UTF-8"));
+		out.close();
+
+		ShardingSchedule.load(file);
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimeIdTest {
+	private static final long TIMESTAMP = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+	private static final int NODE = 42;
+
+	@Before
+	public void setNode() {
+		TimeId.setNode(NODE);
+	}
+
+	@Test
+	public void createIdAndConvertIdBackToTimestamp() {
+		TimeId.reset(); // Other tests may have generated IDs ahead of the clock.
+		long expectedTimestamp = System.currentTimeMillis();
+
+		long id = TimeId.createId(expectedTimestamp);
+
+		assertThat(TimeId.toMillis(id), is(expectedTimestamp));
+		assertThat(TimeId.toNode(id), is(NODE));
+		assertThat(id, is(greaterThan(0L)));
+		assertThat(TimeId.toMillis(TimeId.toId(TIMESTAMP)), is(TIMESTAMP));
+	}
+
+	@Test
+	public void sequenceOverflowsIntoNextMillisecond() {
+		TimeId.reset();
+		long now = System.currentTimeMillis();
+
+		long previous = Long.MIN_VALUE;
+		for (int i = 0; i < 4096; i++) {
+			long id = TimeId.createId(now);
+			assertThat(TimeId.toMillis(id), is(now));
+			assertThat(id, is(greaterThan(previous)));
+			previous = id;
+		}
+		long overflow = TimeId.createId(now);
+
+		assertThat(TimeId.toMillis(overflow), is(now + 1));
+		assertThat(overflow, is(greaterThan(previous)));
+		assertThat(TimeId.toNode(overflow), is(NODE));
+	}
+
+	@Test
+	public void idsAreUniqueAndIncreasingAcrossThreads() throws Exception {
+		final int numThreads = 8;
+		final int numIds = 50000;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+			for (int i = 0; i < numThreads; i++) {
+				futures.add(executor.submit(new Callable<long[]>() {
+					@Override
+					public long[] call() {
+						long[] ids = new long[numIds];
+						for (int j = 0; j < numIds; j++) {
+							ids[j] = TimeId.createId();
+						}
+						return ids;
+					}
+				}));
+			}
+
+			Set<Long> unique = new HashSet<Long>();
+			for (Future<long[]> future : futures) {
+				long[] ids = future.get();
+				for (int j = 0; j < ids.length; j++) {
+					if (j > 0)
+						assertThat(ids[j], is(greaterThan(ids[j - 1])));
+					unique.add(ids[j]);
+				}
+			}
+			assertThat(unique.size(), is(numThreads * numIds));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void minAndMaxIdsAreTheBoundsOfAllIdsGeneratedForTheSameTimestamp() {
+		long id = TimeId.toId(TIMESTAMP);
+
+		assertThat(TimeId.minId(TIMESTAMP), is(lessThan(id)));
+		assertThat(TimeId.maxId(TIMESTAMP), is(greaterThan(id)));
+		assertThat(TimeId.maxId(TIMESTAMP - 1), is(lessThan(TimeId.minId(TIMESTAMP))));
+		assertThat(TimeId.maxId(TIMESTAMP) + 1, is(TimeId.minId(TIMESTAMP + 1)));
+		assertThat(TimeId.toMillis(TimeId.maxId(TIMESTAMP)), is(TIMESTAMP));
+	}
+
+	@Test
+	public void bucketOfIsEquivalentToToMillisThenCalculateBucket() {
+		long[] ids = new long[] { TimeId.toId(TIMESTAMP), TimeId.toId(TIMESTAMP + 3600000L) };
+
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			assertThat(TimeId.bucketOf(ids[0], frequency), is(ShardingFrequency.calculateBucket(TIMESTAMP, frequency)));
+		}
+
+		TimeId.bucketsOf(ids, ShardingFrequency.HOURLY, ids);
+		assertThat(ids[0], is(ShardingFrequency.calculateBucket(TIMESTAMP, ShardingFrequency.HOURLY)));
+		assertThat(ids[1], is(ShardingFrequency.calculateBucket(TIMESTAMP + 3600000L, ShardingFrequency.HOURLY)));
+	}
+
+	@Test
+	public void explicitNodeIsUsedByGeneratedIds() {
+		TimeId.setNode(511);
+		assertThat(TimeId.getNode(), is(511));
+		assertThat(TimeId.toNode(TimeId.createId()), is(511));
+		assertThat(TimeId.toMillis(TimeId.toId(TIMESTAMP)), is(TIMESTAMP));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void idsCannotBeGeneratedBeforeNodeIsSet() {
+		TimeId.resetNode();
+		try {
+			TimeId.createId();
+		} finally {
+			TimeId.setNode(NODE);
+		}
+	}
+
+	@Test
+	public void failedCallsShouldNotAdvanceSequence() {
+		TimeId.reset();
+		long first = TimeId.createId(TIMESTAMP);
+		TimeId.resetNode();
+		for (int i = 0; i < 10000; i++) {
+			try {
+				TimeId.createId(TIMESTAMP);
+			} catch (IllegalStateException e) {
+				// Expected, as the node is not set.
+			}
+		}
+		TimeId.setNode(NODE);
+
+		assertThat(TimeId.createId(TIMESTAMP), is(first + 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nodeMustFitInNineBits() {
+		TimeId.setNode(512);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void timestampsBeforeEpochAreRejected() {
+		TimeId.toId(-1);
+	}
+}
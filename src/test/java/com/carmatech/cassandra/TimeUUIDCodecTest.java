@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class TimeUUIDCodecTest {
+	private static final long TIMESTAMP = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+
+	@Test
+	public void sortedUUIDsSharingClockSeqAndNodeAreEncodedInAFewBytesEach() {
+		List<UUID> uuids = new ArrayList<UUID>();
+		for (int i = 0; i < 1000; i++) {
+			uuids.add(TimeUUID.toUUID(TIMESTAMP + i));
+		}
+
+		ByteBuffer encoded = TimeUUIDCodec.encode(uuids);
+
+		assertThat(encoded.remaining(), is(lessThan(16 * 1000 / 5)));
+		assertThat(encoded.remaining(), is(TimeUUIDCodec.encodedSize(uuids)));
+		assertThat(TimeUUIDCodec.decode(encoded), is(uuids));
+	}
+
+	@Test
+	public void uuidsWithDifferentClockSeqAndNodeOrOutOfOrderAreDecodedExactly() {
+		List<UUID> uuids = new ArrayList<UUID>();
+		uuids.add(TimeUUID.toUUID(TIMESTAMP));
+		uuids.add(TimeUUID.maxUUID(TIMESTAMP + 5));
+		uuids.add(TimeUUID.toUUID(TIMESTAMP + 3));
+		uuids.add(TimeUUID.minUUID(TIMESTAMP - 1000));
+		uuids.add(TimeUUID.toUUID(TIMESTAMP + 3));
+		uuids.add(new UUID(TimeUUID.toUUID(TIMESTAMP).getMostSignificantBits(), -1L));
+
+		ByteBuffer encoded = TimeUUIDCodec.encode(uuids);
+
+		assertThat(encoded.remaining(), is(TimeUUIDCodec.encodedSize(uuids)));
+		assertThat(TimeUUIDCodec.decode(encoded), is(uuids));
+	}
+
+	@Test
+	public void emptySequenceIsEncodedToEmptyBlock() {
+		List<UUID> uuids = Collections.emptyList();
+
+		ByteBuffer encoded = TimeUUIDCodec.encode(uuids);
+
+		assertThat(encoded.remaining(), is(0));
+		assertThat(TimeUUIDCodec.decode(encoded), is(uuids));
+	}
+
+	@Test
+	public void decodeDoesNotModifyBufferPosition() {
+		ByteBuffer encoded = TimeUUIDCodec.encode(Collections.singletonList(TimeUUID.toUUID(TIMESTAMP)));
+
+		TimeUUIDCodec.decode(encoded);
+
+		assertThat(encoded.position(), is(0));
+	}
+
+	@Test
+	public void encoderStartsNewIndependentBlockOnceBufferIsFull() {
+		List<UUID> uuids = new ArrayList<UUID>();
+		for (int i = 0; i < 100; i++) {
+			uuids.add(TimeUUID.toUUID(TIMESTAMP + i * 1000L));
+		}
+
+		List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		TimeUUIDCodec.Encoder encoder = new TimeUUIDCodec.Encoder(buffer);
+		for (UUID uuid : uuids) {
+			if (!encoder.write(uuid)) {
+				int position = buffer.position();
+				assertThat(encoder.write(uuid), is(false));
+				assertThat(buffer.position(), is(position)); // Nothing written.
+
+				buffer.flip();
+				blocks.add(buffer);
+				buffer = ByteBuffer.allocate(64);
+				encoder.reset(buffer);
+				assertThat(encoder.write(uuid), is(true));
+			}
+		}
+		buffer.flip();
+		blocks.add(buffer);
+
+		List<UUID> decoded = new ArrayList<UUID>();
+		for (ByteBuffer block : blocks) {
+			TimeUUIDCodec.Decoder decoder = new TimeUUIDCodec.Decoder(block);
+			while (decoder.hasNext()) {
+				decoded.add(decoder.next());
+			}
+			assertThat(block.hasRemaining(), is(false));
+		}
+		assertThat(blocks.size() > 1, is(true));
+		assertThat(decoded, is(uuids));
+	}
+
+	@Test
+	public void varintsRoundTripOverTheWholeRange() {
+		long[] values = new long[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, -1 };
+		ByteBuffer buffer = ByteBuffer.allocate(10 * values.length);
+		int size = 0;
+		for (long value : values) {
+			TimeUUIDCodec.writeVarint(buffer, value);
+			size += TimeUUIDCodec.varintSize(value);
+			assertThat(buffer.position(), is(size));
+		}
+		buffer.flip();
+		for (long value : values) {
+			assertThat(TimeUUIDCodec.readVarint(buffer), is(value));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nonTimeUUIDsAreRejected() {
+		TimeUUIDCodec.encode(Collections.singletonList(UUID.randomUUID()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedFormatVersionIsRejected() {
+		TimeUUIDCodec.decode(ByteBuffer.wrap(new byte[] { 42, 0, 0, 0, 0, 0, 0, 0, 0 }));
+	}
+}
@@ -24,14 +24,23 @@ import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import me.prettyprint.cassandra.serializers.UUIDSerializer;
 import me.prettyprint.cassandra.utils.TimeUUIDUtils;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -238,6 +247,158 @@ public class TimeUUIDTest {
 		assertThat(t3, is(lessThan(t2)));
 	}
 
+	@Test
+	public void tryCreateUUIDReturnsNullInsteadOfRunningTooFarAhead() {
+		UUID latest = TimeUUID.createUUID();
+		long lastTimestamp = TimeUUID.CLOCK.getLastTimestamp();
+		long oneSecondAgo = TimeUUID.toMillis(latest) - 1000;
+
+		assertThat(TimeUUID.tryCreateUUID(oneSecondAgo, 500), is((UUID) null));
+		assertThat(TimeUUID.CLOCK.getLastTimestamp(), is(lastTimestamp)); // Nothing consumed.
+
+		UUID next = TimeUUID.tryCreateUUID(oneSecondAgo, 2000);
+		assertThat(TimeUUIDComparator.INSTANCE.compare(next, latest), is(greaterThan(0)));
+		assertThat((double) TimeUUID.getRunAheadMillis(), is(closeTo(0, TOLERANCE_IN_MS)));
+	}
+
+	@Test
+	public void uuidsGeneratedConcurrentlyInBulkAndOneByOneAreUnique() throws Exception {
+		final int numThreads = 4;
+		final int numUUIDs = 20000;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<UUID[]>> futures = new ArrayList<Future<UUID[]>>();
+			for (int i = 0; i < numThreads; i++) {
+				final boolean bulk = (i % 2 == 0);
+				futures.add(executor.submit(new Callable<UUID[]>() {
+					@Override
+					public UUID[] call() {
+						UUID[] uuids = new UUID[numUUIDs];
+						if (bulk) {
+							long[] timestamps = new long[100];
+							UUID[] batch = new UUID[timestamps.length];
+							for (int j = 0; j < numUUIDs; j += timestamps.length) {
+								Arrays.fill(timestamps, System.currentTimeMillis());
+								TimeUUID.createUUIDs(timestamps, batch);
+								System.arraycopy(batch, 0, uuids, j, batch.length);
+							}
+						} else {
+							for (int j = 0; j < numUUIDs; j++) {
+								uuids[j] = TimeUUID.createUUID();
+							}
+						}
+						return uuids;
+					}
+				}));
+			}
+
+			Set<UUID> unique = new HashSet<UUID>();
+			for (Future<UUID[]> future : futures) {
+				UUID[] uuids = future.get();
+				for (int j = 1; j < uuids.length; j++) {
+					assertThat(TimeUUIDComparator.INSTANCE.compare(uuids[j - 1], uuids[j]), is(lessThan(0)));
+				}
+				unique.addAll(Arrays.asList(uuids));
+			}
+			assertThat(unique.size(), is(numThreads * numUUIDs));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void toMillisInBulkIsEquivalentToToMillisForEachUUID() {
+		long t0 = new DateTime().getMillis();
+		UUID[] uuids = new UUID[1000];
+		long[] mostSignificantBits = new long[uuids.length];
+		for (int i = 0; i < uuids.length; i++) {
+			uuids[i] = TimeUUID.toUUID(t0 + i * 37);
+			mostSignificantBits[i] = uuids[i].getMostSignificantBits();
+		}
+
+		long[] millis = new long[uuids.length];
+		TimeUUID.toMillis(mostSignificantBits, millis);
+
+		for (int i = 0; i < uuids.length; i++) {
+			assertThat(millis[i], is(TimeUUID.toMillis(uuids[i])));
+		}
+	}
+
+	@Test
+	public void bucketOfIsEquivalentToToMillisThenCalculateBucket() {
+		long now = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+		UUID[] uuids = new UUID[100];
+		for (int i = 0; i < uuids.length; i++) {
+			uuids[i] = TimeUUID.toUUID(now + i * 1234567L);
+		}
+
+		for (ShardingFrequency frequency : ShardingFrequency.values()) {
+			long[] buckets = new long[uuids.length];
+			TimeUUID.bucketsOf(uuids, frequency, buckets);
+
+			for (int i = 0; i < uuids.length; i++) {
+				long expectedBucket = ShardingFrequency.calculateBucket(TimeUUID.toMillis(uuids[i]), frequency);
+				assertThat(TimeUUID.bucketOf(uuids[i], frequency), is(expectedBucket));
+				assertThat(buckets[i], is(expectedBucket));
+			}
+		}
+		DateTimeZone defaultZone = DateTimeZone.getDefault();
+		try {
+			DateTimeZone.setDefault(DateTimeZone.forID("Europe/London"));
+			assertThat(TimeUUID.bucketOf(TimeUUID.toUUID(now), ShardingFrequency.HOURLY), is(1370455200000L)); // Wed Jun 5 19:00:00 BST 2013
+		} finally {
+			DateTimeZone.setDefault(defaultZone);
+		}
+	}
+
+	@Test
+	public void bucketsOfMostSignificantBitsIsEquivalentToBucketOfEachUUID() {
+		long now = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+		long[] mostSignificantBits = new long[100];
+		for (int i = 0; i < mostSignificantBits.length; i++) {
+			mostSignificantBits[i] = TimeUUID.toUUID(now + i * 1234567L).getMostSignificantBits();
+		}
+
+		long[] buckets = new long[mostSignificantBits.length];
+		TimeUUID.bucketsOf(mostSignificantBits, ShardingFrequency.MINUTELY, buckets);
+
+		for (int i = 0; i < mostSignificantBits.length; i++) {
+			assertThat(buckets[i], is(TimeUUID.bucketOf(TimeUUID.toUUID(now + i * 1234567L), ShardingFrequency.MINUTELY)));
+		}
+	}
+
+	@Test
+	public void minAndMaxUUIDsAreTheBoundsOfAllUUIDsGeneratedForTheSameTimestamp() {
+		long timestamp = new DateTime().getMillis();
+		UUID min = TimeUUID.minUUID(timestamp);
+		UUID max = TimeUUID.maxUUID(timestamp);
+
+		assertThat(TimeUUID.toMillis(min), is(timestamp));
+		assertThat(TimeUUID.toMillis(max), is(timestamp));
+		for (int i = 0; i < 100; i++) {
+			UUID uuid = TimeUUID.createUUID(timestamp);
+			assertThat(TimeUUIDComparator.INSTANCE.compare(min, uuid), is(lessThan(0)));
+			assertThat(TimeUUIDComparator.INSTANCE.compare(uuid, max), is(lessThan(0)));
+		}
+		assertThat(TimeUUIDComparator.INSTANCE.compare(max, TimeUUID.minUUID(timestamp + 1)), is(lessThan(0)));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(TimeUUID.maxUUID(timestamp - 1), min), is(lessThan(0)));
+	}
+
+	@Test
+	public void timeUUIDComparatorOrdersByTimestampThenBySignedBytes() {
+		UUID earlier = TimeUUID.toUUID(1000L);
+		UUID later = TimeUUID.toUUID(2000L);
+		UUID withNegativeByte = new UUID(later.getMostSignificantBits(), 0x80FFFFFFFFFFFFFFL);
+		UUID withPositiveByte = new UUID(later.getMostSignificantBits(), 0x8100000000000000L);
+		UUID withHigherSecondByte = new UUID(later.getMostSignificantBits(), 0x8101000000000000L);
+		UUID withLowerSecondByte = new UUID(later.getMostSignificantBits(), 0x81F0000000000000L); // 0xF0 < 0x01 as signed bytes.
+
+		assertThat(TimeUUIDComparator.INSTANCE.compare(earlier, later), is(lessThan(0)));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(withNegativeByte, withPositiveByte), is(lessThan(0)));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(withLowerSecondByte, withHigherSecondByte), is(lessThan(0)));
+		assertThat(TimeUUIDComparator.INSTANCE.compare(later, later), is(0));
+	}
+
 	@Test
 	public void comparePerformanceToHector() throws Exception {
 		// Warm-up: to initialize all static members in all classes:
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TimestampCheckpointTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void newCheckpointHasNoHighWaterMark() throws IOException {
+		TimestampCheckpoint checkpoint = TimestampCheckpoint.open(new File(folder.getRoot(), "new.checkpoint"));
+		try {
+			assertThat(checkpoint.getHighWaterMark(), is(Long.MIN_VALUE));
+		} finally {
+			checkpoint.close();
+		}
+	}
+
+	@Test
+	public void reservedHighWaterMarkIsPersistedAcrossReopening() throws IOException {
+		File file = folder.newFile("reopen.checkpoint");
+		file.delete();
+
+		TimestampCheckpoint checkpoint = TimestampCheckpoint.open(file, 1000L);
+		assertThat(checkpoint.reserve(42L), is(42L + 1000L * 10000));
+		checkpoint.close();
+
+		checkpoint = TimestampCheckpoint.open(file, 1000L);
+		try {
+			assertThat(checkpoint.getHighWaterMark(), is(42L + 1000L * 10000));
+		} finally {
+			checkpoint.close();
+		}
+	}
+
+	@Test
+	public void clockRenewsReservationInBackgroundOnceHalfOfChunkIsUsed() throws Exception {
+		TimestampCheckpoint checkpoint = TimestampCheckpoint.open(new File(folder.getRoot(), "chunks.checkpoint"), 1L); // 10,000 x 100 ns
+		try {
+			MonotonicClock clock = new MonotonicClock();
+			clock.setCheckpoint(checkpoint);
+
+			// Nothing reserved yet, so the first timestamp waits for the reservation:
+			assertThat(clock.makeUnique(100000L), is(100000L));
+			assertThat(checkpoint.getHighWaterMark(), is(110000L));
+
+			for (int i = 1; i < 5000; i++) {
+				assertThat(clock.makeUnique(100000L), is(100000L + i));
+				assertThat(checkpoint.getHighWaterMark(), is(110000L));
+			}
+
+			// Half of the chunk is used: renewed in the background, while timestamps keep being issued from the current reservation.
+			assertThat(clock.makeUnique(100000L), is(105000L));
+			for (int i = 0; (i < 500) && (checkpoint.getHighWaterMark() == 110000L); i++) {
+				Thread.sleep(10L);
+			}
+			assertThat(checkpoint.getHighWaterMark(), is(greaterThanOrEqualTo(115000L)));
+		} finally {
+			checkpoint.close();
+		}
+	}
+
+	@Test
+	public void clockWaitsForReservationOnlyOnceItIsExhausted() throws IOException {
+		TimestampCheckpoint checkpoint = TimestampCheckpoint.open(new File(folder.getRoot(), "exhausted.checkpoint"), 1L); // 10,000 x 100 ns
+		try {
+			MonotonicClock clock = new MonotonicClock();
+			clock.setCheckpoint(checkpoint);
+			assertThat(clock.makeUnique(100000L), is(100000L));
+
+			long[] timestamps = new long[20000];
+			Arrays.fill(timestamps, 100000L);
+			clock.makeUnique(timestamps);
+
+			assertThat(timestamps[timestamps.length - 1], is(120000L));
+			assertThat(checkpoint.getHighWaterMark(), is(greaterThan(120000L)));
+		} finally {
+			checkpoint.close();
+		}
+	}
+
+	@Test
+	public void clockResumesFromCheckpointAfterRestartEvenIfSystemClockWentBackwards() throws IOException {
+		File file = new File(folder.getRoot(), "restart.checkpoint");
+		long now = UUIDTime.to100Ns(new DateTime().getMillis());
+
+		TimestampCheckpoint checkpoint = TimestampCheckpoint.open(file);
+		MonotonicClock beforeRestart = new MonotonicClock();
+		beforeRestart.setCheckpoint(checkpoint);
+		long lastIssued = 0;
+		for (int i = 0; i < 1000; i++) {
+			lastIssued = beforeRestart.makeUnique(now);
+		}
+		checkpoint.close();
+
+		checkpoint = TimestampCheckpoint.open(file);
+		try {
+			MonotonicClock afterRestart = new MonotonicClock();
+			afterRestart.setCheckpoint(checkpoint);
+
+			long clockWentBackwards = now - 60 * 1000 * 10000L; // 1 minute earlier
+			assertThat(afterRestart.makeUnique(clockWentBackwards), is(greaterThan(lastIssued)));
+		} finally {
+			checkpoint.close();
+		}
+	}
+
+	@Test
+	public void generatorsUseCheckpointWhenSet() throws IOException {
+		TimestampCheckpoint checkpoint = TimestampCheckpoint.open(new File(folder.getRoot(), "generator.checkpoint"));
+		try {
+			TimeUUID.setCheckpoint(checkpoint);
+			UUID uuid = TimeUUID.createUUID();
+
+			assertThat(checkpoint.getHighWaterMark(), is(greaterThan(uuid.timestamp())));
+		} finally {
+			TimeUUID.setCheckpoint(null);
+			checkpoint.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void sameCheckpointCannotBeOpenedTwice() throws IOException {
+		File file = new File(folder.getRoot(), "locked.checkpoint");
+		TimestampCheckpoint checkpoint = TimestampCheckpoint.open(file);
+		try {
+			TimestampCheckpoint.open(file);
+		} finally {
+			checkpoint.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void invalidCheckpointFileIsRejected() throws IOException {
+		File file = folder.newFile("invalid.checkpoint");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("this is not a checkpoint".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		TimestampCheckpoint.open(file);
+	}
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.prettyprint.cassandra.serializers.StringSerializer;
+
+import org.junit.Test;
+
+public class TokenRingTest {
+	private static final long FROM = 1370456684678L; // Wed Jun 5 19:24:44 BST 2013
+	private static final long TO = FROM + 24 * 60 * 60 * 1000L; // Thu Jun 6 19:24:44 BST 2013
+
+	private final TokenRing ring;
+
+	public TokenRingTest() {
+		Map<BigInteger, String> endpoints = new HashMap<BigInteger, String>();
+		endpoints.put(BigInteger.valueOf(-3000000000000000000L), "10.0.0.1");
+		endpoints.put(BigInteger.ZERO, "10.0.0.2");
+		endpoints.put(BigInteger.valueOf(3000000000000000000L), "10.0.0.3");
+		endpoints.put(BigInteger.valueOf(6000000000000000000L), "10.0.0.1"); // Second virtual node.
+		ring = new TokenRing(Partitioner.MURMUR3, endpoints);
+	}
+
+	@Test
+	public void eachNodeShouldOwnTokensFromPreviousTokenExcludedToItsTokenIncluded() {
+		assertThat(ring.getEndpoint(BigInteger.valueOf(-3000000000000000000L)), is("10.0.0.1"));
+		assertThat(ring.getEndpoint(BigInteger.valueOf(-2999999999999999999L)), is("10.0.0.2"));
+		assertThat(ring.getEndpoint(BigInteger.ZERO), is("10.0.0.2"));
+		assertThat(ring.getEndpoint(BigInteger.ONE), is("10.0.0.3"));
+		assertThat(ring.getEndpoint(BigInteger.valueOf(5000000000000000000L)), is("10.0.0.1"));
+		// Wrapping around the ring:
+		assertThat(ring.getEndpoint(BigInteger.valueOf(Long.MAX_VALUE)), is("10.0.0.1"));
+		assertThat(ring.getEndpoint(BigInteger.valueOf(Long.MIN_VALUE)), is("10.0.0.1"));
+	}
+
+	@Test
+	public void groupByEndpointShouldAssignEveryBucketToTheOwnerOfItsRow() {
+		RowKeyBuilder<String, ByteBuffer> rowKeys = TokenRing.serializedRowKeys(new RowKeyBuilder<String, String>() {
+			@Override
+			public String toRowKey(final String series, final long bucket) {
+				return series + ":" + bucket;
+			}
+		}, StringSerializer.get());
+
+		Map<String, List<Long>> groups = ring.groupByEndpoint("sensor42", ShardingFrequency.getBuckets(FROM, TO, ShardingFrequency.HOURLY), rowKeys);
+
+		List<Long> grouped = new ArrayList<Long>();
+		for (Map.Entry<String, List<Long>> group : groups.entrySet()) {
+			for (int i = 0; i < group.getValue().size(); i++) {
+				long bucket = group.getValue().get(i);
+				assertThat(ring.getEndpoint(Partitioner.MURMUR3.getToken(rowKeys.toRowKey("sensor42", bucket))), is(group.getKey()));
+				if (i > 0)
+					assertThat(bucket > group.getValue().get(i - 1), is(true));
+				grouped.add(bucket);
+			}
+		}
+		assertThat(grouped.size(), is(25));
+		assertThat(groups.size(), is(3));
+	}
+}
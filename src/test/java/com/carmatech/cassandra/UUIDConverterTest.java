@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+public class UUIDConverterTest {
+	@Test
+	public void convertCorbaUUIDToJavaUUIDIsEquivalentToStringRoundTrip() {
+		com.eaio.uuid.UUID corbaUuid = CorbaTimeUUID.createUUID();
+
+		UUID javaUuid = UUIDConverter.toJavaUUID(corbaUuid);
+
+		assertThat(javaUuid, is(UUID.fromString(corbaUuid.toString())));
+		assertThat(javaUuid.toString(), is(corbaUuid.toString()));
+		assertThat(javaUuid.version(), is(1));
+	}
+
+	@Test
+	public void convertJavaUUIDToCorbaUUIDIsEquivalentToStringRoundTrip() {
+		UUID javaUuid = TimeUUID.createUUID();
+
+		com.eaio.uuid.UUID corbaUuid = UUIDConverter.toCorbaUUID(javaUuid);
+
+		assertThat(corbaUuid, is(new com.eaio.uuid.UUID(javaUuid.toString())));
+		assertThat(corbaUuid.toString(), is(javaUuid.toString()));
+	}
+
+	@Test
+	public void toMillisWorksOnEitherUUIDFamily() {
+		long timestamp = new DateTime().getMillis();
+		UUID javaUuid = TimeUUID.toUUID(timestamp);
+		com.eaio.uuid.UUID corbaUuid = CorbaTimeUUID.toUUID(timestamp);
+
+		assertThat(TimeUUID.toMillis(javaUuid), is(timestamp));
+		assertThat(TimeUUID.toMillis(corbaUuid), is(timestamp));
+		assertThat(CorbaTimeUUID.toMillis(javaUuid), is(timestamp));
+		assertThat(CorbaTimeUUID.toMillis(corbaUuid), is(timestamp));
+	}
+
+	@Test
+	public void bulkConversionsPreserveOrderAndValues() {
+		com.eaio.uuid.UUID[] corbaUuids = new com.eaio.uuid.UUID[100];
+		for (int i = 0; i < corbaUuids.length; i++) {
+			corbaUuids[i] = CorbaTimeUUID.createUUID();
+		}
+
+		UUID[] javaUuids = UUIDConverter.toJavaUUIDs(corbaUuids);
+		com.eaio.uuid.UUID[] roundTrip = UUIDConverter.toCorbaUUIDs(javaUuids);
+
+		assertThat(javaUuids.length, is(corbaUuids.length));
+		for (int i = 0; i < corbaUuids.length; i++) {
+			assertThat(javaUuids[i].toString(), is(corbaUuids[i].toString()));
+			assertThat(roundTrip[i], is(corbaUuids[i]));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void bulkConversionIntoTooSmallArrayShouldFail() {
+		UUIDConverter.toJavaUUIDs(new com.eaio.uuid.UUID[] { CorbaTimeUUID.createUUID(), CorbaTimeUUID.createUUID() }, new UUID[1]);
+	}
+}
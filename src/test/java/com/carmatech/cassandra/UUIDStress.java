@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static com.carmatech.cassandra.UUIDTime.NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+import static com.carmatech.cassandra.UUIDTime.fromUUIDTime;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command-line stress tool simulating writer threads which generate IDs and calculate their buckets, to size production nodes and catch regressions
+ * under realistic, concurrent and possibly mixed workloads. <br />
+ * Usage:
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes:... com.carmatech.cassandra.UUIDStress [--threads 4] [--duration 10] [--warmup 2] [--rate 0] [--modes TIME_UUID,TIME_ID] [--frequency HOURLY]
+ * </pre>
+ * 
+ * <ul>
+ * <li><code>--threads</code>: number of writer threads. With several modes, threads are assigned modes in a round-robin fashion.</li>
+ * <li><code>--duration</code> and <code>--warmup</code>: measured and unmeasured durations, in seconds.</li>
+ * <li><code>--rate</code>: target number of operations per second, across all threads, or 0 to generate IDs as fast as possible. Latencies are measured
+ * from the time each operation was scheduled to start, so that stalls are not hidden by the threads falling behind schedule.</li>
+ * <li><code>--modes</code>: comma-separated {@link Mode}s.</li>
+ * <li><code>--frequency</code>: {@link ShardingFrequency} of the buckets calculated for each ID.</li>
+ * </ul>
+ * For each mode, the tool reports the throughput, latency percentiles, the number of IDs made unique by bumping their timestamp within the same
+ * millisecond (collisions), the number of IDs whose timestamp is after the requested one (run-ahead), and the number of bytes allocated per operation, if
+ * the JVM supports it.
+ */
+public final class UUIDStress {
+	private UUIDStress() {
+		// Command-line tool, do NOT instantiate.
+	}
+
+	private static final long NUM_100NS_INTERVALS_PER_MS = 10000;
+
+	/**
+	 * ID generators which can be stressed. Each one returns the timestamp of the generated ID, in 100s of nanoseconds since 1970-01-01T00:00Z.
+	 */
+	public enum Mode {
+		TIME_UUID {
+			@Override
+			long generate(final long timestamp, final MutableTimeUUID holder) {
+				return fromUUIDTime(TimeUUID.createUUID(timestamp).getMostSignificantBits()) - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+			}
+		},
+		REVERSE_TIME_UUID {
+			@Override
+			long generate(final long timestamp, final MutableTimeUUID holder) {
+				final long reversed = fromUUIDTime(ReverseTimeUUID.createUUID(timestamp).getMostSignificantBits());
+				return ReverseTimeUUID.MAX_TIMESTAMP_IN_100NS - reversed - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+			}
+		},
+		MUTABLE_TIME_UUID {
+			@Override
+			long generate(final long timestamp, final MutableTimeUUID holder) {
+				return fromUUIDTime(TimeUUID.generateInto(timestamp, holder).getMostSignificantBits()) - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+			}
+		},
+		CORBA_TIME_UUID {
+			@Override
+			long generate(final long timestamp, final MutableTimeUUID holder) {
+				return fromUUIDTime(CorbaTimeUUID.createUUID(timestamp).getTime()) - NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
+			}
+		},
+		TIME_ID {
+			@Override
+			long generate(final long timestamp, final MutableTimeUUID holder) {
+				// The sequence is at most 4095, so it fits within a millisecond:
+				final long id = TimeId.createId(timestamp);
+				return TimeId.toMillis(id) * NUM_100NS_INTERVALS_PER_MS + (id & ((1L << TimeId.SEQUENCE_BITS) - 1));
+			}
+		};
+
+		abstract long generate(long timestamp, MutableTimeUUID holder);
+	}
+
+	public static void main(final String[] args) throws InterruptedException {
+		final Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: UUIDStress [--threads 4] [--duration 10] [--warmup 2] [--rate 0] [--modes TIME_UUID,TIME_ID] [--frequency HOURLY]");
+			System.exit(1);
+			return;
+		}
+		System.out.println("Running " + options + "...");
+		for (final Stats stats : run(options).values()) {
+			System.out.println(stats);
+		}
+	}
+
+	static Map<Mode, Stats> run(final Options options) throws InterruptedException {
+		final long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10); // Let all threads start.
+		final long measureFromNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(options.warmupMillis);
+		final long endNanos = measureFromNanos + TimeUnit.MILLISECONDS.toNanos(options.durationMillis);
+		final long intervalNanos = (options.rate == 0) ? 0 : Math.max(1, TimeUnit.SECONDS.toNanos(options.threads) / options.rate);
+
+		Worker.allocatedBytes(); // Load management classes before starting, rather than while measuring.
+		if (options.modes.contains(Mode.TIME_ID))
+			TimeId.setNode(0); // This process is the only one generating IDs.
+		final List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < options.threads; i++) {
+			final Mode mode = options.modes.get(i % options.modes.size());
+			final Worker worker = new Worker(mode, options.frequency, startNanos, measureFromNanos, endNanos, intervalNanos);
+			worker.setName("UUIDStress-" + i + "-" + mode);
+			workers.add(worker);
+		}
+		for (final Worker worker : workers) {
+			worker.start();
+		}
+
+		final Map<Mode, Stats> results = new EnumMap<Mode, Stats>(Mode.class);
+		for (final Worker worker : workers) {
+			worker.join();
+			Stats stats = results.get(worker.mode);
+			if (stats == null) {
+				stats = new Stats(worker.mode, options.durationMillis);
+				results.put(worker.mode, stats);
+			}
+			stats.add(worker.stats);
+		}
+		return results;
+	}
+
+	static final class Options {
+		int threads = 4;
+		long durationMillis = 10000;
+		long warmupMillis = 2000;
+		long rate = 0;
+		List<Mode> modes = new ArrayList<Mode>();
+		ShardingFrequency frequency = ShardingFrequency.HOURLY;
+
+		static Options parse(final String... args) {
+			final Options options = new Options();
+			checkArgument(args.length % 2 == 0, "Options must be followed by their value but were " + Arrays.toString(args) + ".");
+			for (int i = 0; i < args.length; i += 2) {
+				final String name = args[i];
+				final String value = args[i + 1];
+				if ("--threads".equals(name))
+					options.threads = (int) parsePositive(name, value);
+				else if ("--duration".equals(name))
+					options.durationMillis = TimeUnit.SECONDS.toMillis(parsePositive(name, value));
+				else if ("--warmup".equals(name))
+					options.warmupMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+				else if ("--rate".equals(name))
+					options.rate = Long.parseLong(value);
+				else if ("--modes".equals(name))
+					for (final String mode : value.split(","))
+						options.modes.add(Mode.valueOf(mode.trim().toUpperCase(Locale.ENGLISH)));
+				else if ("--frequency".equals(name))
+					options.frequency = ShardingFrequency.valueOf(value.toUpperCase(Locale.ENGLISH));
+				else
+					throw new IllegalArgumentException("Unknown option: [" + name + "].");
+			}
+			checkArgument(options.warmupMillis >= 0, "Warm-up must be POSITIVE but was [" + options.warmupMillis + "].");
+			checkArgument(options.rate >= 0, "Rate must be POSITIVE but was [" + options.rate + "].");
+			if (options.modes.isEmpty())
+				options.modes.add(Mode.TIME_UUID);
+			return options;
+		}
+
+		private static long parsePositive(final String name, final String value) {
+			final long parsed = Long.parseLong(value);
+			checkArgument(parsed > 0, "Option " + name + " must be STRICTLY POSITIVE but was [" + value + "].");
+			return parsed;
+		}
+
+		@Override
+		public String toString() {
+			return "threads=" + threads + ", duration=" + durationMillis + " ms, warm-up=" + warmupMillis + " ms, rate="
+					+ ((rate == 0) ? "unlimited" : rate + " ops/s") + ", modes=" + modes + ", frequency=" + frequency;
+		}
+	}
+
+	/**
+	 * Statistics of one mode, i.e. of all the threads which used it.
+	 */
+	static final class Stats {
+		final Mode mode;
+		final long durationMillis;
+		final LogLinearHistogram latencyNanos = new LogLinearHistogram();
+		long operations;
+		long collisions;
+		long runAheads;
+		long maxRunAheadMillis;
+		long allocatedBytes;
+
+		Stats(final Mode mode, final long durationMillis) {
+			this.mode = mode;
+			this.durationMillis = durationMillis;
+		}
+
+		void add(final Stats other) {
+			latencyNanos.add(other.latencyNanos);
+			operations += other.operations;
+			collisions += other.collisions;
+			runAheads += other.runAheads;
+			maxRunAheadMillis = Math.max(maxRunAheadMillis, other.maxRunAheadMillis);
+			allocatedBytes = ((allocatedBytes < 0) || (other.allocatedBytes < 0)) ? -1 : allocatedBytes + other.allocatedBytes;
+		}
+
+		double getThroughput() {
+			return operations * 1000.0 / durationMillis;
+		}
+
+		/**
+		 * @return the average number of bytes allocated per operation, or {@link Double#NaN} if the JVM does not support measuring it.
+		 */
+		double getAllocatedBytesPerOperation() {
+			return (allocatedBytes < 0) ? Double.NaN : (double) allocatedBytes / operations;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ENGLISH, "%-17s %,12d ops  %,14.0f ops/s  latency (ns) p50=%,d p99=%,d p99.9=%,d max=%,d  "
+					+ "collisions=%,d  run-aheads=%,d (max %,d ms)  allocated=%.1f bytes/op", mode, operations, getThroughput(),
+					latencyNanos.getValueAtPercentile(50), latencyNanos.getValueAtPercentile(99), latencyNanos.getValueAtPercentile(99.9),
+					latencyNanos.getMax(), collisions, runAheads, maxRunAheadMillis, getAllocatedBytesPerOperation());
+		}
+	}
+
+	private static final class Worker extends Thread {
+		private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+		private static final Method GET_THREAD_ALLOCATED_BYTES = getThreadAllocatedBytesMethod();
+
+		private final Mode mode;
+		private final ShardingFrequency frequency;
+		private final long startNanos;
+		private final long measureFromNanos;
+		private final long endNanos;
+		private final long intervalNanos;
+		private final Stats stats;
+		private final MutableTimeUUID holder = new MutableTimeUUID();
+		private long blackhole;
+		// Bucket calculations are published there once done, so that the JIT compiler cannot eliminate them:
+		private volatile long consumed;
+
+		Worker(final Mode mode, final ShardingFrequency frequency, final long startNanos, final long measureFromNanos, final long endNanos,
+				final long intervalNanos) {
+			this.mode = mode;
+			this.frequency = frequency;
+			this.startNanos = startNanos;
+			this.measureFromNanos = measureFromNanos;
+			this.endNanos = endNanos;
+			this.intervalNanos = intervalNanos;
+			this.stats = new Stats(mode, 0);
+		}
+
+		@Override
+		public void run() {
+			long scheduledNanos = startNanos;
+			long allocatedBefore = -1;
+			boolean measuring = false;
+			while (true) {
+				if (intervalNanos > 0) {
+					waitUntil(scheduledNanos);
+				}
+				final long beginNanos = System.nanoTime();
+				// When paced, operations are attributed to the time they were scheduled at, so that late ones are still counted, with their delay:
+				final long operationNanos = (intervalNanos > 0) ? scheduledNanos : beginNanos;
+				if (operationNanos >= endNanos)
+					break;
+				if (!measuring && (operationNanos >= measureFromNanos)) {
+					measuring = true;
+					allocatedBefore = allocatedBytes();
+				}
+
+				final long timestamp = System.currentTimeMillis();
+				final long generated = mode.generate(timestamp, holder);
+				final long millis = generated / NUM_100NS_INTERVALS_PER_MS;
+				blackhole += ShardingFrequency.calculateBucket(millis, frequency);
+				final long latencyNanos = System.nanoTime() - operationNanos;
+				scheduledNanos += intervalNanos;
+
+				if (measuring) {
+					++stats.operations;
+					stats.latencyNanos.record(Math.max(0, latencyNanos));
+					if (generated % NUM_100NS_INTERVALS_PER_MS != 0)
+						++stats.collisions;
+					if (millis > timestamp) {
+						++stats.runAheads;
+						stats.maxRunAheadMillis = Math.max(stats.maxRunAheadMillis, millis - timestamp);
+					}
+				}
+			}
+			final long allocatedAfter = allocatedBytes();
+			stats.allocatedBytes = ((allocatedBefore < 0) || (allocatedAfter < 0)) ? -1 : allocatedAfter - allocatedBefore;
+			consumed = blackhole;
+		}
+
+		private static void waitUntil(final long nanos) {
+			for (long remaining = nanos - System.nanoTime(); remaining > 0; remaining = nanos - System.nanoTime()) {
+				// Parking is too coarse for short waits, which are spun instead:
+				if (remaining > TimeUnit.MICROSECONDS.toNanos(100))
+					LockSupport.parkNanos(remaining - TimeUnit.MICROSECONDS.toNanos(50));
+			}
+		}
+
+		static long allocatedBytes() {
+			if (GET_THREAD_ALLOCATED_BYTES == null)
+				return -1;
+			try {
+				return (Long) GET_THREAD_ALLOCATED_BYTES.invoke(THREAD_BEAN, Thread.currentThread().getId());
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+
+		private static Method getThreadAllocatedBytesMethod() {
+			// Looked up reflectively, as com.sun.management.ThreadMXBean only exists on HotSpot-based JVMs:
+			try {
+				final Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+				if (!sunBean.isInstance(THREAD_BEAN) || !(Boolean) sunBean.getMethod("isThreadAllocatedMemorySupported").invoke(THREAD_BEAN)
+						|| !(Boolean) sunBean.getMethod("isThreadAllocatedMemoryEnabled").invoke(THREAD_BEAN))
+					return null;
+				return sunBean.getMethod("getThreadAllocatedBytes", long.class);
+			} catch (Exception e) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2013 Marc CARRE
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.carmatech.cassandra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.carmatech.cassandra.UUIDStress.Mode;
+import com.carmatech.cassandra.UUIDStress.Options;
+import com.carmatech.cassandra.UUIDStress.Stats;
+
+public class UUIDStressTest {
+	@Test
+	public void optionsShouldDefaultToTimeUUIDsAsFastAsPossible() {
+		Options options = Options.parse();
+
+		assertThat(options.threads, is(4));
+		assertThat(options.rate, is(0L));
+		assertThat(options.modes, is(Arrays.asList(Mode.TIME_UUID)));
+		assertThat(options.frequency, is(ShardingFrequency.HOURLY));
+	}
+
+	@Test
+	public void optionsShouldBeParsed() {
+		Options options = Options.parse("--threads", "8", "--duration", "30", "--warmup", "0", "--rate", "100000", "--modes", "time_id, corba_time_uuid",
+				"--frequency", "daily");
+
+		assertThat(options.threads, is(8));
+		assertThat(options.durationMillis, is(30000L));
+		assertThat(options.warmupMillis, is(0L));
+		assertThat(options.rate, is(100000L));
+		assertThat(options.modes, is(Arrays.asList(Mode.TIME_ID, Mode.CORBA_TIME_UUID)));
+		assertThat(options.frequency, is(ShardingFrequency.DAILY));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownOptionsShouldBeRejected() {
+		Options.parse("--thread", "8");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nonPositiveNumberOfThreadsShouldBeRejected() {
+		Options.parse("--threads", "0");
+	}
+
+	@Test
+	public void eachModeShouldReportStatisticsOfAllItsThreadsAtTargetRate() throws InterruptedException {
+		Options options = new Options();
+		options.threads = 3;
+		options.durationMillis = 500;
+		options.warmupMillis = 100;
+		options.rate = 6000;
+		options.modes = Arrays.asList(Mode.MUTABLE_TIME_UUID, Mode.TIME_ID);
+
+		Map<Mode, Stats> results = UUIDStress.run(options);
+
+		assertThat(results.keySet(), is((Set<Mode>) EnumSet.of(Mode.MUTABLE_TIME_UUID, Mode.TIME_ID)));
+		Stats uuids = results.get(Mode.MUTABLE_TIME_UUID); // 2 threads out of 3.
+		Stats ids = results.get(Mode.TIME_ID);
+		assertThat(uuids.operations, is(greaterThan(ids.operations)));
+		assertThat(uuids.operations + ids.operations, is(lessThanOrEqualTo(6000L * 500 / 1000 + options.threads)));
+		assertThat(uuids.operations + ids.operations, is(greaterThan(6000L * 500 / 1000 / 2)));
+		assertThat(uuids.latencyNanos.getCount(), is(uuids.operations));
+		assertThat(uuids.getThroughput(), is(uuids.operations * 2.0));
+		assertThat(uuids.toString().startsWith("MUTABLE_TIME_UUID"), is(true));
+	}
+}